@@ -0,0 +1,33 @@
+package io.yokota.json.lenses;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once per thread count, with the GC profiler enabled so
+ * that allocation per operation is reported next to throughput.
+ *
+ * <p>Arguments are the usual JMH command line options. Thread counts are
+ * taken from the {@code threads} system property, a comma-separated list
+ * that defaults to {@code 1} and the number of available processors.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        CommandLineOptions cmdOptions = new CommandLineOptions(args);
+        int cpus = Runtime.getRuntime().availableProcessors();
+        String threads = System.getProperty("threads", cpus > 1 ? "1," + cpus : "1");
+        for (String t : threads.split(",")) {
+            ChainedOptionsBuilder options = new OptionsBuilder()
+                .parent(cmdOptions)
+                .threads(Integer.parseInt(t.trim()))
+                .addProfiler(GCProfiler.class);
+            new Runner(options.build()).run();
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.ValueMapping;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates a lens and a matching input document of a given shape and size.
+ */
+public final class Documents {
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private static final String[] COLORS = {
+        "red", "orange", "yellow", "green", "blue", "indigo", "violet", "black",
+        "white", "gray", "brown", "pink", "cyan", "magenta", "olive", "navy"
+    };
+
+    public enum Shape {
+        /** One object with {@code size} top-level fields. */
+        FLAT,
+        /** Objects nested {@code size} levels deep, lensed at every level. */
+        DEEP,
+        /** An array of {@code size} objects, lensed with a map. */
+        ARRAY,
+        /** {@code size} top-level fields, each with a value conversion. */
+        CONVERT
+    }
+
+    private final List<LensOp> lens;
+    private final JsonNode doc;
+
+    private Documents(List<LensOp> lens, JsonNode doc) {
+        this.lens = lens;
+        this.doc = doc;
+    }
+
+    public List<LensOp> getLens() {
+        return lens;
+    }
+
+    public JsonNode getDoc() {
+        return doc;
+    }
+
+    public String getLensExpr() {
+        try {
+            return MAPPER.writerFor(new TypeReference<List<LensOp>>() {
+            }).writeValueAsString(lens);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Documents generate(Shape shape, int size) {
+        switch (shape) {
+            case FLAT:
+                return flat(size);
+            case DEEP:
+                return deep(size);
+            case ARRAY:
+                return array(size);
+            case CONVERT:
+                return convert(size);
+            default:
+                throw new IllegalArgumentException("Unsupported shape " + shape);
+        }
+    }
+
+    private static Documents flat(int size) {
+        List<LensOp> lens = new ArrayList<>();
+        ObjectNode doc = NODES.objectNode();
+        for (int i = 0; i < size; i++) {
+            String name = "field" + i;
+            switch (i % 4) {
+                case 0:
+                    doc.put(name, "value" + i);
+                    lens.add(new RenameProperty(name, "renamed" + i));
+                    break;
+                case 1:
+                    doc.put(name, i);
+                    lens.add(new RemoveProperty(name, 0));
+                    break;
+                case 2:
+                    doc.put(name, i % 3 == 0);
+                    lens.add(new WrapProperty(name));
+                    break;
+                default:
+                    doc.put(name, "value" + i);
+                    lens.add(new AddProperty("added" + i, "default" + i));
+                    break;
+            }
+        }
+        return new Documents(lens, doc);
+    }
+
+    private static Documents deep(int size) {
+        List<LensOp> lens = new ArrayList<>();
+        ObjectNode doc = NODES.objectNode();
+        List<LensOp> level = lens;
+        ObjectNode node = doc;
+        for (int i = 0; i < size; i++) {
+            node.put("title", "title" + i);
+            node.put("count", i);
+            node.set("tags", NODES.arrayNode().add("tag" + i).add("other"));
+            level.add(new RenameProperty("title", "name"));
+            level.add(new HeadProperty("tags"));
+            level.add(new AddProperty("description", ""));
+            if (i < size - 1) {
+                ObjectNode child = NODES.objectNode();
+                node.set("child", child);
+                List<LensOp> childLens = new ArrayList<>();
+                level.add(new LensIn("child", childLens));
+                level = childLens;
+                node = child;
+            }
+        }
+        return new Documents(lens, doc);
+    }
+
+    private static Documents array(int size) {
+        ArrayNode items = NODES.arrayNode();
+        for (int i = 0; i < size; i++) {
+            ObjectNode item = items.addObject();
+            item.put("title", "item" + i);
+            item.put("done", i % 2 == 0);
+            item.putObject("metadata").put("createdAt", "2023-07-" + (i % 28 + 1));
+        }
+        ObjectNode doc = NODES.objectNode();
+        doc.put("name", "list");
+        doc.set("items", items);
+        List<LensOp> itemLens = List.of(
+            new RenameProperty("title", "name"),
+            new WrapProperty("done"),
+            new AddProperty("color", "#ffffff"),
+            new HoistProperty("metadata", "createdAt"));
+        List<LensOp> lens = List.of(
+            new LensIn("items", Collections.singletonList(new LensMap(itemLens))));
+        return new Documents(lens, doc);
+    }
+
+    private static Documents convert(int size) {
+        Map<Object, Object> forward = new HashMap<>();
+        Map<Object, Object> reverse = new HashMap<>();
+        for (int i = 0; i < COLORS.length; i++) {
+            // JSON object keys are strings, so map to strings to survive the rule expression
+            String code = String.format("#%06x", i * 0x111111);
+            forward.put(COLORS[i], code);
+            reverse.put(code, COLORS[i]);
+        }
+        List<LensOp> lens = new ArrayList<>();
+        ObjectNode doc = NODES.objectNode();
+        for (int i = 0; i < size; i++) {
+            String name = "color" + i;
+            doc.put(name, COLORS[i % COLORS.length]);
+            lens.add(new ConvertValue(name, new ValueMapping(forward, reverse)));
+        }
+        return new Documents(lens, doc);
+    }
+}
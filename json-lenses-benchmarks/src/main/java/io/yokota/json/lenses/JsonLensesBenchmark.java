@@ -0,0 +1,126 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flipkart.zjsonpatch.JsonDiff;
+import io.yokota.json.lenses.ops.LensOp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonLensesBenchmark {
+
+    @Param({"FLAT", "DEEP", "ARRAY", "CONVERT"})
+    public Documents.Shape shape;
+
+    @Param({"10", "100"})
+    public int size;
+
+    private List<LensOp> lens;
+    private CompiledLens compiledLens;
+    private CompiledLens specializedLens;
+    private JsonNode doc;
+    private ArrayNode patch;
+    private List<PatchOp> patchOps;
+    private JsonNode rootOp;
+    private Context ctx;
+    private List<JsonNode> lensedPatch;
+
+    @Setup
+    public void setup() {
+        Documents documents = Documents.generate(shape, size);
+        lens = documents.getLens();
+        compiledLens = JsonLenses.compile(lens);
+        specializedLens = JsonLenses.compile(lens, false, true);
+        doc = documents.getDoc();
+        patch = (ArrayNode) JsonDiff.asJson(JsonLenses.emptyDoc(), doc);
+        patchOps = new ArrayList<>();
+        patch.forEach(patchOp -> patchOps.add(PatchOp.fromJson(patchOp)));
+
+        ObjectNode op = JsonNodeFactory.instance.objectNode();
+        op.put("op", "add");
+        op.put("path", "");
+        op.set("value", doc);
+        rootOp = op;
+
+        ctx = new Context();
+        lens.forEach(l -> l.apply(ctx));
+        lensedPatch = new ArrayList<>(JsonLenses.expandPatch(rootOp));
+        lensedPatch.replaceAll(patchOp -> JsonLenses.applyLensToPatchOp(lens, patchOp));
+        lensedPatch.removeIf(patchOp -> patchOp == null);
+    }
+
+    @Benchmark
+    public JsonNode applyLensToDoc() {
+        return JsonLenses.applyLensToDoc(lens, doc, null);
+    }
+
+    @Benchmark
+    public JsonNode compiledApply() {
+        return compiledLens.apply(doc);
+    }
+
+    @Benchmark
+    public JsonNode specializedApply() {
+        return specializedLens.apply(doc);
+    }
+
+    @Benchmark
+    public ArrayNode applyLensToPatch() {
+        return JsonLenses.applyLensToPatch(lens, patch);
+    }
+
+    @Benchmark
+    public ArrayNode compiledApplyToPatch() {
+        return compiledLens.applyToPatch(patch);
+    }
+
+    @Benchmark
+    public ArrayNode specializedApplyToPatch() {
+        return specializedLens.applyToPatch(patch);
+    }
+
+    /**
+     * Lenses the same patch as {@link #compiledApplyToPatch}, but consumes
+     * the lensed ops as they are produced instead of collecting them, so the
+     * allocation reported by the GC profiler excludes the expanded patch.
+     */
+    @Benchmark
+    public void compiledApplyToPatchLazily(Blackhole blackhole) {
+        for (Iterator<PatchOp> it = compiledLens.applyToPatch(patchOps.iterator()); it.hasNext(); ) {
+            blackhole.consume(it.next());
+        }
+    }
+
+    @Benchmark
+    public List<JsonNode> expandPatch() {
+        return JsonLenses.expandPatch(rootOp);
+    }
+
+    @Benchmark
+    public List<JsonNode> addDefaultValues() {
+        return JsonLenses.addDefaultValues(ctx, lensedPatch);
+    }
+}
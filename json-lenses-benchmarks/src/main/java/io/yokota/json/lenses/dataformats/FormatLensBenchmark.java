@@ -0,0 +1,70 @@
+package io.yokota.json.lenses.dataformats;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.Documents;
+import io.yokota.json.lenses.JsonLenses;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lenses the same documents encoded as JSON text, Smile and CBOR, reporting
+ * the bytes of input lensed per second as the {@code bytes} counter.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FormatLensBenchmark {
+
+    @Param({"FLAT", "DEEP", "ARRAY", "CONVERT"})
+    public Documents.Shape shape;
+
+    @Param({"10", "100"})
+    public int size;
+
+    @Param({"JSON", "SMILE", "CBOR"})
+    public DataFormat format;
+
+    private FormatLens lens;
+    private byte[] input;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Documents documents = Documents.generate(shape, size);
+        lens = new FormatLens(JsonLenses.compile(documents.getLens()), format, format);
+        input = new ObjectMapper(format.getFactory()).writeValueAsBytes(documents.getDoc());
+    }
+
+    @Benchmark
+    public byte[] apply(Bytes counter) throws IOException {
+        counter.bytes += input.length;
+        return lens.apply(input);
+    }
+}
@@ -0,0 +1,68 @@
+package io.yokota.json.lenses.rules;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.confluent.kafka.schemaregistry.client.rest.entities.Rule;
+import io.confluent.kafka.schemaregistry.client.rest.entities.RuleMode;
+import io.confluent.kafka.schemaregistry.rules.RuleContext;
+import io.confluent.kafka.schemaregistry.rules.RuleException;
+import io.yokota.json.lenses.Documents;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonLensesExecutorBenchmark {
+
+    @Param({"FLAT", "DEEP", "ARRAY", "CONVERT"})
+    public Documents.Shape shape;
+
+    @Param({"10", "100"})
+    public int size;
+
+    @Param({"UPGRADE", "DOWNGRADE"})
+    public RuleMode mode;
+
+    private JsonLensesExecutor executor;
+    private RuleContext ctx;
+    private JsonNode message;
+
+    @Setup
+    public void setup() throws RuleException {
+        Documents documents = Documents.generate(shape, size);
+        Rule rule = new Rule(null, null, null, null, JsonLensesExecutor.TYPE, null, null,
+            documents.getLensExpr(), null, null, false);
+        executor = new JsonLensesExecutor();
+        ctx = context(rule, mode);
+        message = documents.getDoc();
+        if (mode == RuleMode.DOWNGRADE) {
+            // downgrade what an upgrade produced
+            message = (JsonNode) executor.transform(context(rule, RuleMode.UPGRADE), message);
+        }
+    }
+
+    private static RuleContext context(Rule rule, RuleMode mode) {
+        return new RuleContext(null, null, null, null, null, null, null, false,
+            mode, rule, 0, Collections.singletonList(rule));
+    }
+
+    @Benchmark
+    public Object transform() throws RuleException {
+        return executor.transform(ctx, message);
+    }
+}
@@ -0,0 +1,115 @@
+package io.yokota.json.lenses.cli;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.CompiledLens;
+import io.yokota.json.lenses.JsonLenses;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lenses a file of newline-delimited JSON documents with a lens read from a
+ * file; see {@link NdjsonMigrator}.
+ *
+ * <pre>
+ * java -jar json-lenses-cli.jar [options] &lt;lens&gt; &lt;input&gt; &lt;output&gt;
+ * </pre>
+ */
+public class Main {
+
+    private static final String USAGE = "Usage: json-lenses-cli [options] <lens> <input> <output>\n"
+        + "  --reverse             apply the reverse of the lens\n"
+        + "  --threads <n>         number of workers (default: available processors)\n"
+        + "  --chunk-size <bytes>  approximate size of each chunk of input (default: "
+        + NdjsonMigrator.DEFAULT_CHUNK_SIZE + ")\n"
+        + "  --gzip                gzip the output\n"
+        + "  --resume              continue from the checkpoint of the output, if any\n"
+        + "  --checkpoint <ms>     interval between checkpoints and progress reports (default: "
+        + NdjsonMigrator.DEFAULT_CHECKPOINT_MILLIS + ")\n"
+        + "  --quiet               do not report progress";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.err));
+    }
+
+    static int run(String[] args, PrintStream err) {
+        boolean reverse = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int chunkSize = NdjsonMigrator.DEFAULT_CHUNK_SIZE;
+        boolean gzip = false;
+        boolean resume = false;
+        long checkpointMillis = NdjsonMigrator.DEFAULT_CHECKPOINT_MILLIS;
+        boolean quiet = false;
+        List<String> paths = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--reverse":
+                        reverse = true;
+                        break;
+                    case "--threads":
+                        threads = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--chunk-size":
+                        chunkSize = Integer.parseInt(value(args, ++i));
+                        break;
+                    case "--gzip":
+                        gzip = true;
+                        break;
+                    case "--resume":
+                        resume = true;
+                        break;
+                    case "--checkpoint":
+                        checkpointMillis = Long.parseLong(value(args, ++i));
+                        break;
+                    case "--quiet":
+                        quiet = true;
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) {
+                            throw new IllegalArgumentException("Unknown option " + args[i]);
+                        }
+                        paths.add(args[i]);
+                }
+            }
+            if (paths.size() != 3) {
+                throw new IllegalArgumentException("Expected a lens, an input and an output");
+            }
+        } catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE);
+            return 2;
+        }
+        try {
+            CompiledLens lens = readLens(Paths.get(paths.get(0)));
+            NdjsonMigrator migrator = new NdjsonMigrator(reverse ? lens.reverse() : lens,
+                threads, chunkSize, gzip, checkpointMillis, quiet ? null : err);
+            migrator.migrate(Paths.get(paths.get(1)), Paths.get(paths.get(2)), resume);
+            return 0;
+        } catch (IOException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            return 1;
+        }
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value for " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private static CompiledLens readLens(Path path) throws IOException {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        List<LensOp> ops = mapper.readValue(path.toFile(), new TypeReference<List<LensOp>>() {
+        });
+        return JsonLenses.compile(ops);
+    }
+}
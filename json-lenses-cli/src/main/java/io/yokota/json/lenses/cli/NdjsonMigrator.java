@@ -0,0 +1,435 @@
+package io.yokota.json.lenses.cli;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.yokota.json.lenses.CompiledLens;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Lenses a file of newline-delimited JSON documents into another.
+ *
+ * <p>The input is memory-mapped and split into chunks that end on a newline,
+ * which are lensed in parallel and written out in input order, so at most a
+ * few chunks per worker are held in memory however large the input. The
+ * output may be gzipped. Every so often, the offsets of the input and output
+ * up to the last chunk written are saved to a checkpoint file next to the
+ * output, from which an interrupted migration resumes; a gzipped output then
+ * consists of several gzip members, which readers of gzip concatenate. The
+ * checkpoint also records whether the output is gzipped and a hash of the
+ * lens, and a migration only resumes from it with the same of both.
+ */
+public final class NdjsonMigrator {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    public static final long DEFAULT_CHECKPOINT_MILLIS = 10_000;
+
+    private static final JsonFactory FACTORY = Jackson.newObjectMapper().getFactory();
+    private static final ObjectWriter LENS_WRITER = Jackson.newObjectMapper()
+        .writerFor(new TypeReference<List<LensOp>>() {
+        });
+    private static final SerializedString NEWLINE = new SerializedString("\n");
+
+    private static final String INPUT_SIZE = "input.size";
+    private static final String INPUT_OFFSET = "input.offset";
+    private static final String OUTPUT_OFFSET = "output.offset";
+    private static final String OUTPUT_GZIP = "output.gzip";
+    private static final String LENS_HASH = "lens.sha256";
+
+    private final CompiledLens lens;
+    private final int threads;
+    private final int chunkSize;
+    private final boolean gzip;
+    private final long checkpointMillis;
+    private final PrintStream progress;
+
+    /**
+     * Creates a migrator that lenses chunks of about {@code chunkSize} bytes
+     * on {@code threads} workers, saves a checkpoint at most every
+     * {@code checkpointMillis}, and reports its progress to {@code progress}
+     * at the same pace, unless it is null.
+     */
+    public NdjsonMigrator(CompiledLens lens, int threads, int chunkSize, boolean gzip,
+                          long checkpointMillis, PrintStream progress) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Threads must be positive: " + threads);
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.lens = Objects.requireNonNull(lens);
+        this.threads = threads;
+        this.chunkSize = chunkSize;
+        this.gzip = gzip;
+        this.checkpointMillis = checkpointMillis;
+        this.progress = progress;
+    }
+
+    /**
+     * Returns the checkpoint file of the given output.
+     */
+    public static Path checkpointFile(Path output) {
+        return output.resolveSibling(output.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * Lenses {@code input} into {@code output}. If {@code resume} is set and
+     * the output has a checkpoint, the migration continues from it; otherwise
+     * the output is replaced, and any checkpoint of it removed. The checkpoint
+     * is removed once the whole input has been written.
+     *
+     * @return the number of documents written by this call
+     * @throws IllegalArgumentException if the checkpoint is for another input
+     *     size, lens or compression
+     */
+    public long migrate(Path input, Path output, boolean resume) throws IOException {
+        Path checkpoint = checkpointFile(output);
+        String lensHash = lensHash();
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long inputOffset = 0;
+            long outputOffset = 0;
+            if (resume && Files.exists(checkpoint)) {
+                Properties props = readCheckpoint(checkpoint);
+                if (Long.parseLong(props.getProperty(INPUT_SIZE)) != size) {
+                    throw new IllegalArgumentException("Checkpoint " + checkpoint + " is for an input of "
+                        + props.getProperty(INPUT_SIZE) + " bytes, not " + size);
+                }
+                if (!String.valueOf(gzip).equals(props.getProperty(OUTPUT_GZIP))) {
+                    throw new IllegalArgumentException("Checkpoint " + checkpoint + " is for "
+                        + (gzip ? "an uncompressed" : "a gzipped") + " output");
+                }
+                if (!lensHash.equals(props.getProperty(LENS_HASH))) {
+                    throw new IllegalArgumentException("Checkpoint " + checkpoint + " is for another lens");
+                }
+                inputOffset = Long.parseLong(props.getProperty(INPUT_OFFSET));
+                outputOffset = Long.parseLong(props.getProperty(OUTPUT_OFFSET));
+            } else {
+                // the checkpoint is for output that is about to be dropped
+                Files.deleteIfExists(checkpoint);
+            }
+            // drop whatever was written after the checkpoint
+            out.truncate(outputOffset);
+            out.position(outputOffset);
+            Run run = new Run(in, out, size, inputOffset, checkpoint, lensHash);
+            run.execute();
+            Files.deleteIfExists(checkpoint);
+            return run.docs;
+        }
+    }
+
+    private final class Run {
+        private final FileChannel in;
+        private final FileChannel out;
+        private final long size;
+        private final Path checkpoint;
+        private final String lensHash;
+        private final long startOffset;
+        private final long startNanos = System.nanoTime();
+        private long readOffset;
+        private long writtenOffset;
+        private long docs;
+        private long lastCheckpoint = System.currentTimeMillis();
+        private OutputStream gzipOut;
+
+        Run(FileChannel in, FileChannel out, long size, long offset, Path checkpoint, String lensHash) {
+            this.in = in;
+            this.out = out;
+            this.size = size;
+            this.checkpoint = checkpoint;
+            this.lensHash = lensHash;
+            this.startOffset = offset;
+            this.readOffset = offset;
+            this.writtenOffset = offset;
+        }
+
+        void execute() throws IOException {
+            ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "ndjson-migrator");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                Deque<Chunk> inFlight = new ArrayDeque<>();
+                while (readOffset < size || !inFlight.isEmpty()) {
+                    // keep every worker busy, with one more chunk each queued behind it
+                    while (readOffset < size && inFlight.size() < 2 * threads) {
+                        ByteBuffer buffer = nextChunk();
+                        long offset = readOffset;
+                        readOffset += buffer.remaining();
+                        inFlight.add(new Chunk(offset, readOffset, executor.submit(() -> lensChunk(buffer))));
+                    }
+                    write(inFlight.remove());
+                }
+                finishMember();
+                out.force(false);
+            } finally {
+                executor.shutdownNow();
+            }
+            report();
+        }
+
+        /**
+         * Maps the next chunk of the input, which ends after the last newline
+         * within the chunk size, or at the end of the input. A line longer
+         * than the chunk size makes a chunk of its own.
+         */
+        private ByteBuffer nextChunk() throws IOException {
+            long length = Math.min(chunkSize, size - readOffset);
+            while (true) {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, readOffset, length);
+                if (readOffset + length == size) {
+                    return window;
+                }
+                for (int i = (int) length - 1; i >= 0; i--) {
+                    if (window.get(i) == '\n') {
+                        window.limit(i + 1);
+                        return window;
+                    }
+                }
+                if (length == Integer.MAX_VALUE) {
+                    throw new IllegalArgumentException("The line at input offset " + readOffset
+                        + " is too long to map");
+                }
+                length = Math.min(Math.min(2 * length, Integer.MAX_VALUE), size - readOffset);
+            }
+        }
+
+        private void write(Chunk chunk) throws IOException {
+            Lensed lensed;
+            try {
+                lensed = chunk.result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                String message = "Could not lens the chunk at input offset " + chunk.start + ": "
+                    + cause.getMessage();
+                if (cause instanceof UncheckedIOException) {
+                    throw new IOException(message, cause.getCause());
+                }
+                throw new IllegalArgumentException(message, cause);
+            }
+            byte[] bytes = lensed.bytes;
+            if (gzip) {
+                if (gzipOut == null) {
+                    gzipOut = new GZIPOutputStream(new UnclosedOutputStream(Channels.newOutputStream(out)), 65536);
+                }
+                gzipOut.write(bytes);
+            } else {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+            }
+            docs += lensed.docs;
+            writtenOffset = chunk.end;
+            long now = System.currentTimeMillis();
+            if (now - lastCheckpoint >= checkpointMillis && writtenOffset < size) {
+                saveCheckpoint();
+                report();
+                lastCheckpoint = now;
+            }
+        }
+
+        private void finishMember() throws IOException {
+            if (gzipOut != null) {
+                // the gzip member ends here, so that the output is readable up to this point
+                gzipOut.close();
+                gzipOut = null;
+            }
+        }
+
+        private void saveCheckpoint() throws IOException {
+            finishMember();
+            out.force(false);
+            Properties props = new Properties();
+            props.setProperty(INPUT_SIZE, String.valueOf(size));
+            props.setProperty(INPUT_OFFSET, String.valueOf(writtenOffset));
+            props.setProperty(OUTPUT_OFFSET, String.valueOf(out.position()));
+            props.setProperty(OUTPUT_GZIP, String.valueOf(gzip));
+            props.setProperty(LENS_HASH, lensHash);
+            Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                props.store(writer, null);
+            }
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private void report() {
+            if (progress == null) {
+                return;
+            }
+            double seconds = Math.max((System.nanoTime() - startNanos) / 1e9, 1e-9);
+            double mb = (writtenOffset - startOffset) / (1024.0 * 1024.0);
+            progress.println(String.format(Locale.ROOT,
+                "%,d of %,d bytes (%.1f%%), %,d docs, %.1f MB/s, %.0f docs/s",
+                writtenOffset, size, size > 0 ? 100.0 * writtenOffset / size : 100.0, docs,
+                mb / seconds, docs / seconds));
+        }
+    }
+
+    private Lensed lensChunk(ByteBuffer buffer) {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(buffer.remaining() + buffer.remaining() / 4);
+        int docs = 0;
+        try (JsonParser parser = FACTORY.createParser(new ByteBufferInputStream(buffer));
+             JsonGenerator generator = FACTORY.createGenerator(output)) {
+            generator.setRootValueSeparator(NEWLINE);
+            while (parser.nextToken() != null) {
+                lens.apply(parser, generator);
+                docs++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        if (docs > 0) {
+            output.write('\n');
+        }
+        return new Lensed(output.toByteArray(), docs);
+    }
+
+    /**
+     * Returns the SHA-256 of the JSON form of the lens, in hex.
+     */
+    private String lensHash() throws IOException {
+        byte[] json = LENS_WRITER.writeValueAsBytes(lens.getOps());
+        try {
+            StringBuilder result = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(json)) {
+                result.append(String.format(Locale.ROOT, "%02x", b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Properties readCheckpoint(Path checkpoint) throws IOException {
+        Properties props = new Properties();
+        try (Reader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+            props.load(reader);
+        }
+        return props;
+    }
+
+    private static final class Chunk {
+        final long start;
+        final long end;
+        final Future<Lensed> result;
+
+        Chunk(long start, long end, Future<Lensed> result) {
+            this.start = start;
+            this.end = end;
+            this.result = result;
+        }
+    }
+
+    private static final class Lensed {
+        final byte[] bytes;
+        final int docs;
+
+        Lensed(byte[] bytes, int docs) {
+            this.bytes = bytes;
+            this.docs = docs;
+        }
+    }
+
+    /**
+     * Reads a buffer from its position to its limit.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+    }
+
+    /**
+     * Passes writes through, but leaves the stream open when closed, so that
+     * a gzip member can be finished without closing the output channel.
+     */
+    private static final class UnclosedOutputStream extends OutputStream {
+        private final OutputStream out;
+
+        UnclosedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.flush();
+        }
+    }
+}
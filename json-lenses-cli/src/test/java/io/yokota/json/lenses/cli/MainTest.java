@@ -0,0 +1,48 @@
+package io.yokota.json.lenses.cli;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class MainTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRun() throws Exception {
+        Path lens = dir.resolve("lens.json");
+        Files.write(lens, "[ { \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" } ]"
+            .getBytes(StandardCharsets.UTF_8));
+        Path input = dir.resolve("in.ndjson");
+        Files.write(input, "{\"b\":1}\n{\"b\":2}\n".getBytes(StandardCharsets.UTF_8));
+        Path output = dir.resolve("out.ndjson");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+
+        int status = Main.run(new String[]{"--reverse", "--threads", "2", "--quiet",
+            lens.toString(), input.toString(), output.toString()}, new PrintStream(err, true, "UTF-8"));
+
+        assertThat(status).isEqualTo(0);
+        assertThat(err.toString("UTF-8")).isEmpty();
+        assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8)).isEqualTo("{\"a\":1}\n{\"a\":2}\n");
+    }
+
+    @Test
+    public void testUsage() throws Exception {
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream stream = new PrintStream(err, true, "UTF-8");
+
+        assertThat(Main.run(new String[]{"lens.json"}, stream)).isEqualTo(2);
+        assertThat(Main.run(new String[]{"--threads"}, stream)).isEqualTo(2);
+        assertThat(Main.run(new String[]{"--bogus", "a", "b", "c"}, stream)).isEqualTo(2);
+        assertThat(err.toString("UTF-8")).contains("Usage:");
+        assertThat(Main.run(new String[]{dir.resolve("missing.json").toString(), "a", "b"}, stream)).isEqualTo(1);
+    }
+}
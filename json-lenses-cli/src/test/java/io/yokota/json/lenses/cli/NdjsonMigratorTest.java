@@ -0,0 +1,229 @@
+package io.yokota.json.lenses.cli;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.CompiledLens;
+import io.yokota.json.lenses.JsonLenses;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NdjsonMigratorTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"add\", \"name\": \"priority\", \"defaultValue\": 1 }, "
+        + "{ \"type\": \"convert\", \"name\": \"status\", \"mapping\": { "
+        + "\"forward\": { \"open\": \"todo\", \"closed\": \"done\" }, "
+        + "\"reverse\": { \"todo\": \"open\", \"done\": \"closed\" } } } ]";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testMigrate() throws Exception {
+        CompiledLens lens = compile(LENS);
+        List<String> lines = lines(500);
+        Path input = write(String.join("\n", lines) + "\n");
+        Path output = dir.resolve("out.ndjson");
+        ByteArrayOutputStream progress = new ByteArrayOutputStream();
+
+        long docs = new NdjsonMigrator(lens, 4, 64, false, 0, new PrintStream(progress, true, "UTF-8"))
+            .migrate(input, output, false);
+
+        assertThat(docs).isEqualTo(500);
+        assertThat(read(output, false)).isEqualTo(expected(lens, lines));
+        assertThat(NdjsonMigrator.checkpointFile(output)).doesNotExist();
+        assertThat(progress.toString("UTF-8")).contains("docs/s");
+    }
+
+    @Test
+    public void testLongLinesAndBlankLines() throws Exception {
+        CompiledLens lens = compile(LENS);
+        StringBuilder longTitle = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            longTitle.append("x");
+        }
+        List<String> lines = Arrays.asList("{ \"title\": \"a\" }", "{ \"title\": \"" + longTitle + "\" }",
+            "{ \"title\": \"b\", \"status\": \"open\" }");
+        // a blank line, and no newline at the end
+        Path input = write(lines.get(0) + "\n\n" + lines.get(1) + "\n" + lines.get(2));
+        Path output = dir.resolve("out.ndjson");
+        // the output is replaced
+        Files.write(output, "stale data that is longer than the output".getBytes(StandardCharsets.UTF_8));
+
+        long docs = new NdjsonMigrator(lens, 2, 16, false, 0, null).migrate(input, output, false);
+
+        assertThat(docs).isEqualTo(3);
+        assertThat(read(output, false)).isEqualTo(expected(lens, lines));
+    }
+
+    @Test
+    public void testRenameOntoExistingField() throws Exception {
+        CompiledLens lens = compile(LENS);
+        Path input = write("{ \"title\": \"a\", \"name\": \"b\" }\n{ \"name\": \"c\", \"title\": \"d\" }\n");
+        Path output = dir.resolve("out.ndjson");
+
+        new NdjsonMigrator(lens, 1, 64, false, 0, null).migrate(input, output, false);
+
+        // the later field wins, and each name is written once
+        assertThat(new String(Files.readAllBytes(output), StandardCharsets.UTF_8))
+            .isEqualTo("{\"name\":\"b\",\"priority\":1}\n{\"name\":\"d\",\"priority\":1}\n");
+    }
+
+    @Test
+    public void testGzip() throws Exception {
+        CompiledLens lens = compile(LENS);
+        List<String> lines = lines(100);
+        Path input = write(String.join("\n", lines) + "\n");
+        Path output = dir.resolve("out.ndjson.gz");
+
+        new NdjsonMigrator(lens, 3, 128, true, 0, null).migrate(input, output, false);
+
+        assertThat(read(output, true)).isEqualTo(expected(lens, lines));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        for (boolean gzip : new boolean[]{false, true}) {
+            CompiledLens lens = compile(LENS);
+            List<String> lines = lines(300);
+            // a value that the lens cannot convert, of the same length as a valid one
+            lines.set(201, lines.get(201).replace("closed", "clozed"));
+            Path input = write(String.join("\n", lines) + "\n");
+            Path output = dir.resolve("out-" + gzip);
+            NdjsonMigrator migrator = new NdjsonMigrator(lens, 1, 256, gzip, 0, null);
+
+            assertThatThrownBy(() -> migrator.migrate(input, output, false))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("No mapping for value: clozed");
+            assertThat(NdjsonMigrator.checkpointFile(output)).exists();
+
+            lines.set(201, lines.get(201).replace("clozed", "closed"));
+            Files.write(input, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+            long docs = migrator.migrate(input, output, true);
+
+            assertThat(docs).isGreaterThan(100).isLessThan(300);
+            assertThat(read(output, gzip)).isEqualTo(expected(lens, lines));
+            assertThat(NdjsonMigrator.checkpointFile(output)).doesNotExist();
+        }
+    }
+
+    @Test
+    public void testResumeOtherInput() throws Exception {
+        Path input = write("{ }\n");
+        Path output = dir.resolve("out.ndjson");
+        Files.write(NdjsonMigrator.checkpointFile(output),
+            "input.size=100\ninput.offset=50\noutput.offset=50\n".getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> new NdjsonMigrator(compile(LENS), 1, 16, false, 0, null)
+            .migrate(input, output, true))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testResumeOtherLensOrCompression() throws Exception {
+        List<String> lines = lines(300);
+        lines.set(201, lines.get(201).replace("closed", "clozed"));
+        Path input = write(String.join("\n", lines) + "\n");
+        Path output = dir.resolve("out.ndjson");
+        assertThatThrownBy(() -> new NdjsonMigrator(compile(LENS), 1, 256, false, 0, null)
+            .migrate(input, output, false))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(NdjsonMigrator.checkpointFile(output)).exists();
+
+        assertThatThrownBy(() -> new NdjsonMigrator(compile(LENS), 1, 256, true, 0, null)
+            .migrate(input, output, true))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("uncompressed");
+        String other = LENS.replace("\"priority\", \"defaultValue\": 1", "\"priority\", \"defaultValue\": 2");
+        assertThatThrownBy(() -> new NdjsonMigrator(compile(other), 1, 256, false, 0, null)
+            .migrate(input, output, true))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageContaining("another lens");
+    }
+
+    @Test
+    public void testRestartRemovesCheckpoint() throws Exception {
+        List<String> lines = lines(300);
+        lines.set(201, lines.get(201).replace("closed", "clozed"));
+        Path input = write(String.join("\n", lines) + "\n");
+        Path output = dir.resolve("out.ndjson");
+        assertThatThrownBy(() -> new NdjsonMigrator(compile(LENS), 1, 256, false, 0, null)
+            .migrate(input, output, false))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(NdjsonMigrator.checkpointFile(output)).exists();
+
+        // a restart fails before its first checkpoint, which leaves no stale one behind
+        lines.set(1, lines.get(1).replace("closed", "clozed"));
+        Files.write(input, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        assertThatThrownBy(() -> new NdjsonMigrator(compile(LENS), 1, 1 << 20, false, 0, null)
+            .migrate(input, output, false))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThat(NdjsonMigrator.checkpointFile(output)).doesNotExist();
+    }
+
+    private static List<String> lines(int count) {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            lines.add("{ \"id\": " + i + ", \"title\": \"task " + i + "\", \"status\": \""
+                + (i % 2 == 0 ? "open" : "closed") + "\" }");
+        }
+        return lines;
+    }
+
+    private Path write(String content) throws Exception {
+        Path input = dir.resolve("in.ndjson");
+        Files.write(input, content.getBytes(StandardCharsets.UTF_8));
+        return input;
+    }
+
+    private static List<JsonNode> expected(CompiledLens lens, List<String> lines) throws Exception {
+        List<JsonNode> result = new ArrayList<>();
+        for (String line : lines) {
+            result.add(lens.apply(mapper.readTree(line)));
+        }
+        return result;
+    }
+
+    private static List<JsonNode> read(Path output, boolean gzip) throws Exception {
+        byte[] bytes;
+        if (gzip) {
+            try (InputStream in = new GZIPInputStream(Files.newInputStream(output))) {
+                bytes = in.readAllBytes();
+            }
+        } else {
+            bytes = Files.readAllBytes(output);
+        }
+        String content = new String(bytes, StandardCharsets.UTF_8);
+        assertThat(content).endsWith("\n");
+        List<JsonNode> result = new ArrayList<>();
+        for (String line : content.split("\n")) {
+            result.add(mapper.readTree(line));
+        }
+        return result;
+    }
+
+    private static CompiledLens compile(String expr) throws Exception {
+        List<LensOp> ops = mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+        return JsonLenses.compile(ops);
+    }
+}
@@ -0,0 +1,79 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Lenses the documents of a source iterator on an executor, keeping a bounded
+ * window of documents in flight and returning the results in source order.
+ *
+ * <p>The source is only read from the consuming thread, so it need not be
+ * thread-safe.
+ */
+final class BatchIterator implements Iterator<LensResult> {
+
+    private final CompiledLens lens;
+    private final Iterator<? extends JsonNode> source;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final Deque<CompletableFuture<LensResult>> inFlight = new ArrayDeque<>();
+    private long index;
+
+    BatchIterator(CompiledLens lens, Iterator<? extends JsonNode> source,
+                  Executor executor, int maxInFlight) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("Max in flight must be positive: " + maxInFlight);
+        }
+        this.lens = lens;
+        this.source = source;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public boolean hasNext() {
+        fill();
+        return !inFlight.isEmpty();
+    }
+
+    @Override
+    public LensResult next() {
+        fill();
+        CompletableFuture<LensResult> result = inFlight.poll();
+        if (result == null) {
+            throw new NoSuchElementException();
+        }
+        // keep the window full while waiting for the head
+        fill();
+        return result.join();
+    }
+
+    private void fill() {
+        while (inFlight.size() < maxInFlight && source.hasNext()) {
+            long i = index++;
+            JsonNode doc = source.next();
+            inFlight.add(CompletableFuture.supplyAsync(() -> apply(i, doc), executor));
+        }
+    }
+
+    private LensResult apply(long i, JsonNode doc) {
+        try {
+            return LensResult.success(i, doc, lens.apply(doc));
+        } catch (RuntimeException e) {
+            return LensResult.failure(i, doc, e);
+        }
+    }
+
+    void cancel() {
+        for (CompletableFuture<LensResult> result : inFlight) {
+            result.cancel(false);
+        }
+        inFlight.clear();
+    }
+}
@@ -0,0 +1,135 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Folds each run of ops below a newly added container into the value of the
+ * add, lazily, so that applying the patch resolves one path per run rather
+ * than one per leaf.
+ *
+ * <p>A run starts with an add of an object or an array, and takes each
+ * following add, replace or remove strictly below its path, which is applied
+ * to a copy of the container in patch order, with the usual patch semantics
+ * for array indexes. A replace of the container itself replaces the value of
+ * the add. Any other op ends the run, as does an op that cannot be applied to
+ * the container, such as a remove of a missing field or an index out of
+ * bounds, which is passed on as is so that applying the patch fails where it
+ * did before. The ops of the patch are not changed.
+ */
+final class CoalescingIterator implements Iterator<PatchOp> {
+
+    private final Iterator<PatchOp> patch;
+    private PatchOp pending;
+    private TreeEngine run;
+    private PatchOp lookahead;
+    private PatchOp next;
+
+    CoalescingIterator(Iterator<PatchOp> patch) {
+        this.patch = patch;
+        this.next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public PatchOp next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        PatchOp result = next;
+        next = advance();
+        return result;
+    }
+
+    private PatchOp advance() {
+        while (true) {
+            PatchOp op;
+            if (lookahead != null) {
+                op = lookahead;
+                lookahead = null;
+            } else if (patch.hasNext()) {
+                op = patch.next();
+            } else {
+                return flush();
+            }
+            if (pending != null) {
+                if (fold(op)) {
+                    continue;
+                }
+                lookahead = op;
+                return flush();
+            }
+            if (!start(op)) {
+                return op;
+            }
+        }
+    }
+
+    private boolean start(PatchOp op) {
+        String[] path = op.path();
+        if (op.getOp() != PatchOp.Op.ADD || !op.getValue().isContainerNode()
+            || path.length == 0 || path[path.length - 1].equals("-")) {
+            return false;
+        }
+        pending = op.withValue(Jackson.deepCopy(op.getValue()));
+        run = new TreeEngine(null, null, path, pending.getValue());
+        return true;
+    }
+
+    private boolean fold(PatchOp op) {
+        String[] base = pending.path();
+        String[] path = op.path();
+        if (!TreeEngine.startsWith(path, base)) {
+            return false;
+        }
+        if (path.length == base.length) {
+            if (op.getOp() != PatchOp.Op.REPLACE || op.getValue() == null) {
+                return false;
+            }
+            // an add followed by a replace of the same path is an add of the replacement
+            pending = pending.withValue(copy(op.getValue()));
+            run = pending.getValue().isContainerNode()
+                ? new TreeEngine(null, null, base, pending.getValue())
+                : null;
+            return true;
+        }
+        if (run == null) {
+            return false;
+        }
+        switch (op.getOp()) {
+            case ADD:
+            case REPLACE:
+                op = op.withValue(copy(op.getValue()));
+                break;
+            case REMOVE:
+                break;
+            default:
+                return false;
+        }
+        try {
+            run.write(op);
+            return true;
+        } catch (IllegalArgumentException e) {
+            // the write was not made, so the op is left for the patch to apply
+            return false;
+        }
+    }
+
+    private PatchOp flush() {
+        PatchOp result = pending;
+        pending = null;
+        run = null;
+        return result;
+    }
+
+    private static JsonNode copy(JsonNode value) {
+        return value != null && value.isContainerNode() ? Jackson.deepCopy(value) : value;
+    }
+}
@@ -0,0 +1,278 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.LensOp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A lens that has been prepared once for repeated use.
+ *
+ * <p>Both the forward and the reverse direction are computed up front, and the
+ * ops of each are indexed by the path segment they act on, so applying a
+ * compiled lens does no lens rebuilding and passes each patch op only through
+ * the ops that can change it. A lens compiled with specialization instead
+ * runs as a {@link SpecializedLens}, with the links between its ops resolved
+ * up front. A lens specialized to a source schema with
+ * {@link #withSourceSchema} leaves out the ops that valid documents never
+ * reach, and copies the parts of a document that it only moves as they are.
+ * Whole documents are rewritten directly as trees rather than through JSON Patch.
+ * Instances are immutable and may be shared across threads.
+ */
+public final class CompiledLens {
+
+    static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+
+    private final List<LensOp> ops;
+    private final List<LensOp> executed;
+    private final PatchLens index;
+    private final DefaultTemplates defaults;
+    private final StreamingEngine.Buffered buffered;
+    private final CompiledLens reverse;
+
+    CompiledLens(List<LensOp> ops) {
+        this(ops, false, false);
+    }
+
+    /**
+     * Creates a compiled lens that, if {@code optimize} is set, executes each
+     * direction as rewritten by {@link JsonLenses#optimize}, and, if
+     * {@code specialize} is set, runs each direction as a
+     * {@link SpecializedLens} rather than through a {@link LensIndex}.
+     */
+    CompiledLens(List<LensOp> ops, boolean optimize, boolean specialize) {
+        this.ops = Collections.unmodifiableList(new ArrayList<>(ops));
+        this.executed = optimize ? Collections.unmodifiableList(LensOptimizer.optimize(this.ops)) : this.ops;
+        this.index = patchLens(executed, specialize);
+        this.defaults = new DefaultTemplates(TreeEngine.context(executed));
+        this.buffered = StreamingEngine.buffered(executed);
+        this.reverse = new CompiledLens(JsonLenses.reverse(this.ops), optimize, specialize, this);
+    }
+
+    private CompiledLens(List<LensOp> ops, boolean optimize, boolean specialize, CompiledLens reverse) {
+        this.ops = Collections.unmodifiableList(ops);
+        // the reverse of an optimized lens may differ, so optimize the reverse on its own
+        this.executed = optimize ? Collections.unmodifiableList(LensOptimizer.optimize(this.ops)) : this.ops;
+        this.index = patchLens(executed, specialize);
+        this.defaults = new DefaultTemplates(TreeEngine.context(executed));
+        this.buffered = StreamingEngine.buffered(executed);
+        this.reverse = reverse;
+    }
+
+    private CompiledLens(CompiledLens base, JsonNode sourceSchema, CompiledLens reverse) {
+        this.ops = base.ops;
+        this.executed = base.executed;
+        this.index = patchLens(SchemaEngine.prune(executed, sourceSchema), base.index instanceof SpecializedLens);
+        JsonNode targetSchema = targetSchema(executed, sourceSchema);
+        this.defaults = base.defaults.withSchema(targetSchema);
+        this.buffered = base.buffered;
+        this.reverse = reverse != null
+            ? reverse
+            : new CompiledLens(base.reverse, targetSchema, this);
+    }
+
+    private static JsonNode targetSchema(List<LensOp> ops, JsonNode sourceSchema) {
+        try {
+            return SchemaEngine.apply(ops, sourceSchema);
+        } catch (IllegalArgumentException e) {
+            // nothing is known of the target documents
+            return null;
+        }
+    }
+
+    private static PatchLens patchLens(List<LensOp> ops, boolean specialize) {
+        return specialize ? new SpecializedLens(ops) : new LensIndex(ops);
+    }
+
+    public List<LensOp> getOps() {
+        return ops;
+    }
+
+    /**
+     * Returns the ops that are executed, which differ from {@link #getOps()}
+     * only if the lens was compiled with optimization.
+     */
+    public List<LensOp> getExecutedOps() {
+        return executed;
+    }
+
+    public CompiledLens reverse() {
+        return reverse;
+    }
+
+    /**
+     * Returns this lens specialized to documents that are valid against the
+     * JSON Schema {@code sourceSchema}, and its reverse specialized to their
+     * lensed form. Documents that are not valid against the schema may be
+     * lensed differently than by this lens.
+     */
+    public CompiledLens withSourceSchema(JsonNode sourceSchema) {
+        return new CompiledLens(this, sourceSchema, null);
+    }
+
+    /**
+     * Returns the JSON Schema of the documents that this lens produces from
+     * documents valid against {@code schema}.
+     *
+     * @throws IllegalArgumentException if the lens has an op of a type other
+     *     than the built-in ones
+     */
+    public JsonNode applyToSchema(JsonNode schema) {
+        return SchemaEngine.apply(ops, schema);
+    }
+
+    public JsonNode apply(JsonNode inputDoc) {
+        return apply(inputDoc, null);
+    }
+
+    public JsonNode apply(JsonNode inputDoc, JsonNode targetDoc) {
+        return TreeEngine.apply(index, defaults, inputDoc, targetDoc);
+    }
+
+    /**
+     * Returns a read-only view of the lensed form of {@code inputDoc}, which
+     * lenses each property when it is first read; see {@link LensedJsonNode}.
+     * A document other than an object is lensed up front.
+     */
+    public JsonNode applyLazily(JsonNode inputDoc) {
+        if (!inputDoc.isObject()) {
+            return apply(inputDoc);
+        }
+        return new LensedJsonNode(index, defaults, (ObjectNode) inputDoc);
+    }
+
+    /**
+     * Lenses a document that the caller hands over and does not use again.
+     * The parts of it that the lens only renames, hoists, plunges, wraps or
+     * unwraps are moved into the result as they are, rather than copied, so
+     * the result shares nodes with {@code inputDoc}.
+     */
+    public JsonNode applyInPlace(JsonNode inputDoc) {
+        return TreeEngine.apply(index, defaults, inputDoc, null, true);
+    }
+
+    /**
+     * Lenses a single document on the common fork-join pool, with the
+     * elements of each array or object of at least {@code threshold} elements
+     * lensed in ranges as separate tasks. The result is the same as that of
+     * {@link #apply(JsonNode)}.
+     */
+    public JsonNode applyInParallel(JsonNode inputDoc, int threshold) {
+        return applyInParallel(inputDoc, threshold, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Lenses a single document on {@code pool}, as by
+     * {@link #applyInParallel(JsonNode, int)}.
+     */
+    public JsonNode applyInParallel(JsonNode inputDoc, int threshold, ForkJoinPool pool) {
+        return TreeEngine.apply(index, defaults, inputDoc, null, false, pool, threshold);
+    }
+
+    /**
+     * Lenses each of the given documents on the common fork-join pool, and
+     * returns the results in the order of the input.
+     */
+    public List<LensResult> applyToDocs(Collection<? extends JsonNode> inputDocs) {
+        try (Stream<LensResult> results = applyToDocs(inputDocs.stream(),
+            ForkJoinPool.commonPool(), DEFAULT_MAX_IN_FLIGHT)) {
+            return results.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Lenses each of the given documents on {@code executor}, and returns a
+     * lazy stream of the results in the order of the input.
+     *
+     * <p>At most {@code maxInFlight} documents are read ahead of the consumer
+     * of the returned stream, so memory use does not grow with the size of the
+     * input. A document that fails to lens yields a result with its error
+     * rather than failing the stream. Closing the stream cancels the
+     * documents that are still in flight.
+     */
+    public Stream<LensResult> applyToDocs(Stream<? extends JsonNode> inputDocs,
+                                          Executor executor, int maxInFlight) {
+        BatchIterator it = new BatchIterator(this, inputDocs.iterator(), executor, maxInFlight);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+                Spliterator.ORDERED | Spliterator.NONNULL), false)
+            .onClose(it::cancel)
+            .onClose(inputDocs::close);
+    }
+
+    /**
+     * Lenses the next value read from {@code parser} and writes the result to
+     * {@code generator}, without building a tree for the whole document.
+     */
+    public void apply(JsonParser parser, JsonGenerator generator) throws IOException {
+        StreamingEngine.apply(this, parser, generator);
+    }
+
+    /**
+     * Returns a parser over the lensed form of the values read from {@code parser}.
+     */
+    public LensingParser lensingParser(JsonParser parser) {
+        return new LensingParser(this, parser);
+    }
+
+    PatchLens index() {
+        return index;
+    }
+
+    DefaultTemplates defaults() {
+        return defaults;
+    }
+
+    StreamingEngine.Buffered buffered() {
+        return buffered;
+    }
+
+    public ArrayNode applyToPatch(ArrayNode patch) {
+        return JsonLenses.applyLensToPatch(index, defaults, patch);
+    }
+
+    /**
+     * Lenses the given patch ops as they are read, returning the lensed ops
+     * with any defaults that they call for. Values are expanded one node at a
+     * time, so memory use grows with their depth rather than their size.
+     */
+    public Iterator<PatchOp> applyToPatch(Iterator<PatchOp> patch) {
+        return new LensedPatchIterator(index, defaults, patch);
+    }
+
+    /**
+     * Returns a session for lensing a stream of patch ops against an initially
+     * empty document.
+     */
+    public LensSession newSession() {
+        return newSession(JsonLenses.emptyDoc());
+    }
+
+    /**
+     * Returns a session for lensing a stream of patch ops against
+     * {@code sourceDoc}, which is copied.
+     */
+    public LensSession newSession(JsonNode sourceDoc) {
+        return new LensSession(this, sourceDoc);
+    }
+
+    public JsonNode applyToPatchOp(JsonNode patchOp) {
+        PatchOp result = index.apply(PatchOp.fromJson(patchOp));
+        return result != null ? result.toJson() : null;
+    }
+}
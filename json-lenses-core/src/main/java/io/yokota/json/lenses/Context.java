@@ -1,13 +1,25 @@
 package io.yokota.json.lenses;
 
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * The default values of a lens, as a tree of subcontexts keyed on property
+ * names.
+ *
+ * <p>A context is built up by applying the ops of a lens to it, and is then
+ * {@link #freeze() frozen}. A frozen context cannot be changed, and looking up
+ * a missing subcontext returns a shared empty context rather than creating
+ * one, so a frozen context may be shared by concurrent callers.
+ */
 public class Context {
 
+    private static final Context EMPTY = new Context().freeze();
+
     private Object defaultValue;
-    private final Map<String, Context> subcontexts;
+    private Map<String, Context> subcontexts;
+    private boolean frozen;
 
     public Context() {
         this(null, new HashMap<>());
@@ -18,21 +30,48 @@ public class Context {
         this.subcontexts = subcontexts;
     }
 
+    /**
+     * Makes this context and all of its subcontexts immutable, keeping the
+     * iteration order of the subcontexts, and returns this context.
+     */
+    public Context freeze() {
+        if (!frozen) {
+            frozen = true;
+            subcontexts.values().forEach(Context::freeze);
+            subcontexts = Collections.unmodifiableMap(subcontexts);
+        }
+        return this;
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
     public Object getDefaultValue() {
         return defaultValue;
     }
 
     public void setDefaultValue(Object defaultValue) {
+        checkNotFrozen();
         this.defaultValue = defaultValue;
     }
 
     public Object removeDefaultValue() {
+        checkNotFrozen();
         Object result = defaultValue;
         defaultValue = null;
         return result;
     }
 
+    /**
+     * Returns the named subcontext, creating it if it is missing, or, if this
+     * context is frozen, returning an empty context instead.
+     */
     public Context getSubcontext(String name) {
+        if (frozen) {
+            Context result = subcontexts.get(name);
+            return result != null ? result : EMPTY;
+        }
         return subcontexts.computeIfAbsent(name, k -> new Context());
     }
 
@@ -41,27 +80,49 @@ public class Context {
     }
 
     public void setSubcontext(String name, Context subctx) {
+        checkNotFrozen();
         subcontexts.put(name, subctx);
     }
 
     public Context removeSubcontext(String name) {
+        checkNotFrozen();
         return subcontexts.remove(name);
     }
 
-    public Context getSubcontextForPath(String path) {
-        return Arrays.stream(path.split("/"))
-            .skip(1)
-            .reduce(this,
-                (prevCtx, pathSegment) -> {
-                    if (pathSegment.matches("[0-9]+")) {
-                        return prevCtx;
-                    } else {
-                        return prevCtx.getSubcontext(pathSegment);
-                    }
-                },
-                (prevCtx, currCtx) -> {
-                    throw new UnsupportedOperationException(); // unused combiner
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new IllegalStateException("Context is frozen");
+        }
+    }
+
+    public Context getSubcontextForPath(String[] path) {
+        Context result = this;
+        for (String segment : path) {
+            if (!PatchOp.isArrayIndex(segment)) {
+                result = result.getSubcontext(segment);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the subcontext for the given path without creating any missing
+     * subcontexts along the way, or null if there is none.
+     */
+    public Context findSubcontextForPath(String[] path) {
+        Context result = this;
+        for (String segment : path) {
+            if (!PatchOp.isArrayIndex(segment)) {
+                result = result.subcontexts.get(segment);
+                if (result == null) {
+                    return null;
                 }
-            );
+            }
+        }
+        return result;
+    }
+
+    public Context getSubcontextForPath(String path) {
+        return getSubcontextForPath(PatchOp.parsePointer(path));
     }
 }
@@ -0,0 +1,162 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.utils.Convert;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The default values of a lens context, converted once into ready-made object
+ * templates, one per subcontext that has any defaults.
+ *
+ * <p>A template holds the defaults of its subcontext in context order, with
+ * empty object defaults already filled in from their own subcontexts. Scalar
+ * nodes in a template are immutable and are shared by every copy; only
+ * container nodes are copied, since lensed values may later be written into
+ * them.
+ *
+ * <p>Given the JSON Schema of the lensed documents, new objects are also sized
+ * up front for the properties that the schema lists at their path.
+ */
+final class DefaultTemplates {
+
+    // a LinkedHashMap of the default capacity holds this many entries without growing
+    private static final int UNSIZED = 12;
+
+    private final Context root;
+    private final Map<Context, ObjectNode> templates;
+    private final Set<Context> withDefaultsBelow;
+    private final JsonNode schema;
+
+    DefaultTemplates(Context root) {
+        this.root = root;
+        this.templates = new IdentityHashMap<>();
+        this.withDefaultsBelow = Collections.newSetFromMap(new IdentityHashMap<>());
+        this.schema = null;
+        build(root);
+    }
+
+    private DefaultTemplates(DefaultTemplates base, JsonNode schema) {
+        this.root = base.root;
+        this.templates = base.templates;
+        this.withDefaultsBelow = base.withDefaultsBelow;
+        this.schema = schema;
+    }
+
+    /**
+     * Returns these templates with new objects sized by the given schema of
+     * the lensed documents, which may be null.
+     */
+    DefaultTemplates withSchema(JsonNode schema) {
+        return new DefaultTemplates(this, schema);
+    }
+
+    private ObjectNode build(Context ctx) {
+        ObjectNode template = null;
+        for (Map.Entry<String, Context> entry : ctx.getSubcontexts().entrySet()) {
+            Context subctx = entry.getValue();
+            ObjectNode subtemplate = build(subctx);
+            Object defaultValue = subctx.getDefaultValue();
+            if (defaultValue != null || withDefaultsBelow.contains(subctx)) {
+                withDefaultsBelow.add(ctx);
+            }
+            if (defaultValue == null) {
+                continue;
+            }
+            JsonNode value = Convert.valueToJsonNode(defaultValue);
+            if (TreeEngine.isEmptyObject(value) && subtemplate != null) {
+                value = subtemplate.deepCopy();
+            }
+            if (template == null) {
+                template = JsonNodeFactory.instance.objectNode();
+            }
+            template.set(entry.getKey(), value);
+        }
+        if (template != null) {
+            templates.put(ctx, template);
+        }
+        return template;
+    }
+
+    /**
+     * Returns the template for the given subcontext, or null if it has no
+     * defaults. The template is shared and must not be modified.
+     */
+    ObjectNode template(Context ctx) {
+        return ctx != null ? templates.get(ctx) : null;
+    }
+
+    /**
+     * Returns the template for the object at the given path, or null.
+     */
+    ObjectNode templateForPath(String[] path) {
+        return template(root.findSubcontextForPath(path));
+    }
+
+    /**
+     * Returns whether any default is written below the given path, into the
+     * value at the path or anything nested in it.
+     */
+    boolean hasDefaultsBelow(String[] path) {
+        Context ctx = root.findSubcontextForPath(path);
+        return ctx != null && withDefaultsBelow.contains(ctx);
+    }
+
+    /**
+     * Returns a new object holding the root defaults.
+     */
+    ObjectNode newRoot() {
+        ObjectNode result = newObject(new String[0]);
+        if (result == null) {
+            result = JsonNodeFactory.instance.objectNode();
+        }
+        fill(result, templates.get(root));
+        return result;
+    }
+
+    /**
+     * Returns a new empty object for the given path, sized for the properties
+     * that the schema lists there, or null if there are too few to matter.
+     */
+    ObjectNode newObject(String[] path) {
+        if (schema == null) {
+            return null;
+        }
+        JsonNode node = schema;
+        for (int i = 0; i < path.length && node != null; i++) {
+            JsonNode properties = node.get("properties");
+            JsonNode property = properties != null ? properties.get(path[i]) : null;
+            if (property == null) {
+                property = node.get(PatchOp.isArrayIndex(path[i]) ? "items" : "additionalProperties");
+            }
+            node = property != null && property.isObject() ? property : null;
+        }
+        JsonNode properties = node != null ? node.get("properties") : null;
+        if (properties == null || properties.size() <= UNSIZED) {
+            return null;
+        }
+        int capacity = (int) (properties.size() / 0.75f) + 1;
+        return new ObjectNode(JsonNodeFactory.instance, new LinkedHashMap<>(capacity));
+    }
+
+    /**
+     * Copies the fields of {@code template} into {@code node}.
+     */
+    static void fill(ObjectNode node, ObjectNode template) {
+        if (template == null) {
+            return;
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> it = template.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            JsonNode value = field.getValue();
+            node.set(field.getKey(), value.isContainerNode() ? value.deepCopy() : value);
+        }
+    }
+}
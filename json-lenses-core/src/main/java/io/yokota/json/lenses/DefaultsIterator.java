@@ -0,0 +1,76 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Produces the patch ops that write the defaults of a template under the
+ * object created by a patch op, lazily.
+ *
+ * <p>An object default is written empty, followed by its own defaults, and an
+ * array default is written empty.
+ */
+final class DefaultsIterator implements Iterator<PatchOp> {
+
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private PatchOp next;
+
+    DefaultsIterator(PatchOp patchOp, ObjectNode template) {
+        if (template != null) {
+            stack.push(new Frame(patchOp, template));
+        }
+        this.next = advance();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public PatchOp next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        PatchOp result = next;
+        next = advance();
+        return result;
+    }
+
+    private PatchOp advance() {
+        while (!stack.isEmpty()) {
+            Frame top = stack.peek();
+            if (!top.fields.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Map.Entry<String, JsonNode> field = top.fields.next();
+            JsonNode value = field.getValue();
+            if (value.isObject()) {
+                PatchOp child = top.patchOp.child(field.getKey(), JsonNodeFactory.instance.objectNode());
+                stack.push(new Frame(child, value));
+                return child;
+            }
+            return top.patchOp.child(field.getKey(),
+                value.isArray() ? JsonNodeFactory.instance.arrayNode() : value);
+        }
+        return null;
+    }
+
+    private static final class Frame {
+        final PatchOp patchOp;
+        final Iterator<Map.Entry<String, JsonNode>> fields;
+
+        Frame(PatchOp patchOp, JsonNode template) {
+            this.patchOp = patchOp;
+            this.fields = template.fields();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Expands a patch op that writes a container into one op per node, lazily.
+ *
+ * <p>A write of an object or an array becomes a write of an empty container,
+ * followed by the expansion of each of its elements in document order. The
+ * containers being expanded are kept on an explicit stack, so memory and stack
+ * use grow with the depth of the value rather than with its size. A container
+ * for which {@code expand} is false is written whole, as a copy unless the
+ * value is owned by the caller, in which case the container itself is written.
+ */
+final class ExpansionIterator implements Iterator<PatchOp> {
+
+    private final Deque<Frame> stack = new ArrayDeque<>();
+    private final Predicate<PatchOp> expand;
+    private final boolean owned;
+    private PatchOp next;
+
+    ExpansionIterator(PatchOp patchOp) {
+        this(patchOp, p -> true);
+    }
+
+    ExpansionIterator(PatchOp patchOp, Predicate<PatchOp> expand) {
+        this(patchOp, expand, false);
+    }
+
+    ExpansionIterator(PatchOp patchOp, Predicate<PatchOp> expand, boolean owned) {
+        this.expand = expand;
+        this.owned = owned;
+        this.next = visit(patchOp);
+    }
+
+    private PatchOp visit(PatchOp patchOp) {
+        JsonNode value = patchOp.getValue();
+        if (!patchOp.isWrite() || !value.isContainerNode()) {
+            return patchOp;
+        }
+        if (!expand.test(patchOp)) {
+            return owned ? patchOp : patchOp.withValue(Jackson.deepCopy(value));
+        }
+        stack.push(new Frame(patchOp));
+        return patchOp.withValue(value.isArray()
+            ? JsonNodeFactory.instance.arrayNode()
+            : JsonNodeFactory.instance.objectNode());
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null;
+    }
+
+    @Override
+    public PatchOp next() {
+        if (next == null) {
+            throw new NoSuchElementException();
+        }
+        PatchOp result = next;
+        next = advance();
+        return result;
+    }
+
+    private PatchOp advance() {
+        while (!stack.isEmpty()) {
+            PatchOp child = stack.peek().nextChild();
+            if (child != null) {
+                return visit(child);
+            }
+            stack.pop();
+        }
+        return null;
+    }
+
+    private static final class Frame {
+        final PatchOp patchOp;
+        final Iterator<Map.Entry<String, JsonNode>> fields;
+        int index;
+
+        Frame(PatchOp patchOp) {
+            this.patchOp = patchOp;
+            JsonNode value = patchOp.getValue();
+            this.fields = value.isObject() ? value.fields() : null;
+        }
+
+        PatchOp nextChild() {
+            JsonNode value = patchOp.getValue();
+            if (fields != null) {
+                if (!fields.hasNext()) {
+                    return null;
+                }
+                Map.Entry<String, JsonNode> field = fields.next();
+                return patchOp.child(field.getKey(), field.getValue());
+            }
+            if (index >= value.size()) {
+                return null;
+            }
+            int i = index++;
+            return patchOp.child(String.valueOf(i), value.get(i));
+        }
+    }
+}
@@ -4,195 +4,273 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.flipkart.zjsonpatch.JsonDiff;
-import com.flipkart.zjsonpatch.JsonPatch;
 import io.yokota.json.lenses.ops.LensOp;
-import io.yokota.json.lenses.utils.Convert;
 import io.yokota.json.lenses.utils.Jackson;
 
-import java.util.AbstractMap;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import java.util.stream.StreamSupport;
 
 public class JsonLenses {
 
     private static final JsonNode EMPTY_DOC = emptyDoc();
 
+    public static CompiledLens compile(List<LensOp> lens) {
+        return new CompiledLens(lens);
+    }
+
+    /**
+     * Compiles a lens, optimizing each direction with {@link #optimize} if
+     * {@code optimize} is set.
+     */
+    public static CompiledLens compile(List<LensOp> lens, boolean optimize) {
+        return new CompiledLens(lens, optimize, false);
+    }
+
+    /**
+     * Compiles a lens, optimizing each direction if {@code optimize} is set,
+     * and turning each direction into a tree of transformers that are linked
+     * once, rather than looked up per op, if {@code specialize} is set.
+     * Specializing costs memory in the number of names times the number of
+     * ops of the lens, so it suits lenses that are applied to many documents.
+     */
+    public static CompiledLens compile(List<LensOp> lens, boolean optimize, boolean specialize) {
+        return new CompiledLens(lens, optimize, specialize);
+    }
+
+    /**
+     * Returns an equivalent lens with adjacent ops fused and cancelling ops
+     * removed. The result lenses every document and patch as the lens does,
+     * so renames, hoists and plunges are only fused where the lens itself
+     * leaves the names they pass through empty; see {@link LensOptimizer}.
+     * Only the forward direction is optimized.
+     */
+    public static List<LensOp> optimize(List<LensOp> lens) {
+        return LensOptimizer.optimize(lens);
+    }
+
+    /**
+     * Returns the JSON Schema of the documents that the lens produces from
+     * documents valid against {@code schema}.
+     *
+     * @throws IllegalArgumentException if the lens has an op of a type other
+     *     than the built-in ones
+     */
+    public static JsonNode applyLensToSchema(List<LensOp> lens, JsonNode schema) {
+        return SchemaEngine.apply(lens, schema);
+    }
+
     public static JsonNode applyLensToDoc(
         List<LensOp> lens, JsonNode inputDoc, JsonNode targetDoc) {
+        LensEvent event = new LensEvent();
+        event.begin();
         ArrayNode patchForOriginalDoc = (ArrayNode) JsonDiff.asJson(EMPTY_DOC, inputDoc);
 
-        Context ctx = new Context();
-        ArrayNode outputPatch = applyLensToPatch(ctx, lens, patchForOriginalDoc);
-        JsonNode base = defaultObjectForContext(ctx);
+        DefaultTemplates defaults = defaults(lens);
+        LensIndex index = new LensIndex(lens);
+        LensedPatchIterator it = new LensedPatchIterator(index, defaults, fromJson(patchForOriginalDoc.iterator()));
+        JsonNode base = defaults.newRoot();
         if (targetDoc != null) {
-            Jackson.merge(base, targetDoc);
+            Jackson.merge(base, Jackson.deepCopy(targetDoc));
         }
 
-        return JsonPatch.apply(outputPatch, base);
+        // the lensed ops are applied in place as they are produced
+        PatchApplier applier = new PatchApplier(base, true, true);
+        new CoalescingIterator(it).forEachRemaining(applier::apply);
+        JsonNode result = applier.getOutput();
+        event.record(index, LensEvent.DOC, inputDoc, it.expanded(), it.dropped(), it.defaultsWritten());
+        return result;
     }
 
-    private static JsonNode defaultObjectForContext(Context ctx) {
-        // By setting the root to empty object,
-        // we kick off a recursive process that fills in the entire thing
-        ObjectNode patch = JsonNodeFactory.instance.objectNode();
-        patch.put("op", "add");
-        patch.put("path", "");
-        patch.set("value", JsonNodeFactory.instance.objectNode());
-
-        List<JsonNode> defaultsPatch = addDefaultValues(ctx, Collections.singletonList(patch));
-        ArrayNode patches = JsonNodeFactory.instance.arrayNode();
-        patches.addAll(defaultsPatch);
+    /**
+     * Lenses each of the given documents in parallel, and returns the results
+     * in the order of the input. See {@link CompiledLens#applyToDocs}.
+     */
+    public static List<LensResult> applyLensToDocs(
+        List<LensOp> lens, Collection<? extends JsonNode> inputDocs) {
+        return compile(lens).applyToDocs(inputDocs);
+    }
 
-        return JsonPatch.apply(patches, emptyDoc());
+    public static Stream<LensResult> applyLensToDocs(
+        List<LensOp> lens, Stream<? extends JsonNode> inputDocs, Executor executor, int maxInFlight) {
+        return compile(lens).applyToDocs(inputDocs, executor, maxInFlight);
     }
 
     public static ArrayNode applyLensToPatch(List<LensOp> lens, ArrayNode patch) {
-        return applyLensToPatch(new Context(), lens, patch);
+        return applyLensToPatch(new LensIndex(lens), defaults(lens), patch);
     }
 
-    private static ArrayNode applyLensToPatch(Context ctx, List<LensOp> lens, ArrayNode patch) {
-        Iterable<JsonNode> iterable = patch::elements;
-        List<JsonNode> lensedPatch = StreamSupport.stream(iterable.spliterator(), false)
-            .flatMap(op -> expandPatch(op).stream())
-            .map(patchOp -> applyLensToPatchOp(lens, patchOp))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList());
+    static ArrayNode applyLensToPatch(PatchLens lens, DefaultTemplates defaults, ArrayNode patch) {
+        LensEvent event = new LensEvent();
+        event.begin();
+        LensedPatchIterator it = new LensedPatchIterator(lens, defaults, fromJson(patch.iterator()));
+        ArrayNode result = toJson(it);
+        event.record(lens, LensEvent.PATCH, patch, it.expanded(), it.dropped(), it.defaultsWritten());
+        return result;
+    }
 
-        updateDefaultValues(ctx, lens);
-        List<JsonNode> lensedPatchWithDefaults = addDefaultValues(ctx, lensedPatch);
+    /**
+     * Returns a patch with the same effect as the given one, in which each
+     * run of ops below a newly added container is folded into the value of
+     * the add.
+     */
+    public static ArrayNode coalescePatch(ArrayNode patch) {
+        return toJson(new CoalescingIterator(fromJson(patch.iterator())));
+    }
 
+    /**
+     * Applies the given patch to a copy of the document, as
+     * {@code JsonPatch.apply} does, but resolves the path of each op from the
+     * path of the op before it.
+     */
+    public static JsonNode applyPatch(ArrayNode patch, JsonNode doc) {
+        PatchApplier applier = new PatchApplier(Jackson.deepCopy(doc), false, false);
+        fromJson(patch.iterator()).forEachRemaining(applier::apply);
+        return applier.getOutput();
+    }
+
+    private static ArrayNode toJson(Iterator<PatchOp> patch) {
         ArrayNode result = JsonNodeFactory.instance.arrayNode();
-        result.addAll(lensedPatchWithDefaults);
+        while (patch.hasNext()) {
+            result.add(patch.next().toJson());
+        }
         return result;
     }
 
+    private static Iterator<PatchOp> fromJson(Iterator<JsonNode> patch) {
+        return new Iterator<PatchOp>() {
+            @Override
+            public boolean hasNext() {
+                return patch.hasNext();
+            }
+
+            @Override
+            public PatchOp next() {
+                return PatchOp.fromJson(patch.next());
+            }
+        };
+    }
+
     public static JsonNode applyLensToPatchOp(List<LensOp> lens, JsonNode patchOp) {
-        return lens.stream()
-            .reduce(patchOp,
-                (prevPatch, lensOp) -> applyLensOp(lensOp, prevPatch),
-                (prevPatch, currPatch) -> {
-                    throw new UnsupportedOperationException(); // unused combiner
+        PatchOp result = applyLensToPatchOp(lens, PatchOp.fromJson(patchOp));
+        return result != null ? result.toJson() : null;
+    }
+
+    /**
+     * Applies the lens to a patch op. The source path of a move or copy is
+     * lensed along with its path; see {@link #applyWithFrom}.
+     */
+    public static PatchOp applyLensToPatchOp(List<LensOp> lens, PatchOp patchOp) {
+        return applyWithFrom(patchOp, op -> {
+            for (LensOp lensOp : lens) {
+                op = lensOp.apply(op);
+                if (op == null) {
+                    return null;
                 }
-            );
+            }
+            return op;
+        });
     }
 
-    private static JsonNode applyLensOp(LensOp lensOp, JsonNode patchOp) {
-        if (patchOp == null) {
+    /**
+     * Applies a lens to a patch op, lensing the source path of a move or copy
+     * as a remove of the value there, in a pass of its own. Lens ops thus only
+     * see ops without a source path, and rewrite it as they rewrite any path,
+     * at every level of the lens.
+     *
+     * @throws IllegalArgumentException if the lens drops the source path but
+     *     not the path of a move or copy
+     */
+    static PatchOp applyWithFrom(PatchOp patchOp, UnaryOperator<PatchOp> lens) {
+        String[] from = patchOp.from();
+        if (from == null) {
+            return lens.apply(patchOp);
+        }
+        PatchOp lensed = lens.apply(PatchOp.of(patchOp.getOp(), patchOp.path(), patchOp.getValue()));
+        if (lensed == null) {
             return null;
         }
-        return lensOp.apply(patchOp);
+        PatchOp source = lens.apply(PatchOp.of(PatchOp.Op.REMOVE, from, null));
+        if (source == null) {
+            throw new IllegalArgumentException("Cannot lens a " + patchOp.getOp().getName() + " from "
+                + TreeEngine.pointer(from, from.length) + ", which the lens drops");
+        }
+        return PatchOp.of(lensed.getOp(), source.path(), lensed.path(), lensed.getValue());
     }
 
     protected static List<JsonNode> expandPatch(JsonNode patch) {
-        String op = patch.get("op").textValue();
-        if (!op.equals("add") && !op.equals("replace")) {
-            return Collections.singletonList(patch);
-        }
+        return toJsonList(expandPatch(PatchOp.fromJson(patch)));
+    }
 
-        JsonNode value = patch.get("value");
-        if (value.isObject() || value.isArray()) {
-            ObjectNode node = JsonNodeFactory.instance.objectNode();
-            node.set("op", patch.get("op"));
-            node.set("path", patch.get("path"));
-            node.set("value", value.isArray()
-                ? JsonNodeFactory.instance.arrayNode()
-                : JsonNodeFactory.instance.objectNode());
-
-            return flatten(Stream.concat(
-                    Stream.of(node),
-                    entries(value)
-                        .map(e -> {
-                            ObjectNode n = JsonNodeFactory.instance.objectNode();
-                            n.set("op", patch.get("op"));
-                            n.set("path", JsonNodeFactory.instance.textNode(
-                                patch.get("path").textValue() + "/" + e.getKey()));
-                            n.set("value", e.getValue());
-                            return expandPatch(n);
-                        })));
-        }
+    static List<PatchOp> expandPatch(PatchOp patch) {
+        List<PatchOp> result = new ArrayList<>();
+        new ExpansionIterator(patch).forEachRemaining(result::add);
+        return result;
+    }
 
-        return Collections.singletonList(patch);
+    private static DefaultTemplates defaults(List<LensOp> lens) {
+        return new DefaultTemplates(TreeEngine.context(lens));
     }
 
-    private static Stream<Map.Entry<Object, JsonNode>> entries(JsonNode value) {
-        if (value.isObject()) {
-            Iterable<Map.Entry<String, JsonNode>> iterable = value::fields;
-            return StreamSupport.stream(iterable.spliterator(), false)
-                .map(e -> new AbstractMap.SimpleEntry<>(e.getKey(), e.getValue()));
-        } else if (value.isArray()) {
-            List<Map.Entry<Object, JsonNode>> elements = new ArrayList<>();
-            int i = 0;
-            for (Iterator<JsonNode> it = value.elements(); it.hasNext(); i++) {
-                elements.add(new AbstractMap.SimpleEntry<>(i, it.next()));
-            }
-            return elements.stream();
-        } else {
-            throw new IllegalArgumentException("Unsupported type " + value.getClass().getName());
+    protected static List<JsonNode> addDefaultValues(Context ctx, List<JsonNode> patch) {
+        List<PatchOp> patchOps = new ArrayList<>(patch.size());
+        for (JsonNode patchOp : patch) {
+            patchOps.add(PatchOp.fromJson(patchOp));
         }
+        return toJsonList(addDefaults(new DefaultTemplates(ctx), patchOps));
     }
 
-    private static void updateDefaultValues(Context ctx, List<LensOp> lens) {
-        lens.forEach(l -> l.apply(ctx));
+    static List<PatchOp> addDefaults(DefaultTemplates defaults, List<PatchOp> patch) {
+        List<PatchOp> result = new ArrayList<>(patch.size());
+        for (PatchOp patchOp : patch) {
+            result.add(patchOp);
+            if (LensedPatchIterator.isMakeMap(patchOp)) {
+                new DefaultsIterator(patchOp, defaults.templateForPath(patchOp.path()))
+                    .forEachRemaining(result::add);
+            }
+        }
+        return result;
     }
 
-    protected static List<JsonNode> addDefaultValues(Context ctx, List<JsonNode> patch) {
-        return flatten(patch.stream()
-            .map(patchOp -> {
-                String op = patchOp.get("op").textValue();
-                String path = patchOp.get("path").textValue();
-                JsonNode value = patchOp.get("value");
-                boolean isMakeMap = (op.equals("add") || op.equals("replace"))
-                    && value.isObject()
-                    && !value.fields().hasNext();
-
-                if (!isMakeMap) {
-                    return patchOp;
-                }
-
-                Context subctx = ctx.getSubcontextForPath(path);
-
-                return flatten(Stream.concat(
-                        Stream.of(patchOp),
-                        subctx.getSubcontexts().entrySet().stream()
-                            .map(e -> {
-                                String subpath = path + "/" + e.getKey();
-                                Object defaultVal = e.getValue().getDefaultValue();
-                                if (defaultVal != null) {
-                                    ObjectNode copy = patchOp.deepCopy();
-                                    copy.put("path", subpath);
-                                    copy.replace("value", Convert.valueToJsonNode(defaultVal));
-                                    return addDefaultValues(ctx, Collections.singletonList(copy));
-                                }
-                                return Collections.emptyList();
-                            })
-                    ));
-            }));
+    private static List<JsonNode> toJsonList(List<PatchOp> patch) {
+        List<JsonNode> result = new ArrayList<>(patch.size());
+        for (PatchOp patchOp : patch) {
+            result.add(patchOp.toJson());
+        }
+        return result;
     }
 
+    /**
+     * Collects the elements of a stream, replacing each collection in it by
+     * its own elements, however deeply nested, and dropping nulls.
+     */
     @SuppressWarnings("unchecked")
     public static <T> List<T> flatten(Stream<?> stream) {
-        List<Object> result = stream
-            .flatMap(child -> {
-                if (child == null) {
-                    return Stream.empty();
-                } else if (child instanceof Collection) {
-                    return flatten(((Collection<?>) child).stream()).stream();
-                } else {
-                    return Stream.of((T) child);
-                }
-            })
-            .collect(Collectors.toList());
-        return (List<T>) result;
+        List<T> result = new ArrayList<>();
+        Deque<Iterator<?>> stack = new ArrayDeque<>();
+        stack.push(stream.iterator());
+        while (!stack.isEmpty()) {
+            Iterator<?> it = stack.peek();
+            if (!it.hasNext()) {
+                stack.pop();
+                continue;
+            }
+            Object child = it.next();
+            if (child instanceof Collection) {
+                stack.push(((Collection<?>) child).iterator());
+            } else if (child != null) {
+                result.add((T) child);
+            }
+        }
+        return result;
     }
 
     public static JsonNode emptyDoc() {
@@ -0,0 +1,103 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A JDK Flight Recorder event for one application of a lens to a document or
+ * a patch.
+ *
+ * <p>The event is disabled by default, and is enabled in a recording with
+ * {@code io.yokota.json.lenses.Lens#enabled=true}. While it is disabled,
+ * lensing only pays for the check of whether it is enabled, and the document
+ * is only walked to count its leaves while it is enabled.
+ */
+@Name("io.yokota.json.lenses.Lens")
+@Label("Lens")
+@Category("JSON Lenses")
+@Description("A lens applied to a document or a patch")
+@Enabled(false)
+@StackTrace(false)
+final class LensEvent extends Event {
+
+    static final String DOC = "doc";
+    static final String PATCH = "patch";
+
+    @Label("Lens")
+    @Description("Hash code of the ops of the lens, which identifies it across runs")
+    int lens;
+
+    @Label("Lens Ops")
+    int lensOps;
+
+    @Label("Input")
+    @Description("Whether a document or a patch was lensed")
+    String input;
+
+    @Label("Leaves")
+    @Description("Number of scalars and empty containers in the input")
+    long leaves;
+
+    @Label("Expanded Ops")
+    @Description("Number of patch ops passed through the lens")
+    long expanded;
+
+    @Label("Dropped Ops")
+    @Description("Number of patch ops that the lens dropped")
+    long dropped;
+
+    @Label("Defaults")
+    @Description("Number of default values written into new objects")
+    long defaults;
+
+    /**
+     * Commits the event, if it is enabled and passes the threshold of the
+     * recording, with the counts of the given lensing.
+     */
+    void record(PatchLens patchLens, String input, JsonNode value, long expanded, long dropped, long defaults) {
+        if (!shouldCommit()) {
+            return;
+        }
+        this.lens = patchLens.getOps().hashCode();
+        this.lensOps = patchLens.getOps().size();
+        this.input = input;
+        this.leaves = input.equals(PATCH) ? patchLeaves(value) : leaves(value);
+        this.expanded = expanded;
+        this.dropped = dropped;
+        this.defaults = defaults;
+        commit();
+    }
+
+    private static long patchLeaves(JsonNode patch) {
+        long result = 0;
+        for (JsonNode patchOp : patch) {
+            JsonNode value = patchOp.get("value");
+            result += value != null ? leaves(value) : 1;
+        }
+        return result;
+    }
+
+    static long leaves(JsonNode value) {
+        long result = 0;
+        Deque<JsonNode> stack = new ArrayDeque<>();
+        stack.push(value);
+        while (!stack.isEmpty()) {
+            JsonNode node = stack.pop();
+            if (node.isContainerNode() && node.size() > 0) {
+                node.elements().forEachRemaining(stack::push);
+            } else {
+                result++;
+            }
+        }
+        return result;
+    }
+}
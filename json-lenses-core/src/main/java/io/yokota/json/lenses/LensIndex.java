@@ -0,0 +1,251 @@
+package io.yokota.json.lenses;
+
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.WrapProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A lens indexed by the first path segment that each of its ops acts on, so
+ * that a patch op is only passed through the ops that can change it.
+ *
+ * <p>Every built-in op other than {@code map} leaves a patch op alone unless
+ * the first segment of its path is one particular name, and {@code map} only
+ * looks at paths that start with an array index. The index keeps, for each
+ * name, the positions of the ops keyed on it, and the positions of the maps.
+ * Applying the lens then jumps from one relevant op to the next, looking up
+ * the first segment of the path as it stands after the previous op, so the
+ * ops still apply in order. The bodies of {@code in} and {@code map} are
+ * indexed in turn, which makes the whole a trie over path segments. Ops of
+ * other types, including subclasses of the built-in ops, are visited for
+ * every patch op.
+ */
+final class LensIndex implements PatchLens {
+
+    private static final int[] NONE = new int[0];
+
+    private final List<LensOp> lens;
+    private final LensOp[] ops;
+    private final LensIndex[] bodies;
+    private final Map<String, int[]> byName;
+    private final int[] maps;
+    private final int[] always;
+
+    LensIndex(List<LensOp> lens) {
+        this.lens = lens;
+        this.ops = lens.toArray(new LensOp[0]);
+        this.bodies = new LensIndex[ops.length];
+        Map<String, List<Integer>> names = new HashMap<>();
+        List<Integer> mapPositions = new ArrayList<>();
+        List<Integer> alwaysPositions = new ArrayList<>();
+        for (int i = 0; i < ops.length; i++) {
+            LensOp op = ops[i];
+            if (op.getClass() == LensIn.class) {
+                bodies[i] = new LensIndex(((LensIn) op).getLens());
+            } else if (op.getClass() == LensMap.class) {
+                bodies[i] = new LensIndex(((LensMap) op).getLens());
+                mapPositions.add(i);
+                continue;
+            } else if (op.getClass() == AddProperty.class) {
+                // only adds a default, which is not done per patch op
+                continue;
+            }
+            String name = key(op);
+            if (name != null) {
+                names.computeIfAbsent(name, k -> new ArrayList<>()).add(i);
+            } else {
+                alwaysPositions.add(i);
+            }
+        }
+        this.byName = new HashMap<>();
+        names.forEach((name, positions) -> byName.put(name, toArray(positions)));
+        this.maps = toArray(mapPositions);
+        this.always = toArray(alwaysPositions);
+    }
+
+    /**
+     * Returns the name that the first path segment must equal for the op to
+     * change a patch op, or null if the op is not keyed on a name.
+     */
+    private static String key(LensOp op) {
+        if (op.getClass() == RenameProperty.class) {
+            return ((RenameProperty) op).getSource();
+        } else if (op.getClass() == RemoveProperty.class) {
+            return ((RemoveProperty) op).getName();
+        } else if (op.getClass() == ConvertValue.class) {
+            return ((ConvertValue) op).getName();
+        } else if (op.getClass() == HeadProperty.class) {
+            return ((HeadProperty) op).getName();
+        } else if (op.getClass() == WrapProperty.class) {
+            return ((WrapProperty) op).getName();
+        } else if (op.getClass() == HoistProperty.class) {
+            return ((HoistProperty) op).getHost();
+        } else if (op.getClass() == PlungeProperty.class) {
+            return ((PlungeProperty) op).getName();
+        } else if (op.getClass() == LensIn.class) {
+            return ((LensIn) op).getName();
+        }
+        return null;
+    }
+
+    @Override
+    public List<LensOp> getOps() {
+        return lens;
+    }
+
+    /**
+     * Applies the lens to a patch op, with the same result as
+     * {@link JsonLenses#applyLensToPatchOp(List, PatchOp)}. The source path
+     * of a move or copy is looked up under its own first segment.
+     */
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        return JsonLenses.applyWithFrom(patchOp, this::applyPath);
+    }
+
+    private PatchOp applyPath(PatchOp patchOp) {
+        int i = 0;
+        while (patchOp != null) {
+            i = next(patchOp, i);
+            if (i < 0) {
+                return patchOp;
+            }
+            patchOp = apply(i, patchOp);
+            i++;
+        }
+        return null;
+    }
+
+    private PatchOp apply(int i, PatchOp patchOp) {
+        LensIndex body = bodies[i];
+        if (body == null) {
+            return ops[i].apply(patchOp);
+        }
+        String head = patchOp.segment(0);
+        PatchOp childPatch = body.apply(patchOp.tail(1));
+        return childPatch != null ? childPatch.withHead(head, 0) : null;
+    }
+
+    @Override
+    public String[] relocate(String[] path) {
+        return relocateFrom(path);
+    }
+
+    // Follows the path through the ops that may change writes below it, each
+    // of which must rewrite those writes by their first segments alone
+    private String[] relocateFrom(String[] path) {
+        if (path.length == 0) {
+            // every name and index is below the root of this level
+            return always.length == 0 && maps.length == 0 && byName.isEmpty() ? path : null;
+        }
+        if (always.length > 0) {
+            return null;
+        }
+        int i = 0;
+        while (true) {
+            String head = path[0];
+            int[] named = byName.get(head);
+            i = min(named != null ? next(named, i) : -1,
+                PatchOp.isArrayIndex(head) ? next(maps, i) : -1);
+            if (i < 0) {
+                return path;
+            }
+            path = relocate(i, path);
+            if (path == null) {
+                return null;
+            }
+            i++;
+        }
+    }
+
+    private String[] relocate(int i, String[] path) {
+        LensOp op = ops[i];
+        LensIndex body = bodies[i];
+        if (body != null) {
+            String[] childPath = body.relocateFrom(Arrays.copyOfRange(path, 1, path.length));
+            return childPath != null ? withHead(path[0], 0, childPath) : null;
+        } else if (op instanceof RenameProperty) {
+            return withHead(((RenameProperty) op).getTarget(), 1, path);
+        } else if (op instanceof ConvertValue) {
+            // only a write of the property itself is converted
+            return path.length >= 2 ? path : null;
+        } else if (op instanceof HeadProperty) {
+            return path.length >= 2 && path[1].equals("0") ? withHead(path[0], 2, path) : null;
+        } else if (op instanceof WrapProperty) {
+            return withHead(path[0], 0, withHead("0", 1, path));
+        } else if (op instanceof HoistProperty) {
+            if (path.length < 2) {
+                return null;
+            }
+            return path[1].equals(((HoistProperty) op).getName())
+                ? Arrays.copyOfRange(path, 1, path.length)
+                : path;
+        } else if (op instanceof PlungeProperty) {
+            return withHead(((PlungeProperty) op).getHost(), 0, path);
+        }
+        // a remove drops what is below it
+        return null;
+    }
+
+    private static String[] withHead(String head, int count, String[] path) {
+        String[] result = new String[path.length - count + 1];
+        result[0] = head;
+        System.arraycopy(path, count, result, 1, path.length - count);
+        return result;
+    }
+
+    /**
+     * Returns the position of the first op at or after {@code from} that may
+     * change the given patch op, or -1 if there is none.
+     */
+    private int next(PatchOp patchOp, int from) {
+        int result = next(always, from);
+        if (patchOp.size() == 0) {
+            return result;
+        }
+        String head = patchOp.segment(0);
+        int[] named = byName.get(head);
+        if (named != null) {
+            result = min(result, next(named, from));
+        }
+        if (patchOp.size() >= 2 && maps.length > 0 && PatchOp.isArrayIndex(head)) {
+            result = min(result, next(maps, from));
+        }
+        return result;
+    }
+
+    private static int next(int[] positions, int from) {
+        if (positions.length == 0 || positions[positions.length - 1] < from) {
+            return -1;
+        }
+        int i = Arrays.binarySearch(positions, from);
+        return positions[i >= 0 ? i : -i - 1];
+    }
+
+    private static int min(int a, int b) {
+        if (a < 0) {
+            return b;
+        }
+        return b < 0 ? a : Math.min(a, b);
+    }
+
+    private static int[] toArray(List<Integer> positions) {
+        if (positions.isEmpty()) {
+            return NONE;
+        }
+        return positions.stream().mapToInt(Integer::intValue).toArray();
+    }
+}
@@ -0,0 +1,271 @@
+package io.yokota.json.lenses;
+
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.ValueMapping;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.Convert;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Rewrites a lens into an equivalent one with fewer ops, by fusing adjacent
+ * ops and dropping ops that cancel out.
+ *
+ * <p>The rewrites are:
+ * <ul>
+ * <li>adjacent {@code in}s on the same name, and adjacent {@code map}s, are merged;</li>
+ * <li>an {@code add} followed by an {@code add} or {@code remove} of the same name
+ * collapses into the second op, and a repeated {@code remove} is dropped;</li>
+ * <li>consecutive {@code convert}s of the same name are composed;</li>
+ * <li>renames {@code a -> b} and {@code b -> c} are fused into {@code a -> c}, and
+ * a rename back to the original name, or onto itself, is dropped;</li>
+ * <li>a {@code hoist} followed by the matching {@code plunge}, or the reverse, is dropped;</li>
+ * <li>empty {@code in}s and {@code map}s are dropped.</li>
+ * </ul>
+ *
+ * <p>Each rewrite is applied only where it leaves the defaults of the lens
+ * unchanged, which is decided by tracking the lens context while rewriting.
+ * The rewrites that move properties also change where a property already at
+ * the intermediate name of a pair of renames, or at the name that a
+ * {@code hoist} or {@code plunge} moves a property to, ends up. They are
+ * therefore applied only where no op can reach that name, which is tracked
+ * along with the context: a name is known to be empty after a {@code remove}
+ * of it, or a {@code rename} or {@code plunge} away from it, until an op moves
+ * a property back onto it. Nothing is known of the names below an {@code in}
+ * or a {@code map}, so the lens is equivalent on every document.
+ *
+ * <p>A lens is only optimized for one direction: the reverse of an optimized
+ * lens is not in general equivalent to the reverse of the original, so the
+ * reverse lens should be optimized on its own.
+ */
+final class LensOptimizer {
+
+    private LensOptimizer() {
+    }
+
+    static List<LensOp> optimize(List<LensOp> lens) {
+        List<LensOp> result = lens;
+        while (true) {
+            List<LensOp> next = optimize(result, new Context());
+            if (next.equals(result)) {
+                return next;
+            }
+            result = next;
+        }
+    }
+
+    /**
+     * Makes one pass over the given lens, applying each op that is kept to
+     * {@code ctx}, which holds the context just before the lens.
+     */
+    private static List<LensOp> optimize(List<LensOp> lens, Context ctx) {
+        List<LensOp> pending = new ArrayList<>(lens);
+        List<LensOp> result = new ArrayList<>(lens.size());
+        // the names that no op reaching the current op can have as its head
+        Set<String> empty = new HashSet<>();
+        int i = 0;
+        while (i < pending.size()) {
+            LensOp op = pending.get(i);
+            List<LensOp> rewritten = i + 1 < pending.size()
+                ? fuse(op, pending.get(i + 1), ctx, empty)
+                : null;
+            if (rewritten != null) {
+                pending.subList(i, i + 2).clear();
+                pending.addAll(i, rewritten);
+                continue;
+            }
+            rewritten = simplify(op);
+            if (rewritten != null) {
+                pending.remove(i);
+                pending.addAll(i, rewritten);
+                continue;
+            }
+            if (op instanceof LensIn) {
+                op = optimize((LensIn) op, ctx);
+            } else if (op instanceof LensMap) {
+                op = new LensMap(optimize(((LensMap) op).getLens(), ctx));
+            } else {
+                op.apply(ctx);
+            }
+            track(op, empty);
+            result.add(op);
+            i++;
+        }
+        return result;
+    }
+
+    private static LensIn optimize(LensIn in, Context ctx) {
+        // an empty in does not create its subcontext, so only add it if the body is kept
+        Context subctx = ctx.getSubcontexts().get(in.getName());
+        boolean created = subctx == null;
+        if (created) {
+            subctx = new Context();
+        }
+        List<LensOp> lens = optimize(in.getLens(), subctx);
+        if (created && !lens.isEmpty()) {
+            ctx.setSubcontext(in.getName(), subctx);
+        }
+        return new LensIn(in.getName(), lens);
+    }
+
+    /**
+     * Updates the names that are known to be empty after {@code op}.
+     */
+    private static void track(LensOp op, Set<String> empty) {
+        if (op instanceof RemoveProperty) {
+            empty.add(((RemoveProperty) op).getName());
+        } else if (op instanceof RenameProperty) {
+            RenameProperty rename = (RenameProperty) op;
+            empty.remove(rename.getTarget());
+            if (!rename.getSource().equals(rename.getTarget())) {
+                empty.add(rename.getSource());
+            }
+        } else if (op instanceof HoistProperty) {
+            empty.remove(((HoistProperty) op).getName());
+        } else if (op instanceof PlungeProperty) {
+            PlungeProperty plunge = (PlungeProperty) op;
+            empty.remove(plunge.getHost());
+            empty.add(plunge.getName());
+        } else if (!(op instanceof AddProperty || op instanceof ConvertValue || op instanceof HeadProperty
+            || op instanceof WrapProperty || op instanceof LensIn || op instanceof LensMap)) {
+            // an op of another type may move anything anywhere
+            empty.clear();
+        }
+    }
+
+    /**
+     * Returns the ops that replace the single op {@code op}, or null to keep it.
+     */
+    private static List<LensOp> simplify(LensOp op) {
+        if (op instanceof RenameProperty) {
+            RenameProperty rename = (RenameProperty) op;
+            if (rename.getSource().equals(rename.getTarget())) {
+                return Collections.emptyList();
+            }
+        } else if (op instanceof LensIn) {
+            if (((LensIn) op).getLens().isEmpty()) {
+                return Collections.emptyList();
+            }
+        } else if (op instanceof LensMap) {
+            if (((LensMap) op).getLens().isEmpty()) {
+                return Collections.emptyList();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the ops that replace the adjacent ops {@code first} and
+     * {@code second}, or null to keep them. The names in {@code empty} are
+     * known to be empty before {@code first}.
+     */
+    private static List<LensOp> fuse(LensOp first, LensOp second, Context ctx, Set<String> empty) {
+        if (first instanceof LensIn && second instanceof LensIn) {
+            LensIn in1 = (LensIn) first;
+            LensIn in2 = (LensIn) second;
+            if (in1.getName().equals(in2.getName())) {
+                return Collections.singletonList(new LensIn(in1.getName(),
+                    concat(in1.getLens(), in2.getLens())));
+            }
+        } else if (first instanceof LensMap && second instanceof LensMap) {
+            return Collections.singletonList(new LensMap(
+                concat(((LensMap) first).getLens(), ((LensMap) second).getLens())));
+        } else if (first instanceof AddProperty) {
+            String name = ((AddProperty) first).getName();
+            if ((second instanceof AddProperty && ((AddProperty) second).getName().equals(name))
+                || (second instanceof RemoveProperty && ((RemoveProperty) second).getName().equals(name))) {
+                return Collections.singletonList(second);
+            }
+        } else if (first instanceof RemoveProperty && second instanceof RemoveProperty) {
+            if (((RemoveProperty) first).getName().equals(((RemoveProperty) second).getName())) {
+                return Collections.singletonList(first);
+            }
+        } else if (first instanceof ConvertValue && second instanceof ConvertValue) {
+            ConvertValue convert1 = (ConvertValue) first;
+            ConvertValue convert2 = (ConvertValue) second;
+            if (convert1.getName().equals(convert2.getName())) {
+                ValueMapping mapping1 = convert1.getMapping();
+                ValueMapping mapping2 = convert2.getMapping();
+                return Collections.singletonList(new ConvertValue(convert1.getName(), new ValueMapping(
+                    compose(mapping1.getForward(), mapping2.getForward()),
+                    compose(mapping2.getReverse(), mapping1.getReverse()))));
+            }
+        } else if (first instanceof RenameProperty && second instanceof RenameProperty) {
+            RenameProperty rename1 = (RenameProperty) first;
+            RenameProperty rename2 = (RenameProperty) second;
+            // the first rename must not replace an existing subcontext, nor a
+            // property that the second rename would move as well
+            if (rename1.getTarget().equals(rename2.getSource())
+                && empty.contains(rename1.getTarget())
+                && !ctx.getSubcontexts().containsKey(rename1.getTarget())) {
+                return Collections.singletonList(
+                    new RenameProperty(rename1.getSource(), rename2.getTarget()));
+            }
+        } else if (first instanceof HoistProperty && second instanceof PlungeProperty) {
+            // the pair always leaves the host subcontext behind, so it must already
+            // exist, and the plunge would also move a property already at the name
+            HoistProperty hoist = (HoistProperty) first;
+            PlungeProperty plunge = (PlungeProperty) second;
+            Context host = ctx.getSubcontexts().get(hoist.getHost());
+            if (hoist.getHost().equals(plunge.getHost()) && hoist.getName().equals(plunge.getName())
+                && host != null && empty.contains(hoist.getName())
+                && !ctx.getSubcontexts().containsKey(hoist.getName())) {
+                return Collections.emptyList();
+            }
+        } else if (first instanceof PlungeProperty && second instanceof HoistProperty) {
+            PlungeProperty plunge = (PlungeProperty) first;
+            HoistProperty hoist = (HoistProperty) second;
+            Context host = ctx.getSubcontexts().get(plunge.getHost());
+            // the hoist would also move a property already in the host
+            if (plunge.getHost().equals(hoist.getHost()) && plunge.getName().equals(hoist.getName())
+                && host != null && empty.contains(plunge.getHost())
+                && !host.getSubcontexts().containsKey(plunge.getName())) {
+                return Collections.emptyList();
+            }
+        }
+        return null;
+    }
+
+    private static List<LensOp> concat(List<LensOp> first, List<LensOp> second) {
+        List<LensOp> result = new ArrayList<>(first.size() + second.size());
+        result.addAll(first);
+        result.addAll(second);
+        return result;
+    }
+
+    /**
+     * Returns the mapping that applies {@code first} and then {@code second}.
+     * Intermediate values go through JSON, as they do between two converts,
+     * and values that the second mapping cannot convert are left out.
+     */
+    private static Map<Object, Object> compose(Map<Object, Object> first, Map<Object, Object> second) {
+        Map<Object, Object> result = new HashMap<>();
+        for (Map.Entry<Object, Object> entry : first.entrySet()) {
+            Object value;
+            try {
+                value = Convert.jsonNodeToPrimitive(Convert.valueToJsonNode(entry.getValue()));
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            if (second.containsKey(value)) {
+                result.put(entry.getKey(), second.get(value));
+            }
+        }
+        return result;
+    }
+}
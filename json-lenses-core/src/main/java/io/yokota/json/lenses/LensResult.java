@@ -0,0 +1,75 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * The outcome of lensing one document of a batch: either the lensed document
+ * or the error that lensing it raised.
+ */
+public final class LensResult {
+
+    private final long index;
+    private final JsonNode input;
+    private final JsonNode output;
+    private final RuntimeException error;
+
+    private LensResult(long index, JsonNode input, JsonNode output, RuntimeException error) {
+        this.index = index;
+        this.input = input;
+        this.output = output;
+        this.error = error;
+    }
+
+    static LensResult success(long index, JsonNode input, JsonNode output) {
+        return new LensResult(index, input, output, null);
+    }
+
+    static LensResult failure(long index, JsonNode input, RuntimeException error) {
+        return new LensResult(index, input, null, error);
+    }
+
+    /**
+     * Returns the position of the document in the input.
+     */
+    public long getIndex() {
+        return index;
+    }
+
+    public JsonNode getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the lensed document, or null if lensing failed.
+     */
+    public JsonNode getOutput() {
+        return output;
+    }
+
+    /**
+     * Returns the error raised while lensing, or null if lensing succeeded.
+     */
+    public RuntimeException getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the lensed document, or rethrows the error if lensing failed.
+     */
+    public JsonNode get() {
+        if (error != null) {
+            throw error;
+        }
+        return output;
+    }
+
+    @Override
+    public String toString() {
+        return "LensResult{index=" + index
+            + (error != null ? ", error=" + error : ", output=" + output) + "}";
+    }
+}
@@ -0,0 +1,312 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Lenses a continuous stream of JSON Patch ops against one document, such as
+ * a change data capture feed.
+ *
+ * <p>A session keeps the compiled lens and a copy of the source document as
+ * the stream has left it, so that every RFC 6902 op can be lensed on its own:
+ * <ul>
+ * <li>an add or replace is lensed like {@link CompiledLens#applyToPatch}, and
+ * an add over an existing property becomes a replace, so that a wrapped
+ * property is replaced rather than inserted;</li>
+ * <li>a remove of the head of an array that is lensed with a head writes the
+ * next element as the new head;</li>
+ * <li>a move or copy is kept as a move or copy if the lens treats the value
+ * the same way at both paths, and is otherwise lensed as a remove and an add
+ * of the value;</li>
+ * <li>a test is checked against the source document and is not passed on.</li>
+ * </ul>
+ * An op that writes a scalar, or removes a value, costs time proportional to
+ * the depth of its path rather than to the size of the document.
+ *
+ * <p>Sessions are not thread-safe.
+ */
+public final class LensSession {
+
+    private static final String[] ROOT = new String[0];
+
+    private final PatchLens lens;
+    private final DefaultTemplates defaults;
+    private final TreeEngine source;
+
+    LensSession(CompiledLens lens, JsonNode sourceDoc) {
+        this.lens = lens.index();
+        this.defaults = lens.defaults();
+        // the engine is only used to write into the copy, so it needs no lens
+        this.source = new TreeEngine(null, null, ROOT, Jackson.deepCopy(sourceDoc));
+    }
+
+    /**
+     * Returns the source document as the ops seen so far have left it. The
+     * document is shared and must not be modified.
+     */
+    public JsonNode getSourceDoc() {
+        return source.getOutput();
+    }
+
+    /**
+     * Lenses each op of the given patch in turn. If an op cannot be applied to
+     * the source document, the ops before it remain applied.
+     */
+    public ArrayNode apply(ArrayNode patch) {
+        ArrayNode result = JsonNodeFactory.instance.arrayNode();
+        for (JsonNode patchOp : patch) {
+            for (PatchOp lensed : apply(PatchOp.fromJson(patchOp))) {
+                result.add(lensed.toJson());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Applies the given op to the source document and returns the lensed ops
+     * that make the same change to the lensed document.
+     *
+     * @throws IllegalArgumentException if the op cannot be applied, in which
+     *     case the source document is left unchanged
+     */
+    public List<PatchOp> apply(PatchOp patchOp) {
+        List<PatchOp> result = new ArrayList<>();
+        switch (patchOp.getOp()) {
+            case ADD:
+            case REPLACE:
+                if (patchOp.getValue() == null) {
+                    throw new IllegalArgumentException("Missing value in " + patchOp.getOp().getName());
+                }
+                PatchOp write = resolve(patchOp);
+                lensWrite(write, result);
+                commit(write);
+                break;
+            case REMOVE:
+                // lensed before the remove, so the next head is the second element
+                lensRemove(patchOp.path(), 1, result);
+                remove(patchOp.path());
+                break;
+            case MOVE:
+                move(patchOp, result);
+                break;
+            case COPY:
+                copy(patchOp, result);
+                break;
+            case TEST:
+                test(patchOp);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported patch op " + patchOp.getOp().getName());
+        }
+        return result;
+    }
+
+    private void move(PatchOp patchOp, List<PatchOp> result) {
+        String[] from = from(patchOp);
+        String[] path = patchOp.path();
+        if (Arrays.equals(from, path)) {
+            get(from);
+            return;
+        }
+        if (TreeEngine.startsWith(path, from)) {
+            throw new IllegalArgumentException("Cannot move " + TreeEngine.pointer(from, from.length)
+                + " into itself");
+        }
+        JsonNode value = get(from);
+        // a move is lensed against the source as it leaves it, so it is
+        // applied first, and undone if it cannot be lensed
+        JsonNode fromParent = get(Arrays.copyOf(from, from.length - 1));
+        List<String> order = null;
+        if (fromParent.isObject()) {
+            order = new ArrayList<>(fromParent.size());
+            fromParent.fieldNames().forEachRemaining(order::add);
+        }
+        remove(from);
+        try {
+            PatchOp add = resolve(PatchOp.of(PatchOp.Op.ADD, path, value));
+            JsonNode previous = previous(add.path());
+            commit(add);
+            try {
+                if (!lensTransfer(PatchOp.Op.MOVE, from, add, result)) {
+                    lensRemove(from, 0, result);
+                    lensWrite(add, result);
+                }
+            } catch (IllegalArgumentException e) {
+                source.write(previous != null
+                    ? PatchOp.of(PatchOp.Op.REPLACE, add.path(), previous)
+                    : PatchOp.of(PatchOp.Op.REMOVE, add.path(), null));
+                throw e;
+            }
+        } catch (IllegalArgumentException e) {
+            reinsert(from, value, order);
+            throw e;
+        }
+    }
+
+    // Returns the value that a write to the path replaces, if any
+    private JsonNode previous(String[] path) {
+        if (path.length == 0) {
+            return source.getOutput();
+        }
+        JsonNode parent = get(Arrays.copyOf(path, path.length - 1));
+        return parent.isObject() ? parent.get(path[path.length - 1]) : null;
+    }
+
+    // Puts a removed value back, and a removed property back in its place
+    private void reinsert(String[] path, JsonNode value, List<String> order) {
+        source.write(PatchOp.of(PatchOp.Op.ADD, path, value));
+        if (order != null && !order.get(order.size() - 1).equals(path[path.length - 1])) {
+            ObjectNode parent = (ObjectNode) get(Arrays.copyOf(path, path.length - 1));
+            Map<String, JsonNode> fields = new HashMap<>();
+            parent.fields().forEachRemaining(f -> fields.put(f.getKey(), f.getValue()));
+            parent.removeAll();
+            order.forEach(name -> parent.set(name, fields.get(name)));
+        }
+    }
+
+    private void copy(PatchOp patchOp, List<PatchOp> result) {
+        String[] from = from(patchOp);
+        PatchOp add = resolve(PatchOp.of(PatchOp.Op.ADD, patchOp.path(), get(from)));
+        if (!lensTransfer(PatchOp.Op.COPY, from, add, result)) {
+            lensWrite(add, result);
+        }
+        commit(add);
+    }
+
+    private void test(PatchOp patchOp) {
+        String[] path = patchOp.path();
+        if (!get(path).equals(patchOp.getValue())) {
+            throw new IllegalArgumentException("Test failed at " + TreeEngine.pointer(path, path.length));
+        }
+    }
+
+    // A move or copy can be passed on as one if the value lenses to the same
+    // ops, relative to where it lands, at both paths, and removing it from the
+    // source path is a plain remove of where it landed
+    private boolean lensTransfer(PatchOp.Op op, String[] from, PatchOp add, List<PatchOp> result) {
+        List<PatchOp> at = new ArrayList<>();
+        List<PatchOp> to = new ArrayList<>();
+        lensWrite(PatchOp.of(PatchOp.Op.ADD, from, add.getValue()), at);
+        lensWrite(PatchOp.of(PatchOp.Op.ADD, add.path(), add.getValue()), to);
+        if (at.isEmpty() || at.size() != to.size()) {
+            return false;
+        }
+        String[] lensedFrom = at.get(0).path();
+        String[] lensedPath = to.get(0).path();
+        if (op == PatchOp.Op.MOVE
+            && !PatchOp.of(PatchOp.Op.REMOVE, lensedFrom, null).equals(lens.apply(
+                PatchOp.of(PatchOp.Op.REMOVE, from, null)))) {
+            return false;
+        }
+        for (int i = 0; i < at.size(); i++) {
+            if (!sameBelow(at.get(i), lensedFrom, to.get(i), lensedPath)) {
+                return false;
+            }
+        }
+        result.add(PatchOp.of(op, lensedFrom, lensedPath, null));
+        return true;
+    }
+
+    private static boolean sameBelow(PatchOp a, String[] baseA, PatchOp b, String[] baseB) {
+        String[] pathA = a.path();
+        String[] pathB = b.path();
+        return a.getOp() == b.getOp()
+            && Objects.equals(a.getValue(), b.getValue())
+            && TreeEngine.startsWith(pathA, baseA)
+            && TreeEngine.startsWith(pathB, baseB)
+            && Arrays.equals(pathA, baseA.length, pathA.length, pathB, baseB.length, pathB.length);
+    }
+
+    // Lenses a write, whose value is expanded into adds below the written path
+    private void lensWrite(PatchOp patchOp, List<PatchOp> result) {
+        Iterator<PatchOp> it = new ExpansionIterator(
+            PatchOp.of(PatchOp.Op.ADD, patchOp.path(), patchOp.getValue()));
+        boolean first = true;
+        while (it.hasNext()) {
+            PatchOp node = it.next();
+            if (first) {
+                node = PatchOp.of(patchOp.getOp(), node.path(), node.getValue());
+                first = false;
+            }
+            PatchOp lensed = lens.apply(node);
+            if (lensed == null) {
+                continue;
+            }
+            result.add(lensed);
+            if (LensedPatchIterator.isMakeMap(lensed)) {
+                new DefaultsIterator(PatchOp.of(PatchOp.Op.ADD, lensed.path(), lensed.getValue()),
+                    defaults.templateForPath(lensed.path())).forEachRemaining(result::add);
+            }
+        }
+    }
+
+    // Lenses a remove, where the element that becomes the head of an array is
+    // at index {@code next} of the array in the source as it is
+    private void lensRemove(String[] path, int next, List<PatchOp> result) {
+        PatchOp lensed = lens.apply(PatchOp.of(PatchOp.Op.REMOVE, path, null));
+        if (lensed == null) {
+            return;
+        }
+        // only a head turns a remove into a replace, and it can write the next element instead
+        if (lensed.getOp() == PatchOp.Op.REPLACE && path.length > 0 && path[path.length - 1].equals("0")) {
+            JsonNode array = get(Arrays.copyOf(path, path.length - 1));
+            if (array.isArray() && array.size() > next) {
+                lensWrite(PatchOp.of(PatchOp.Op.REPLACE, path, array.get(next)), result);
+                return;
+            }
+        }
+        result.add(lensed);
+    }
+
+    // Returns a write with any array append resolved to an index, and with
+    // add or replace chosen by whether the property already holds a value
+    private PatchOp resolve(PatchOp patchOp) {
+        String[] path = patchOp.path();
+        if (path.length > 0) {
+            JsonNode parent = get(Arrays.copyOf(path, path.length - 1));
+            String last = path[path.length - 1];
+            if (parent.isArray() && last.equals("-") && patchOp.getOp() == PatchOp.Op.ADD) {
+                path = TreeEngine.append(Arrays.copyOf(path, path.length - 1), String.valueOf(parent.size()));
+                patchOp = patchOp.withPath(path);
+            } else if (parent.isObject()) {
+                JsonNode previous = parent.get(last);
+                if (patchOp.getOp() == PatchOp.Op.ADD && previous != null && !previous.isNull()) {
+                    patchOp = PatchOp.of(PatchOp.Op.REPLACE, path, patchOp.getValue());
+                } else if (patchOp.getOp() == PatchOp.Op.REPLACE && previous != null && previous.isNull()) {
+                    patchOp = PatchOp.of(PatchOp.Op.ADD, path, patchOp.getValue());
+                }
+            }
+        }
+        return patchOp;
+    }
+
+    private void commit(PatchOp write) {
+        source.write(write.withValue(Jackson.deepCopy(write.getValue())));
+    }
+
+    private void remove(String[] path) {
+        source.write(PatchOp.of(PatchOp.Op.REMOVE, path, null));
+    }
+
+    private JsonNode get(String[] path) {
+        return TreeEngine.get(source.getOutput(), path, path.length);
+    }
+
+    private static String[] from(PatchOp patchOp) {
+        if (patchOp.from() == null) {
+            throw new IllegalArgumentException("Missing from in " + patchOp.getOp().getName());
+        }
+        return patchOp.from();
+    }
+}
@@ -0,0 +1,162 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.WrapProperty;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A read-only view of the lensed form of an object, which lenses each
+ * property of the result when it is first read.
+ *
+ * <p>Reading a property walks the ops of the lens back from its name to the
+ * names of the source properties that can write below it, and lenses only
+ * those, along with the defaults of the lens. Each property is lensed once
+ * and then kept. Iterating over the properties, or comparing or writing out
+ * the view, lenses the whole object once. The source object must not be
+ * changed while the view is in use, and the view itself cannot be changed.
+ */
+public final class LensedJsonNode extends ObjectNode {
+
+    private static final long serialVersionUID = 1L;
+
+    LensedJsonNode(PatchLens lens, DefaultTemplates defaults, ObjectNode source) {
+        super(JsonNodeFactory.instance, new LazyFields(lens, defaults, source));
+    }
+
+    /**
+     * Returns the names of the properties of the source whose values the lens
+     * may write at or below the property {@code name} of the result, or null
+     * if the lens has an op whose writes cannot be told apart by name.
+     */
+    static Set<String> sourceNames(List<LensOp> lens, String name) {
+        Set<String> names = new HashSet<>();
+        names.add(name);
+        for (int i = lens.size() - 1; i >= 0; i--) {
+            LensOp op = lens.get(i);
+            Class<?> type = op.getClass();
+            if (type == RenameProperty.class) {
+                RenameProperty rename = (RenameProperty) op;
+                // nothing is left at the source of a rename, while the target
+                // gets both the renamed value and any value already there
+                names.remove(rename.getSource());
+                if (names.contains(rename.getTarget())) {
+                    names.add(rename.getSource());
+                }
+            } else if (type == RemoveProperty.class) {
+                names.remove(((RemoveProperty) op).getName());
+            } else if (type == HoistProperty.class) {
+                HoistProperty hoist = (HoistProperty) op;
+                if (names.contains(hoist.getName())) {
+                    names.add(hoist.getHost());
+                }
+            } else if (type == PlungeProperty.class) {
+                PlungeProperty plunge = (PlungeProperty) op;
+                // nothing is left at the name of a plunge
+                names.remove(plunge.getName());
+                if (names.contains(plunge.getHost())) {
+                    names.add(plunge.getName());
+                }
+            } else if (type != AddProperty.class && type != ConvertValue.class && type != HeadProperty.class
+                && type != WrapProperty.class && type != LensIn.class && type != LensMap.class) {
+                return null;
+            }
+        }
+        return names;
+    }
+
+    private static final class LazyFields extends AbstractMap<String, JsonNode> {
+        private final PatchLens lens;
+        private final DefaultTemplates defaults;
+        private final ObjectNode source;
+        private final Map<String, JsonNode> resolved = new HashMap<>();
+        private Map<String, JsonNode> all;
+
+        LazyFields(PatchLens lens, DefaultTemplates defaults, ObjectNode source) {
+            this.lens = lens;
+            this.defaults = defaults;
+            this.source = source;
+        }
+
+        @Override
+        public synchronized JsonNode get(Object key) {
+            if (all != null) {
+                return all.get(key);
+            }
+            if (!(key instanceof String)) {
+                return null;
+            }
+            String name = (String) key;
+            if (resolved.containsKey(name)) {
+                return resolved.get(name);
+            }
+            Set<String> names = sourceNames(lens.getOps(), name);
+            if (names == null) {
+                return materialize().get(name);
+            }
+            TreeEngine engine = new TreeEngine(lens, defaults, new String[0], defaults.newRoot());
+            if (names.size() == 1) {
+                String sourceName = names.iterator().next();
+                JsonNode value = source.get(sourceName);
+                if (value != null) {
+                    engine.visit(new String[]{sourceName}, value);
+                }
+            } else if (!names.isEmpty()) {
+                // the properties are lensed in source order, as they are for the whole object
+                for (Iterator<Map.Entry<String, JsonNode>> it = source.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> field = it.next();
+                    if (names.contains(field.getKey())) {
+                        engine.visit(new String[]{field.getKey()}, field.getValue());
+                    }
+                }
+            }
+            JsonNode result = engine.getOutput().get(name);
+            resolved.put(name, result);
+            return result;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public Set<Map.Entry<String, JsonNode>> entrySet() {
+            return materialize().entrySet();
+        }
+
+        private synchronized Map<String, JsonNode> materialize() {
+            if (all == null) {
+                Map<String, JsonNode> result = new LinkedHashMap<>();
+                // the values already read are kept, so that they stay the same nodes
+                TreeEngine.apply(lens, defaults, source, null).fields().forEachRemaining(field -> {
+                    JsonNode value = resolved.get(field.getKey());
+                    result.put(field.getKey(), value != null ? value : field.getValue());
+                });
+                all = Collections.unmodifiableMap(result);
+                resolved.clear();
+            }
+            return all;
+        }
+    }
+}
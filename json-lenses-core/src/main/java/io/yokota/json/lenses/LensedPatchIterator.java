@@ -0,0 +1,100 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Lenses a sequence of patch ops, lazily.
+ *
+ * <p>Each input op is expanded, each expanded op is passed through the lens,
+ * and each lensed op that creates an empty object is followed by the defaults
+ * of that object. Only the op being expanded and the defaults being written
+ * are held at any time, so a patch can be lensed as it is read.
+ */
+final class LensedPatchIterator implements Iterator<PatchOp> {
+
+    private final PatchLens lens;
+    private final DefaultTemplates defaults;
+    private final Iterator<PatchOp> input;
+    private Iterator<PatchOp> expansion = Collections.emptyIterator();
+    private Iterator<PatchOp> pendingDefaults = Collections.emptyIterator();
+    private PatchOp next;
+    // counted for LensEvent
+    private long expanded;
+    private long dropped;
+    private long defaultsWritten;
+
+    LensedPatchIterator(PatchLens lens, DefaultTemplates defaults, Iterator<PatchOp> input) {
+        this.lens = lens;
+        this.defaults = defaults;
+        this.input = input;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            next = advance();
+        }
+        return next != null;
+    }
+
+    @Override
+    public PatchOp next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        PatchOp result = next;
+        next = null;
+        return result;
+    }
+
+    private PatchOp advance() {
+        if (pendingDefaults.hasNext()) {
+            return pendingDefaults.next();
+        }
+        while (true) {
+            if (!expansion.hasNext()) {
+                if (!input.hasNext()) {
+                    return null;
+                }
+                expansion = new ExpansionIterator(input.next());
+                continue;
+            }
+            expanded++;
+            PatchOp lensed = lens.apply(expansion.next());
+            if (lensed == null) {
+                dropped++;
+                continue;
+            }
+            if (isMakeMap(lensed)) {
+                ObjectNode template = defaults.templateForPath(lensed.path());
+                if (template != null) {
+                    defaultsWritten += template.size();
+                }
+                pendingDefaults = new DefaultsIterator(lensed, template);
+            }
+            return lensed;
+        }
+    }
+
+    long expanded() {
+        return expanded;
+    }
+
+    long dropped() {
+        return dropped;
+    }
+
+    long defaultsWritten() {
+        return defaultsWritten;
+    }
+
+    static boolean isMakeMap(PatchOp patchOp) {
+        JsonNode value = patchOp.getValue();
+        return patchOp.isWrite() && value.isObject() && value.size() == 0;
+    }
+}
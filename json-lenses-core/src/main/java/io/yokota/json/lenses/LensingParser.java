@@ -0,0 +1,100 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserDelegate;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+
+/**
+ * A {@link JsonParser} that returns the tokens of the lensed document while
+ * reading the original one, so that databind can bind lensed values directly
+ * from the original input.
+ *
+ * <p>Input is pulled through the streaming engine a few tokens at a time; only
+ * the output of the tokens read so far is held in memory.
+ */
+public class LensingParser extends JsonParserDelegate {
+
+    private final JsonParser source;
+    private final StreamingEngine engine;
+    private JsonParser chunk;
+
+    LensingParser(CompiledLens lens, JsonParser source) {
+        super(source);
+        this.source = source;
+        this.engine = new StreamingEngine(lens, source, null);
+    }
+
+    @Override
+    public JsonToken nextToken() throws IOException {
+        while (true) {
+            if (chunk != null) {
+                JsonToken token = chunk.nextToken();
+                if (token != null) {
+                    return token;
+                }
+            }
+            if (!fill()) {
+                return null;
+            }
+        }
+    }
+
+    private boolean fill() throws IOException {
+        // each chunk starts in the parsing context the previous one ended in
+        TokenBuffer buffer = new TokenBuffer(chunk != null ? chunk : source);
+        engine.setGenerator(buffer);
+        while (buffer.firstToken() == null) {
+            if (!engine.advance()) {
+                return false;
+            }
+        }
+        chunk = buffer.asParser(source.getCodec());
+        delegate = chunk;
+        return true;
+    }
+
+    @Override
+    public JsonToken nextValue() throws IOException {
+        JsonToken token = nextToken();
+        if (token == JsonToken.FIELD_NAME) {
+            token = nextToken();
+        }
+        return token;
+    }
+
+    @Override
+    public JsonParser skipChildren() throws IOException {
+        JsonToken token = currentToken();
+        if (token != JsonToken.START_OBJECT && token != JsonToken.START_ARRAY) {
+            return this;
+        }
+        int open = 1;
+        while (open > 0) {
+            token = nextToken();
+            if (token == null) {
+                break;
+            } else if (token.isStructStart()) {
+                open++;
+            } else if (token.isStructEnd()) {
+                open--;
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return source.isClosed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (chunk != null) {
+            chunk.close();
+        }
+        source.close();
+    }
+}
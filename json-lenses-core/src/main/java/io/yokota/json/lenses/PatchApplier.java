@@ -0,0 +1,248 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.util.Arrays;
+
+/**
+ * Applies patch ops in place to a document, with the semantics of
+ * {@code JsonPatch.apply}.
+ *
+ * <p>The containers along the parent path of the last op are kept on a cursor
+ * stack, and the parent of each next op is resolved from the deepest of them
+ * that the two paths have in common. For a patch in document order, such as
+ * the output of a lens, each op then takes only a step or two down from the
+ * cursor, rather than a walk from the root. When the order breaks, the shared
+ * prefix is shorter, down to the root for unrelated paths. An op only changes
+ * the children of its parent, so the containers above it stay on the stack.
+ * The document is changed as each op is applied, so a failed op leaves the
+ * ops before it applied. The values of the ops are copied, as they are by
+ * {@code JsonPatch.apply}, unless they are owned by the caller, in which case
+ * they are written as is. The ops of a lens may also add a wrapped value at
+ * index 0 of a missing property, which then creates the array.
+ */
+final class PatchApplier {
+
+    private final boolean owned;
+    private final boolean lensed;
+    private JsonNode root;
+    private String[] segments = new String[8];
+    private JsonNode[] nodes = new JsonNode[9];
+    private int depth;
+
+    PatchApplier(JsonNode root, boolean owned, boolean lensed) {
+        this.owned = owned;
+        this.lensed = lensed;
+        this.root = root;
+        this.nodes[0] = root;
+    }
+
+    JsonNode getOutput() {
+        return root;
+    }
+
+    void apply(PatchOp patchOp) {
+        String[] path = patchOp.path();
+        switch (patchOp.getOp()) {
+            case ADD:
+                if (lensed && path.length >= 2 && path[path.length - 1].equals("0")) {
+                    JsonNode parent = get(Arrays.copyOf(path, path.length - 2));
+                    if (TreeEngine.wraps(parent, patchOp)) {
+                        ((ObjectNode) parent).putArray(path[path.length - 2]);
+                    }
+                }
+                add(path, value(patchOp));
+                break;
+            case REMOVE:
+                remove(path);
+                break;
+            case REPLACE:
+                replace(path, value(patchOp));
+                break;
+            case MOVE: {
+                String[] from = patchOp.from();
+                JsonNode value = get(from);
+                remove(from);
+                add(path, value);
+                break;
+            }
+            case COPY:
+                add(path, Jackson.deepCopy(get(patchOp.from())));
+                break;
+            case TEST:
+                if (!get(path).equals(patchOp.getValue())) {
+                    throw new IllegalArgumentException("Test failed at "
+                        + TreeEngine.pointer(path, path.length));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported patch op " + patchOp.getOp().getName());
+        }
+    }
+
+    private JsonNode value(PatchOp patchOp) {
+        JsonNode value = patchOp.getValue();
+        if (value == null) {
+            throw new IllegalArgumentException("Missing value for " + patchOp.getOp().getName()
+                + " at " + TreeEngine.pointer(patchOp.path(), patchOp.size()));
+        }
+        return owned || !value.isContainerNode() ? value : Jackson.deepCopy(value);
+    }
+
+    private void add(String[] path, JsonNode value) {
+        if (path.length == 0) {
+            setRoot(value);
+            return;
+        }
+        JsonNode parent = parent(path);
+        String last = path[path.length - 1];
+        if (parent.isObject()) {
+            ((ObjectNode) parent).set(last, value);
+        } else if (parent.isArray()) {
+            ArrayNode arr = (ArrayNode) parent;
+            if (last.equals("-")) {
+                arr.add(value);
+            } else {
+                arr.insert(index(path, arr, true), value);
+            }
+        } else {
+            throw notContainer(path);
+        }
+    }
+
+    private void replace(String[] path, JsonNode value) {
+        if (path.length == 0) {
+            setRoot(value);
+            return;
+        }
+        JsonNode parent = parent(path);
+        String last = path[path.length - 1];
+        if (parent.isObject()) {
+            ObjectNode obj = (ObjectNode) parent;
+            if (!obj.has(last)) {
+                throw missing(path, path.length - 1);
+            }
+            obj.set(last, value);
+        } else if (parent.isArray()) {
+            ArrayNode arr = (ArrayNode) parent;
+            arr.set(index(path, arr, false), value);
+        } else {
+            throw notContainer(path);
+        }
+    }
+
+    private void remove(String[] path) {
+        if (path.length == 0) {
+            throw new IllegalArgumentException("Cannot remove the root");
+        }
+        JsonNode parent = parent(path);
+        String last = path[path.length - 1];
+        // as with JsonPatch.apply, removing a missing field is not an error,
+        // nor is removing the element past the end of an array
+        if (parent.isObject()) {
+            ((ObjectNode) parent).remove(last);
+        } else if (parent.isArray()) {
+            ArrayNode arr = (ArrayNode) parent;
+            if (!last.equals("-")) {
+                arr.remove(index(path, arr, false));
+            }
+        } else {
+            throw notContainer(path);
+        }
+    }
+
+    private JsonNode get(String[] path) {
+        if (path.length == 0) {
+            return root;
+        }
+        JsonNode parent = parent(path);
+        return child(parent, path, path.length - 1);
+    }
+
+    private void setRoot(JsonNode value) {
+        root = value;
+        nodes[0] = value;
+        depth = 0;
+    }
+
+    /**
+     * Returns the parent of the node at {@code path}, and leaves the cursor on
+     * the path of the parent.
+     */
+    private JsonNode parent(String[] path) {
+        int length = path.length - 1;
+        int shared = 0;
+        int max = Math.min(depth, length);
+        while (shared < max && segments[shared].equals(path[shared])) {
+            shared++;
+        }
+        if (length > segments.length) {
+            int capacity = Math.max(length, segments.length * 2);
+            segments = Arrays.copyOf(segments, capacity);
+            nodes = Arrays.copyOf(nodes, capacity + 1);
+        }
+        JsonNode node = nodes[shared];
+        for (int i = shared; i < length; i++) {
+            node = child(node, path, i);
+            segments[i] = path[i];
+            nodes[i + 1] = node;
+        }
+        depth = length;
+        return node;
+    }
+
+    private JsonNode child(JsonNode parent, String[] path, int i) {
+        JsonNode child;
+        if (parent.isObject()) {
+            child = parent.get(path[i]);
+        } else if (parent.isArray()) {
+            child = parent.get(index(path, i, parent.size(), false));
+        } else {
+            // the cursor is left on the part of the path that was resolved
+            depth = Math.min(depth, i);
+            throw notContainer(path, i);
+        }
+        if (child == null) {
+            depth = Math.min(depth, i);
+            throw missing(path, i);
+        }
+        return child;
+    }
+
+    private int index(String[] path, ArrayNode arr, boolean add) {
+        return index(path, path.length - 1, arr.size(), add);
+    }
+
+    private int index(String[] path, int i, int size, boolean add) {
+        String segment = path[i];
+        int index;
+        try {
+            index = PatchOp.isArrayIndex(segment) ? Integer.parseInt(segment) : -1;
+        } catch (NumberFormatException e) {
+            index = -1;
+        }
+        if (index < 0 || index > size || (index == size && !add)) {
+            depth = Math.min(depth, i);
+            throw new IllegalArgumentException("Array index " + segment + " out of bounds at "
+                + TreeEngine.pointer(path, i));
+        }
+        return index;
+    }
+
+    private static IllegalArgumentException missing(String[] path, int i) {
+        return new IllegalArgumentException("Missing field \"" + path[i] + "\" at "
+            + TreeEngine.pointer(path, i));
+    }
+
+    private static IllegalArgumentException notContainer(String[] path) {
+        return notContainer(path, path.length - 1);
+    }
+
+    private static IllegalArgumentException notContainer(String[] path, int i) {
+        return new IllegalArgumentException("Parent is not a container at "
+            + TreeEngine.pointer(path, i));
+    }
+}
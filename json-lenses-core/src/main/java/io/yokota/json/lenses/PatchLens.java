@@ -0,0 +1,34 @@
+package io.yokota.json.lenses;
+
+import io.yokota.json.lenses.ops.LensOp;
+
+import java.util.List;
+
+/**
+ * A lens prepared for applying to one patch op at a time.
+ *
+ * <p>{@link LensIndex} interprets the ops of the lens, and
+ * {@link SpecializedLens} runs them as a tree of transformers built for the
+ * lens. Both give the same result as
+ * {@link JsonLenses#applyLensToPatchOp(List, PatchOp)}, and both are immutable.
+ */
+interface PatchLens {
+
+    /**
+     * Applies the lens to a patch op, returning null if the lens drops it.
+     */
+    PatchOp apply(PatchOp patchOp);
+
+    /**
+     * Returns the path to which the lens moves every write at or below
+     * {@code path}, leaving the written values and the rest of their paths as
+     * they are, or null if the lens may do anything else with them. A value
+     * written at the path can then be copied whole to the returned path.
+     */
+    String[] relocate(String[] path);
+
+    /**
+     * Returns the ops of the lens.
+     */
+    List<LensOp> getOps();
+}
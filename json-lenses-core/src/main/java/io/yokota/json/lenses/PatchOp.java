@@ -0,0 +1,299 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * A single JSON Patch operation, with its path split into unescaped segments.
+ *
+ * <p>This is the form in which lens ops see patch operations. Instances are
+ * immutable: rewriting the path returns a new instance that shares the value
+ * node with the original, so neither the value nor the path string is ever
+ * copied or re-parsed. Conversion to and from JSON happens only at the edges
+ * of the public API.
+ *
+ * <p>The public constructors and getters copy the path arrays. Within this
+ * package, lenses share them through {@link #of} and {@link #path()}
+ * instead, and never modify them.
+ */
+public final class PatchOp {
+
+    public enum Op {
+        ADD("add"),
+        REMOVE("remove"),
+        REPLACE("replace"),
+        MOVE("move"),
+        COPY("copy"),
+        TEST("test");
+
+        private final String name;
+
+        Op(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public static Op of(String name) {
+            for (Op op : values()) {
+                if (op.name.equals(name)) {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("Unsupported patch op " + name);
+        }
+    }
+
+    private static final String[] ROOT = new String[0];
+
+    private final Op op;
+    private final String[] from;
+    private final String[] path;
+    private final JsonNode value;
+
+    public PatchOp(Op op, String[] path, JsonNode value) {
+        this(op, null, path, value);
+    }
+
+    /**
+     * Creates an op with the given source path of a move or copy.
+     */
+    public PatchOp(Op op, String[] from, String[] path, JsonNode value) {
+        this(op, from != null ? from.clone() : null, path.clone(), value, true);
+    }
+
+    private PatchOp(Op op, String[] from, String[] path, JsonNode value, boolean shared) {
+        this.op = Objects.requireNonNull(op);
+        this.from = from;
+        this.path = Objects.requireNonNull(path);
+        this.value = value;
+    }
+
+    /**
+     * Creates an op that shares the given path arrays, which must not be
+     * modified afterwards.
+     */
+    static PatchOp of(Op op, String[] from, String[] path, JsonNode value) {
+        return new PatchOp(op, from, path, value, true);
+    }
+
+    static PatchOp of(Op op, String[] path, JsonNode value) {
+        return new PatchOp(op, null, path, value, true);
+    }
+
+    public Op getOp() {
+        return op;
+    }
+
+    /**
+     * Returns whether this op writes its value, i.e. is an add or a replace.
+     */
+    public boolean isWrite() {
+        return op == Op.ADD || op == Op.REPLACE;
+    }
+
+    /**
+     * Returns the source path of a move or copy, or null.
+     */
+    public String[] getFrom() {
+        return from != null ? from.clone() : null;
+    }
+
+    /**
+     * Returns the path segments.
+     */
+    public String[] getPath() {
+        return path.clone();
+    }
+
+    /**
+     * Returns the source path without copying it. The array must not be modified.
+     */
+    String[] from() {
+        return from;
+    }
+
+    /**
+     * Returns the path segments without copying them. The array must not be modified.
+     */
+    String[] path() {
+        return path;
+    }
+
+    public int size() {
+        return path.length;
+    }
+
+    public String segment(int i) {
+        return path[i];
+    }
+
+    /**
+     * Returns whether the path has at least {@code i + 1} segments and the
+     * segment at {@code i} is {@code name}.
+     */
+    public boolean segmentEquals(int i, String name) {
+        return i < path.length && path[i].equals(name);
+    }
+
+    public JsonNode getValue() {
+        return value;
+    }
+
+    public PatchOp withPath(String[] newPath) {
+        return of(op, from, newPath.clone(), value);
+    }
+
+    public PatchOp withValue(JsonNode newValue) {
+        return of(op, from, path, newValue);
+    }
+
+    /**
+     * Returns this op with its first {@code count} segments replaced by {@code head}.
+     */
+    public PatchOp withHead(String head, int count) {
+        String[] result = new String[path.length - count + 1];
+        result[0] = head;
+        System.arraycopy(path, count, result, 1, path.length - count);
+        return of(op, from, result, value);
+    }
+
+    /**
+     * Returns this op with its first {@code count} segments removed.
+     */
+    public PatchOp tail(int count) {
+        return of(op, from, Arrays.copyOfRange(path, count, path.length), value);
+    }
+
+    /**
+     * Returns this op with {@code segment} inserted at {@code index}.
+     */
+    public PatchOp insert(int index, String segment) {
+        String[] result = new String[path.length + 1];
+        System.arraycopy(path, 0, result, 0, index);
+        result[index] = segment;
+        System.arraycopy(path, index, result, index + 1, path.length - index);
+        return of(op, from, result, value);
+    }
+
+    /**
+     * Returns this op with {@code segment} appended to the path.
+     */
+    public PatchOp child(String segment, JsonNode childValue) {
+        String[] result = Arrays.copyOf(path, path.length + 1);
+        result[path.length] = segment;
+        return of(op, from, result, childValue);
+    }
+
+    public static boolean isArrayIndex(String segment) {
+        if (segment.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public static PatchOp fromJson(JsonNode patchOp) {
+        JsonNode op = patchOp.get("op");
+        JsonNode path = patchOp.get("path");
+        if (op == null || path == null) {
+            throw new IllegalArgumentException("Invalid patch op " + patchOp);
+        }
+        JsonNode from = patchOp.get("from");
+        return of(Op.of(op.textValue()),
+            from != null ? parsePointer(from.textValue()) : null,
+            parsePointer(path.textValue()),
+            patchOp.get("value"));
+    }
+
+    public ObjectNode toJson() {
+        ObjectNode node = JsonNodeFactory.instance.objectNode();
+        node.put("op", op.getName());
+        if (from != null) {
+            node.put("from", toPointer(from));
+        }
+        node.put("path", toPointer(path));
+        if (value != null) {
+            node.set("value", value);
+        }
+        return node;
+    }
+
+    public static String[] parsePointer(String pointer) {
+        if (pointer.isEmpty()) {
+            return ROOT;
+        }
+        if (pointer.charAt(0) != '/') {
+            throw new IllegalArgumentException("Invalid JSON pointer " + pointer);
+        }
+        List<String> segments = new ArrayList<>();
+        int start = 1;
+        while (true) {
+            int end = pointer.indexOf('/', start);
+            String segment = pointer.substring(start, end < 0 ? pointer.length() : end);
+            segments.add(unescape(segment));
+            if (end < 0) {
+                break;
+            }
+            start = end + 1;
+        }
+        return segments.toArray(ROOT);
+    }
+
+    public static String toPointer(String[] path) {
+        StringBuilder sb = new StringBuilder();
+        for (String segment : path) {
+            sb.append('/');
+            if (segment.indexOf('~') < 0 && segment.indexOf('/') < 0) {
+                sb.append(segment);
+            } else {
+                sb.append(segment.replace("~", "~0").replace("/", "~1"));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String unescape(String segment) {
+        if (segment.indexOf('~') < 0) {
+            return segment;
+        }
+        return segment.replace("~1", "/").replace("~0", "~");
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        PatchOp that = (PatchOp) o;
+        return op == that.op
+            && Arrays.equals(from, that.from)
+            && Arrays.equals(path, that.path)
+            && Objects.equals(value, that.value);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Objects.hash(op, value);
+        result = 31 * result + Arrays.hashCode(from);
+        result = 31 * result + Arrays.hashCode(path);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return toJson().toString();
+    }
+}
@@ -0,0 +1,346 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.Convert;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a lens to a JSON Schema, and uses a schema to drop the ops of a
+ * lens that no valid document can reach.
+ *
+ * <p>Only the keywords that describe where properties are, namely
+ * {@code properties}, {@code required}, {@code items} and
+ * {@code additionalProperties}, are rewritten. The schemas of the properties
+ * that a lens adds or converts are described by {@code type}, {@code default}
+ * and {@code enum}, and other keywords are carried along unchanged.
+ */
+final class SchemaEngine {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    // The keywords of an object schema whose properties are all known
+    private static final Set<String> CLOSED_KEYWORDS = Set.of(
+        "$schema", "$id", "$comment", "title", "description", "default", "examples",
+        "type", "properties", "required", "additionalProperties");
+
+    private SchemaEngine() {
+    }
+
+    /**
+     * Returns the schema of the documents that the lens produces from
+     * documents valid against {@code schema}.
+     *
+     * @throws IllegalArgumentException if the lens has an op that cannot be
+     *     applied to a schema
+     */
+    static JsonNode apply(List<LensOp> lens, JsonNode schema) {
+        JsonNode result = schema.deepCopy();
+        for (LensOp op : lens) {
+            if (!isSupported(op)) {
+                throw new IllegalArgumentException("Unsupported lens op for schema " + op.getClass().getName());
+            }
+            result = transform(op, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the lens without the ops that are keyed on a property that
+     * cannot be present, at the point of the op, in a document valid against
+     * {@code schema}. The result lenses such documents the same way as the
+     * lens, and ops that cannot be applied to a schema are kept, as are the
+     * ops after them.
+     */
+    static List<LensOp> prune(List<LensOp> lens, JsonNode schema) {
+        List<LensOp> result = new ArrayList<>(lens.size());
+        ObjectNode current = schema != null && schema.isObject() ? schema.deepCopy() : null;
+        for (LensOp op : lens) {
+            if (current == null || !isSupported(op)) {
+                result.add(op);
+                current = null;
+                continue;
+            }
+            if (isUnreachable(op, current)) {
+                continue;
+            }
+            if (op instanceof LensIn) {
+                String name = ((LensIn) op).getName();
+                op = new LensIn(name, prune(((LensIn) op).getLens(), propertySchema(current, name)));
+            } else if (op instanceof LensMap) {
+                op = new LensMap(prune(((LensMap) op).getLens(), current.get("items")));
+            } else if (op instanceof ConvertValue) {
+                // the values are looked up by the type of the property, if it has one
+                JsonNode property = propertySchema(current, ((ConvertValue) op).getName());
+                JsonNode type = property != null ? property.get("type") : null;
+                if (type != null && type.isTextual()) {
+                    op = ((ConvertValue) op).withKeyType(type.textValue());
+                }
+            }
+            result.add(op);
+            current = (ObjectNode) transform(op, current);
+        }
+        return result;
+    }
+
+    private static boolean isSupported(LensOp op) {
+        Class<?> type = op.getClass();
+        return type == AddProperty.class || type == RemoveProperty.class || type == RenameProperty.class
+            || type == HoistProperty.class || type == PlungeProperty.class || type == WrapProperty.class
+            || type == HeadProperty.class || type == LensIn.class || type == LensMap.class
+            || type == ConvertValue.class;
+    }
+
+    private static boolean isUnreachable(LensOp op, ObjectNode schema) {
+        if (op instanceof RemoveProperty) {
+            return !mayHave(schema, ((RemoveProperty) op).getName());
+        } else if (op instanceof RenameProperty) {
+            return !mayHave(schema, ((RenameProperty) op).getSource());
+        } else if (op instanceof HoistProperty) {
+            HoistProperty hoist = (HoistProperty) op;
+            JsonNode host = propertySchema(schema, hoist.getHost());
+            return !mayHave(schema, hoist.getHost())
+                || host != null && host.isObject() && !mayHave((ObjectNode) host, hoist.getName());
+        } else if (op instanceof PlungeProperty) {
+            return !mayHave(schema, ((PlungeProperty) op).getName());
+        } else if (op instanceof WrapProperty) {
+            return !mayHave(schema, ((WrapProperty) op).getName());
+        } else if (op instanceof HeadProperty) {
+            return !mayHave(schema, ((HeadProperty) op).getName());
+        } else if (op instanceof LensIn) {
+            return !mayHave(schema, ((LensIn) op).getName());
+        } else if (op instanceof ConvertValue) {
+            return !mayHave(schema, ((ConvertValue) op).getName());
+        }
+        return false;
+    }
+
+    // Only a schema that lists all of its properties rules any out
+    private static boolean mayHave(ObjectNode schema, String name) {
+        if (schema.has("properties") && schema.get("properties").has(name)) {
+            return true;
+        }
+        JsonNode additional = schema.get("additionalProperties");
+        if (additional == null || !additional.isBoolean() || additional.booleanValue()) {
+            return true;
+        }
+        for (Iterator<String> it = schema.fieldNames(); it.hasNext(); ) {
+            if (!CLOSED_KEYWORDS.contains(it.next())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The schema of the given property, or null if it is not known
+    private static JsonNode propertySchema(JsonNode schema, String name) {
+        JsonNode properties = schema.get("properties");
+        JsonNode property = properties != null ? properties.get(name) : null;
+        if (property == null) {
+            // copied, as the property is rewritten on its own
+            JsonNode additional = schema.get("additionalProperties");
+            property = additional != null && additional.isObject() ? additional.deepCopy() : null;
+        }
+        return property;
+    }
+
+    private static JsonNode transform(LensOp op, JsonNode schema) {
+        if (!schema.isObject()) {
+            // a boolean schema allows or forbids everything, whatever the lens does
+            return schema;
+        }
+        ObjectNode result = (ObjectNode) schema;
+        if (op instanceof AddProperty) {
+            AddProperty add = (AddProperty) op;
+            properties(result).set(add.getName(), valueSchema(add.getDefaultValue()));
+        } else if (op instanceof RemoveProperty) {
+            String name = ((RemoveProperty) op).getName();
+            removeProperty(result, name);
+        } else if (op instanceof RenameProperty) {
+            RenameProperty rename = (RenameProperty) op;
+            if (!mayHave(result, rename.getSource())) {
+                return result;
+            }
+            boolean required = isRequired(result, rename.getSource());
+            JsonNode property = removeProperty(result, rename.getSource());
+            properties(result).set(rename.getTarget(), property != null ? property : NODES.objectNode());
+            if (required) {
+                addRequired(result, rename.getTarget());
+            }
+        } else if (op instanceof HoistProperty) {
+            HoistProperty hoist = (HoistProperty) op;
+            JsonNode host = propertySchema(result, hoist.getHost());
+            if (!mayHave(result, hoist.getHost())) {
+                return result;
+            } else if (host == null || !host.isObject()) {
+                properties(result).set(hoist.getName(), NODES.objectNode());
+            } else if (mayHave((ObjectNode) host, hoist.getName())) {
+                ObjectNode hostSchema = (ObjectNode) host;
+                boolean required = isRequired(result, hoist.getHost()) & isRequired(hostSchema, hoist.getName());
+                JsonNode property = removeProperty(hostSchema, hoist.getName());
+                properties(result).set(hoist.getName(), property != null ? property : NODES.objectNode());
+                if (required) {
+                    addRequired(result, hoist.getName());
+                }
+            }
+        } else if (op instanceof PlungeProperty) {
+            PlungeProperty plunge = (PlungeProperty) op;
+            if (!mayHave(result, plunge.getName())) {
+                return result;
+            }
+            boolean required = isRequired(result, plunge.getName());
+            JsonNode property = removeProperty(result, plunge.getName());
+            if (property == null) {
+                property = NODES.objectNode();
+            }
+            JsonNode host = propertySchema(result, plunge.getHost());
+            ObjectNode hostSchema = host != null && host.isObject()
+                ? (ObjectNode) host
+                : NODES.objectNode().put("type", "object");
+            properties(hostSchema).set(plunge.getName(), property);
+            if (required) {
+                addRequired(hostSchema, plunge.getName());
+            }
+            properties(result).set(plunge.getHost(), hostSchema);
+        } else if (op instanceof WrapProperty) {
+            String name = ((WrapProperty) op).getName();
+            JsonNode property = propertySchema(result, name);
+            if (property != null) {
+                ObjectNode array = NODES.objectNode().put("type", "array");
+                array.set("items", property);
+                properties(result).set(name, array);
+            }
+        } else if (op instanceof HeadProperty) {
+            String name = ((HeadProperty) op).getName();
+            JsonNode property = propertySchema(result, name);
+            if (property != null) {
+                JsonNode items = property.get("items");
+                ObjectNode head = NODES.objectNode();
+                head.putArray("anyOf")
+                    .add(items != null ? items : NODES.objectNode())
+                    .add(NODES.objectNode().put("type", "null"));
+                properties(result).set(name, head);
+            }
+        } else if (op instanceof LensIn) {
+            LensIn in = (LensIn) op;
+            JsonNode property = propertySchema(result, in.getName());
+            if (property != null) {
+                for (LensOp child : in.getLens()) {
+                    property = transform(child, property);
+                }
+                properties(result).set(in.getName(), property);
+            }
+        } else if (op instanceof LensMap) {
+            JsonNode items = result.get("items");
+            if (items != null) {
+                for (LensOp child : ((LensMap) op).getLens()) {
+                    items = transform(child, items);
+                }
+                result.set("items", items);
+            }
+        } else if (op instanceof ConvertValue) {
+            ConvertValue convert = (ConvertValue) op;
+            if (propertySchema(result, convert.getName()) != null) {
+                ObjectNode property = NODES.objectNode();
+                ArrayNode values = property.putArray("enum");
+                for (Map.Entry<Object, Object> entry : convert.getMapping().getForward().entrySet()) {
+                    values.add(Convert.valueToJsonNode(entry.getValue()));
+                }
+                properties(result).set(convert.getName(), property);
+            }
+        }
+        return result;
+    }
+
+    private static ObjectNode valueSchema(Object value) {
+        ObjectNode result = NODES.objectNode();
+        if (value == null) {
+            return result;
+        }
+        JsonNode node = Convert.valueToJsonNode(value);
+        switch (node.getNodeType()) {
+            case OBJECT:
+                result.put("type", "object");
+                break;
+            case ARRAY:
+                result.put("type", "array");
+                break;
+            case NUMBER:
+                result.put("type", node.isIntegralNumber() ? "integer" : "number");
+                break;
+            case BOOLEAN:
+                result.put("type", "boolean");
+                break;
+            default:
+                result.put("type", "string");
+                break;
+        }
+        result.set("default", node);
+        return result;
+    }
+
+    private static ObjectNode properties(ObjectNode schema) {
+        JsonNode properties = schema.get("properties");
+        return properties != null && properties.isObject() ? (ObjectNode) properties : schema.putObject("properties");
+    }
+
+    private static JsonNode removeProperty(ObjectNode schema, String name) {
+        JsonNode property = propertySchema(schema, name);
+        JsonNode properties = schema.get("properties");
+        if (properties != null && properties.isObject()) {
+            ((ObjectNode) properties).remove(name);
+        }
+        removeRequired(schema, name);
+        return property;
+    }
+
+    private static boolean isRequired(JsonNode schema, String name) {
+        JsonNode required = schema.get("required");
+        if (required != null && required.isArray()) {
+            for (JsonNode node : required) {
+                if (node.asText().equals(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean removeRequired(ObjectNode schema, String name) {
+        JsonNode required = schema.get("required");
+        if (required != null && required.isArray()) {
+            for (Iterator<JsonNode> it = required.elements(); it.hasNext(); ) {
+                if (it.next().asText().equals(name)) {
+                    it.remove();
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static void addRequired(ObjectNode schema, String name) {
+        if (!isRequired(schema, name)) {
+            JsonNode required = schema.get("required");
+            (required != null && required.isArray() ? (ArrayNode) required : schema.putArray("required")).add(name);
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.ValueTable;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A lens turned into a tree of transformers, one per op and first path
+ * segment, that are linked to each other when the lens is built.
+ *
+ * <p>Like {@link LensIndex}, this relies on every built-in op other than
+ * {@code map} acting only on paths that start with one name. It goes further
+ * by also using what each op leaves as the first segment: a rename leaves its
+ * target, a plunge its host, a hoist that applies its name, and the other ops
+ * the segment they were given. So for every name of a lens, and every position
+ * in it, the transformer that comes next is known in advance, and applying the
+ * lens looks up the first segment only once per nested lens, then follows
+ * links. Each transformer holds its op under its exact type, and a convert
+ * holds its mapping with the values already turned into nodes.
+ *
+ * <p>Ops of other types, including subclasses of the built-in ops, are
+ * interpreted: they are applied through {@link LensOp#apply(PatchOp)} and the
+ * transformer that follows them is looked up from the segment they leave.
+ */
+final class SpecializedLens implements PatchLens {
+
+    private final List<LensOp> lens;
+    private final Level root;
+    private final LensIndex index;
+
+    SpecializedLens(List<LensOp> lens) {
+        this.lens = lens;
+        this.root = new Level(lens);
+        this.index = new LensIndex(lens);
+    }
+
+    @Override
+    public List<LensOp> getOps() {
+        return lens;
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        return JsonLenses.applyWithFrom(patchOp, op -> root.apply(op, 0));
+    }
+
+    @Override
+    public String[] relocate(String[] path) {
+        return index.relocate(path);
+    }
+
+    /**
+     * The transformers of one list of ops. For each first segment, and each
+     * position in the list, {@code start} holds the transformer for the first
+     * op at or after that position that may change a patch op whose path
+     * starts with that segment.
+     */
+    private static final class Level {
+        private final Map<String, Transformer[]> named = new HashMap<>();
+        private final Transformer[] index;
+        private final Transformer[] other;
+        private final Transformer[] root;
+
+        Level(List<LensOp> lens) {
+            LensOp[] ops = lens.toArray(new LensOp[0]);
+            Level[] bodies = new Level[ops.length];
+            Set<String> names = new HashSet<>();
+            for (int i = 0; i < ops.length; i++) {
+                LensOp op = ops[i];
+                if (op.getClass() == LensIn.class) {
+                    bodies[i] = new Level(((LensIn) op).getLens());
+                } else if (op.getClass() == LensMap.class) {
+                    bodies[i] = new Level(((LensMap) op).getLens());
+                }
+                names.addAll(names(op));
+            }
+            int size = ops.length + 1;
+            for (String name : names) {
+                named.put(name, new Transformer[size]);
+            }
+            this.index = new Transformer[size];
+            this.other = new Transformer[size];
+            this.root = new Transformer[size];
+            named.values().forEach(start -> start[ops.length] = Transformer.END);
+            index[ops.length] = Transformer.END;
+            other[ops.length] = Transformer.END;
+            root[ops.length] = Transformer.END;
+            // built backwards, so the transformers that come next already exist
+            for (int i = ops.length - 1; i >= 0; i--) {
+                for (Map.Entry<String, Transformer[]> entry : named.entrySet()) {
+                    String name = entry.getKey();
+                    link(entry.getValue(), i, ops[i], bodies[i], name, PatchOp.isArrayIndex(name));
+                }
+                link(index, i, ops[i], bodies[i], null, true);
+                link(other, i, ops[i], bodies[i], null, false);
+                root[i] = isInterpreted(ops[i]) ? new Interpreted(ops[i], this, i + 1) : root[i + 1];
+            }
+        }
+
+        /**
+         * Returns the names that an op may be keyed on or may leave as the
+         * first segment.
+         */
+        private static Set<String> names(LensOp op) {
+            Set<String> result = new HashSet<>();
+            if (op.getClass() == RenameProperty.class) {
+                result.add(((RenameProperty) op).getSource());
+                result.add(((RenameProperty) op).getTarget());
+            } else if (op.getClass() == RemoveProperty.class) {
+                result.add(((RemoveProperty) op).getName());
+            } else if (op.getClass() == ConvertValue.class) {
+                result.add(((ConvertValue) op).getName());
+            } else if (op.getClass() == HeadProperty.class) {
+                result.add(((HeadProperty) op).getName());
+            } else if (op.getClass() == WrapProperty.class) {
+                result.add(((WrapProperty) op).getName());
+            } else if (op.getClass() == HoistProperty.class) {
+                result.add(((HoistProperty) op).getHost());
+                result.add(((HoistProperty) op).getName());
+            } else if (op.getClass() == PlungeProperty.class) {
+                result.add(((PlungeProperty) op).getHost());
+                result.add(((PlungeProperty) op).getName());
+            } else if (op.getClass() == LensIn.class) {
+                result.add(((LensIn) op).getName());
+            }
+            return result;
+        }
+
+        private static boolean isInterpreted(LensOp op) {
+            Class<?> type = op.getClass();
+            return type != AddProperty.class && type != RenameProperty.class
+                && type != RemoveProperty.class && type != ConvertValue.class
+                && type != HeadProperty.class && type != WrapProperty.class
+                && type != HoistProperty.class && type != PlungeProperty.class
+                && type != LensIn.class && type != LensMap.class;
+        }
+
+        /**
+         * Sets {@code start[i]} for paths whose first segment is {@code name},
+         * or is some other array index or other name if {@code name} is null.
+         */
+        private void link(Transformer[] start, int i, LensOp op, Level body, String name, boolean isIndex) {
+            Transformer next = start[i + 1];
+            Class<?> type = op.getClass();
+            Transformer result = next;
+            if (isInterpreted(op)) {
+                result = new Interpreted(op, this, i + 1);
+            } else if (type == LensMap.class) {
+                if (isIndex) {
+                    result = new MapTransformer(body, next);
+                }
+            } else if (name == null) {
+                // every other op is keyed on a name of this level
+                result = next;
+            } else if (type == RenameProperty.class) {
+                RenameProperty rename = (RenameProperty) op;
+                if (name.equals(rename.getSource())) {
+                    result = new Rename(rename, named.get(rename.getTarget())[i + 1]);
+                }
+            } else if (type == RemoveProperty.class) {
+                if (name.equals(((RemoveProperty) op).getName())) {
+                    result = Transformer.DROP;
+                }
+            } else if (type == ConvertValue.class) {
+                if (name.equals(((ConvertValue) op).getName())) {
+                    result = new Converter((ConvertValue) op, next);
+                }
+            } else if (type == HeadProperty.class) {
+                if (name.equals(((HeadProperty) op).getName())) {
+                    result = new Head((HeadProperty) op, next);
+                }
+            } else if (type == WrapProperty.class) {
+                if (name.equals(((WrapProperty) op).getName())) {
+                    result = new Wrap((WrapProperty) op, next);
+                }
+            } else if (type == HoistProperty.class) {
+                HoistProperty hoist = (HoistProperty) op;
+                if (name.equals(hoist.getHost())) {
+                    result = new Hoist(hoist, named.get(hoist.getName())[i + 1], next);
+                }
+            } else if (type == PlungeProperty.class) {
+                PlungeProperty plunge = (PlungeProperty) op;
+                if (name.equals(plunge.getName())) {
+                    result = new Plunge(plunge, named.get(plunge.getHost())[i + 1]);
+                }
+            } else if (type == LensIn.class) {
+                if (name.equals(((LensIn) op).getName())) {
+                    result = new In(name, body, next);
+                }
+            }
+            start[i] = result;
+        }
+
+        PatchOp apply(PatchOp patchOp, int from) {
+            return start(patchOp, from).apply(patchOp);
+        }
+
+        private Transformer start(PatchOp patchOp, int from) {
+            if (patchOp.size() == 0) {
+                return root[from];
+            }
+            String head = patchOp.segment(0);
+            Transformer[] start = named.get(head);
+            if (start == null) {
+                start = PatchOp.isArrayIndex(head) ? index : other;
+            }
+            return start[from];
+        }
+    }
+
+    private abstract static class Transformer {
+        static final Transformer END = new Transformer() {
+            @Override
+            PatchOp apply(PatchOp patchOp) {
+                return patchOp;
+            }
+        };
+
+        static final Transformer DROP = new Transformer() {
+            @Override
+            PatchOp apply(PatchOp patchOp) {
+                return null;
+            }
+        };
+
+        abstract PatchOp apply(PatchOp patchOp);
+    }
+
+    private static final class Rename extends Transformer {
+        private final RenameProperty op;
+        private final Transformer next;
+
+        Rename(RenameProperty op, Transformer next) {
+            this.op = op;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            return next.apply(patchOp.withHead(op.getTarget(), 1));
+        }
+    }
+
+    private static final class Converter extends Transformer {
+        private final ConvertValue op;
+        private final ValueTable forward;
+        private final Transformer next;
+
+        Converter(ConvertValue op, Transformer next) {
+            this.op = op;
+            this.forward = op.getForwardTable();
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            if (!patchOp.isWrite() || patchOp.size() != 1) {
+                return next.apply(patchOp);
+            }
+            JsonNode converted = forward.get(patchOp.getValue());
+            if (converted == null) {
+                // the same error as the op itself
+                return next.apply(op.apply(patchOp));
+            }
+            return next.apply(patchOp.withValue(converted));
+        }
+    }
+
+    private static final class Head extends Transformer {
+        private final HeadProperty op;
+        private final Transformer next;
+
+        Head(HeadProperty op, Transformer next) {
+            this.op = op;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            PatchOp result = op.apply(patchOp);
+            return result != null ? next.apply(result) : null;
+        }
+    }
+
+    private static final class Wrap extends Transformer {
+        private final WrapProperty op;
+        private final Transformer next;
+
+        Wrap(WrapProperty op, Transformer next) {
+            this.op = op;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            return next.apply(op.apply(patchOp));
+        }
+    }
+
+    private static final class Hoist extends Transformer {
+        private final String name;
+        private final Transformer hoisted;
+        private final Transformer next;
+
+        Hoist(HoistProperty op, Transformer hoisted, Transformer next) {
+            this.name = op.getName();
+            this.hoisted = hoisted;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            if (patchOp.segmentEquals(1, name)) {
+                return hoisted.apply(patchOp.tail(1));
+            }
+            return next.apply(patchOp);
+        }
+    }
+
+    private static final class Plunge extends Transformer {
+        private final String host;
+        private final Transformer next;
+
+        Plunge(PlungeProperty op, Transformer next) {
+            this.host = op.getHost();
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            return next.apply(patchOp.withHead(host, 0));
+        }
+    }
+
+    private static final class In extends Transformer {
+        private final String name;
+        private final Level body;
+        private final Transformer next;
+
+        In(String name, Level body, Transformer next) {
+            this.name = name;
+            this.body = body;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            PatchOp childPatch = body.apply(patchOp.tail(1), 0);
+            return childPatch != null ? next.apply(childPatch.withHead(name, 0)) : null;
+        }
+    }
+
+    private static final class MapTransformer extends Transformer {
+        private final Level body;
+        private final Transformer next;
+
+        MapTransformer(Level body, Transformer next) {
+            this.body = body;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            if (patchOp.size() < 2) {
+                return next.apply(patchOp);
+            }
+            PatchOp itemPatch = body.apply(patchOp.tail(1), 0);
+            return itemPatch != null ? next.apply(itemPatch.withHead(patchOp.segment(0), 0)) : null;
+        }
+    }
+
+    private static final class Interpreted extends Transformer {
+        private final LensOp op;
+        private final Level level;
+        private final int next;
+
+        Interpreted(LensOp op, Level level, int next) {
+            this.op = op;
+            this.level = level;
+            this.next = next;
+        }
+
+        @Override
+        PatchOp apply(PatchOp patchOp) {
+            PatchOp result = op.apply(patchOp);
+            return result != null ? level.apply(result, next) : null;
+        }
+    }
+}
@@ -0,0 +1,485 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.BooleanNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Applies a lens to a stream of tokens read from a {@link JsonParser}, writing
+ * the lensed document to a {@link JsonGenerator} without building a tree for it.
+ *
+ * <p>The path of every token is run through the lens as it is read, so renames,
+ * conversions, wraps, heads and nested lenses are applied in one pass with
+ * memory proportional to the nesting depth and to the number of fields of
+ * the objects being written. Fields that can land on the same name, through a
+ * rename or a hoist, and the fields of a plunge, are buffered until their
+ * enclosing object ends, and are then lensed together, so that the later of
+ * two fields wins as it does in {@link TreeEngine}. They are looked up by
+ * their full path, so a field elsewhere with the same name is streamed. A
+ * hoisted field is buffered on its own, in the object that it lands in,
+ * while the rest of its host is streamed. Defaults for properties missing
+ * from the input are written when their object ends, so the field order may
+ * differ from {@link TreeEngine} even though the documents are equal.
+ */
+final class StreamingEngine {
+
+    private static final ObjectMapper MAPPER = Jackson.newObjectMapper();
+
+    private static final String[] ROOT = new String[0];
+
+    private final PatchLens lens;
+    private final DefaultTemplates defaults;
+    private final Buffered buffered;
+    private final JsonParser parser;
+    private JsonGenerator generator;
+    private final Deque<Level> levels = new ArrayDeque<>();
+    private final List<Frame> frames = new ArrayList<>();
+
+    StreamingEngine(CompiledLens lens, JsonParser parser, JsonGenerator generator) {
+        this.lens = lens.index();
+        this.defaults = lens.defaults();
+        this.buffered = lens.buffered();
+        this.parser = parser;
+        this.generator = generator;
+    }
+
+    static void apply(CompiledLens lens, JsonParser parser, JsonGenerator generator)
+        throws IOException {
+        StreamingEngine engine = new StreamingEngine(lens, parser, generator);
+        while (engine.advance() && !engine.atRoot()) {
+            // keep going until the first root value has been written
+        }
+    }
+
+    void setGenerator(JsonGenerator generator) {
+        this.generator = generator;
+    }
+
+    boolean atRoot() {
+        return levels.isEmpty();
+    }
+
+    /**
+     * Consumes the next input token and writes whatever output it produces.
+     *
+     * @return false once the input is exhausted
+     */
+    boolean advance() throws IOException {
+        JsonToken token;
+        if (levels.isEmpty() && parser.hasCurrentToken()) {
+            // the caller may already have moved onto the first token
+            token = parser.currentToken();
+        } else {
+            token = parser.nextToken();
+        }
+        if (token == null) {
+            return false;
+        }
+        if (levels.isEmpty()) {
+            startRoot(token);
+            return true;
+        }
+        Level level = levels.peek();
+        switch (token) {
+            case FIELD_NAME:
+                level.name = parser.currentName();
+                break;
+            case END_OBJECT:
+            case END_ARRAY:
+                levels.pop();
+                flush(level);
+                closeFrames(level.mark);
+                if (levels.isEmpty()) {
+                    // leave the parser past the root value
+                    parser.clearCurrentToken();
+                }
+                break;
+            default:
+                value(level, token);
+                break;
+        }
+        return true;
+    }
+
+    private void startRoot(JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            // only objects are lensed field by field
+            JsonNode doc = MAPPER.readTree(parser);
+            MAPPER.writeTree(generator, TreeEngine.apply(lens, defaults, doc, null));
+            parser.clearCurrentToken();
+            return;
+        }
+        generator.writeStartObject();
+        Frame frame = new Frame(ROOT, true, defaults.templateForPath(ROOT));
+        frames.add(frame);
+        levels.push(new Level(ROOT, false, 0, frame, buffered));
+    }
+
+    private void value(Level parent, JsonToken token) throws IOException {
+        String segment = parent.array ? String.valueOf(parent.index++) : parent.name;
+        String[] path = TreeEngine.append(parent.path, segment);
+        if (!parent.array && parent.buffered != null && parent.buffered.holds(segment)) {
+            parent.buffer(path, MAPPER.readTree(parser));
+            return;
+        }
+        int mark = frames.size();
+        boolean container = token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY;
+        boolean array = token == JsonToken.START_ARRAY;
+        JsonNode value;
+        if (container) {
+            value = array ? JsonNodeFactory.instance.arrayNode() : JsonNodeFactory.instance.objectNode();
+        } else {
+            value = scalar(token);
+        }
+        PatchOp lensed = lensAdd(path, value);
+        Level target = lensed != null ? hoistedTo(lensed.path()) : null;
+        if (target != null) {
+            target.buffer(path, container ? MAPPER.readTree(parser) : value);
+            return;
+        }
+        if (container) {
+            write(lensed, null);
+            Buffered below = parent.buffered == null ? null
+                : parent.array ? parent.buffered.elements() : parent.buffered.child(segment);
+            levels.push(new Level(path, array, mark, frames.get(frames.size() - 1), below));
+        } else {
+            write(lensed, value);
+            closeFrames(mark);
+        }
+    }
+
+    // A hoisted value is written to an object that is still open further up,
+    // so it is buffered in the level of that object and lensed when it ends
+    private Level hoistedTo(String[] path) {
+        if (path.length == 0 || accepts(frames.get(frames.size() - 1), path)) {
+            return null;
+        }
+        Iterator<Level> it = levels.iterator();
+        it.next();
+        while (it.hasNext()) {
+            Level level = it.next();
+            if (level.frame.object && level.frame.is(path, path.length - 1)) {
+                return level;
+            }
+        }
+        return null;
+    }
+
+    // A write goes into the open container, or to index 0 of a wrapped value
+    private static boolean accepts(Frame top, String[] path) {
+        int length = path.length;
+        return top.is(path, length - 1)
+            || length >= 2 && path[length - 1].equals("0") && top.is(path, length - 2);
+    }
+
+    private PatchOp lensAdd(String[] path, JsonNode value) {
+        return lens.apply(PatchOp.of(PatchOp.Op.ADD, path, value));
+    }
+
+    private void write(PatchOp patchOp, JsonNode original) throws IOException {
+        if (patchOp == null) {
+            return;
+        }
+        String[] path = patchOp.path();
+        if (patchOp.getOp() != PatchOp.Op.ADD || path.length == 0) {
+            throw new IllegalArgumentException("Cannot stream a " + patchOp.getOp().getName() + " of "
+                + TreeEngine.pointer(path, path.length));
+        }
+        int length = path.length;
+        Frame top = frames.get(frames.size() - 1);
+        if (!top.is(path, length - 1)) {
+            // a wrapped value goes to index 0 of an array that is opened on demand
+            if (accepts(top, path)) {
+                writeName(top, path[length - 2]);
+                generator.writeStartArray();
+                top = new Frame(Arrays.copyOf(path, length - 1), false, null);
+                frames.add(top);
+            } else {
+                throw new IllegalArgumentException("Cannot stream a write to "
+                    + TreeEngine.pointer(path, length) + " from within "
+                    + TreeEngine.pointer(top.path, top.path.length));
+            }
+        }
+        writeName(top, path[length - 1]);
+        JsonNode value = patchOp.getValue();
+        if (value.isObject()) {
+            generator.writeStartObject();
+            frames.add(new Frame(path, true, defaults.templateForPath(path)));
+        } else if (value.isArray()) {
+            generator.writeStartArray();
+            frames.add(new Frame(path, false, null));
+        } else if (value == original) {
+            generator.copyCurrentEvent(parser);
+        } else {
+            MAPPER.writeTree(generator, value);
+        }
+    }
+
+    private void writeName(Frame frame, String name) throws IOException {
+        if (frame.object) {
+            if (!frame.written(name)) {
+                throw new IllegalArgumentException("Cannot stream a second value of "
+                    + TreeEngine.pointer(TreeEngine.append(frame.path, name), frame.path.length + 1));
+            }
+            generator.writeFieldName(name);
+        } else if (PatchOp.isArrayIndex(name) && Integer.parseInt(name) == frame.size) {
+            frame.size++;
+        } else {
+            throw new IllegalArgumentException("Cannot stream a write to index " + name
+                + " of an array of size " + frame.size);
+        }
+    }
+
+    private void closeFrames(int mark) throws IOException {
+        while (frames.size() > mark) {
+            Frame frame = frames.remove(frames.size() - 1);
+            if (frame.object) {
+                writeDefaults(frame);
+                generator.writeEndObject();
+            } else {
+                generator.writeEndArray();
+            }
+        }
+    }
+
+    private void writeDefaults(Frame frame) throws IOException {
+        if (frame.defaults == null) {
+            return;
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> it = frame.defaults.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            if (!frame.hasWritten(field.getKey())) {
+                generator.writeFieldName(field.getKey());
+                MAPPER.writeTree(generator, field.getValue());
+            }
+        }
+    }
+
+    // Lenses the fields held back for hoist/plunge as a small tree, rooted at
+    // the output object that is open now that the rest of the level is done
+    private void flush(Level level) throws IOException {
+        if (level.buffer == null) {
+            return;
+        }
+        Frame top = frames.get(frames.size() - 1);
+        if (!top.object) {
+            throw new IllegalArgumentException("Cannot stream buffered fields into "
+                + TreeEngine.pointer(top.path, top.path.length));
+        }
+        ObjectNode fragment = JsonNodeFactory.instance.objectNode();
+        TreeEngine engine = new TreeEngine(lens, defaults, top.path, fragment);
+        for (Map.Entry<String[], JsonNode> field : level.buffer) {
+            engine.visit(field.getKey(), field.getValue());
+        }
+        if (engine.getOutput() != fragment) {
+            throw new IllegalArgumentException("Cannot stream a replacement of "
+                + TreeEngine.pointer(top.path, top.path.length));
+        }
+        for (Iterator<Map.Entry<String, JsonNode>> it = fragment.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> field = it.next();
+            writeName(top, field.getKey());
+            MAPPER.writeTree(generator, field.getValue());
+        }
+    }
+
+    private JsonNode scalar(JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_STRING:
+                return TextNode.valueOf(parser.getText());
+            case VALUE_NUMBER_INT:
+                switch (parser.getNumberType()) {
+                    case INT:
+                        return JsonNodeFactory.instance.numberNode(parser.getIntValue());
+                    case LONG:
+                        return JsonNodeFactory.instance.numberNode(parser.getLongValue());
+                    default:
+                        return JsonNodeFactory.instance.numberNode(parser.getBigIntegerValue());
+                }
+            case VALUE_NUMBER_FLOAT:
+                if (parser.getNumberType() == JsonParser.NumberType.BIG_DECIMAL) {
+                    return JsonNodeFactory.instance.numberNode(parser.getDecimalValue());
+                }
+                return JsonNodeFactory.instance.numberNode(parser.getDoubleValue());
+            case VALUE_TRUE:
+                return BooleanNode.TRUE;
+            case VALUE_FALSE:
+                return BooleanNode.FALSE;
+            case VALUE_NULL:
+                return NullNode.getInstance();
+            case VALUE_EMBEDDED_OBJECT:
+                // binary formats such as Smile and CBOR hold raw bytes
+                Object embedded = parser.getEmbeddedObject();
+                return embedded instanceof byte[]
+                    ? BinaryNode.valueOf((byte[]) embedded)
+                    : JsonNodeFactory.instance.pojoNode(embedded);
+            default:
+                return MAPPER.readTree(parser);
+        }
+    }
+
+    /**
+     * Returns the fields to buffer for the given lens, by their path in the
+     * input. Two fields can land on one name through a rename, or through a
+     * hoist of a field with the name of a sibling of its host, and a plunge
+     * moves a field into a sibling, so those fields are buffered. The name
+     * that an op sees is traced back through the renames before it.
+     */
+    static Buffered buffered(List<LensOp> lens) {
+        Buffered root = new Buffered();
+        collect(lens, root);
+        return root;
+    }
+
+    private static void collect(List<LensOp> lens, Buffered node) {
+        for (int i = 0; i < lens.size(); i++) {
+            LensOp lensOp = lens.get(i);
+            if (lensOp instanceof RenameProperty) {
+                node.hold(input(lens, i, ((RenameProperty) lensOp).getSource()));
+                node.hold(input(lens, i, ((RenameProperty) lensOp).getTarget()));
+            } else if (lensOp instanceof HoistProperty) {
+                // the hoisted field itself is buffered where it lands
+                node.hold(input(lens, i, ((HoistProperty) lensOp).getName()));
+            } else if (lensOp instanceof PlungeProperty) {
+                node.hold(input(lens, i, ((PlungeProperty) lensOp).getHost()));
+                node.hold(input(lens, i, ((PlungeProperty) lensOp).getName()));
+            } else if (lensOp instanceof LensIn) {
+                String name = input(lens, i, ((LensIn) lensOp).getName());
+                collect(((LensIn) lensOp).getLens(), node.addChild(name));
+            } else if (lensOp instanceof LensMap) {
+                collect(((LensMap) lensOp).getLens(), node.addElements());
+            }
+        }
+    }
+
+    // Returns the input name of a field that has the given name at op i
+    private static String input(List<LensOp> lens, int i, String name) {
+        for (int j = i - 1; j >= 0; j--) {
+            LensOp lensOp = lens.get(j);
+            if (lensOp instanceof RenameProperty && ((RenameProperty) lensOp).getTarget().equals(name)) {
+                name = ((RenameProperty) lensOp).getSource();
+            }
+        }
+        return name;
+    }
+
+    // The fields to buffer in an input object, and below it
+    static final class Buffered {
+        private final Set<String> held = new HashSet<>();
+        private final Map<String, Buffered> children = new HashMap<>();
+        private Buffered elements;
+
+        boolean holds(String name) {
+            return held.contains(name);
+        }
+
+        Buffered child(String name) {
+            return children.get(name);
+        }
+
+        Buffered elements() {
+            return elements;
+        }
+
+        private void hold(String name) {
+            held.add(name);
+        }
+
+        private Buffered addChild(String name) {
+            return children.computeIfAbsent(name, k -> new Buffered());
+        }
+
+        private Buffered addElements() {
+            if (elements == null) {
+                elements = new Buffered();
+            }
+            return elements;
+        }
+    }
+
+    // An input container being read
+    private static final class Level {
+        final String[] path;
+        final boolean array;
+        final int mark;
+        // the output object written for this container
+        final Frame frame;
+        final Buffered buffered;
+        String name;
+        int index;
+        List<Map.Entry<String[], JsonNode>> buffer;
+
+        Level(String[] path, boolean array, int mark, Frame frame, Buffered buffered) {
+            this.path = path;
+            this.array = array;
+            this.mark = mark;
+            this.frame = frame;
+            this.buffered = buffered;
+        }
+
+        void buffer(String[] path, JsonNode value) {
+            if (buffer == null) {
+                buffer = new ArrayList<>();
+            }
+            buffer.add(new AbstractMap.SimpleEntry<>(path, value));
+        }
+    }
+
+    // An output container being written
+    private static final class Frame {
+        final String[] path;
+        final boolean object;
+        final ObjectNode defaults;
+        Set<String> written;
+        int size;
+
+        Frame(String[] path, boolean object, ObjectNode defaults) {
+            this.path = path;
+            this.object = object;
+            this.defaults = defaults;
+        }
+
+        boolean is(String[] other, int length) {
+            return path.length == length && TreeEngine.startsWith(other, path);
+        }
+
+        // Returns false if the name was already written
+        boolean written(String name) {
+            if (written == null) {
+                written = new HashSet<>();
+            }
+            return written.add(name);
+        }
+
+        boolean hasWritten(String name) {
+            return written != null && written.contains(name);
+        }
+    }
+}
@@ -0,0 +1,465 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Applies a lens to a whole document by walking the input tree once and writing
+ * each lensed node straight into the output tree.
+ *
+ * <p>This produces the same result as {@link JsonLenses#applyLensToDoc}, which
+ * remains the reference implementation, but without diffing the input into a
+ * JSON Patch, materializing an {@link ObjectNode} per leaf, or applying the
+ * lensed patch op by op. If the caller hands over the input, the subtrees that
+ * the lens only moves are re-parented into the output rather than copied.
+ *
+ * <p>A single large document may also be lensed on a fork-join pool. The
+ * elements of each array or object of at least a threshold size are then
+ * split into ranges that are lensed as separate tasks, and the lensed ops of
+ * the ranges are written in index order, so the result is the same as when
+ * the document is lensed on one thread.
+ */
+final class TreeEngine {
+
+    private final PatchLens lens;
+    private final DefaultTemplates defaults;
+    private final String[] base;
+    private final boolean owned;
+    private final ForkJoinPool pool;
+    private final int threshold;
+    private JsonNode output;
+    // counted for LensEvent
+    private long expanded;
+    private long dropped;
+    private long defaultsWritten;
+
+    /**
+     * Creates an engine that writes into {@code output}, which sits at the
+     * path {@code base} of the lensed document.
+     */
+    TreeEngine(PatchLens lens, DefaultTemplates defaults, String[] base, JsonNode output) {
+        this(lens, defaults, base, output, false);
+    }
+
+    /**
+     * Creates an engine that writes into {@code output}, and that moves the
+     * nodes of its input, rather than copying them, if {@code owned} is set.
+     */
+    TreeEngine(PatchLens lens, DefaultTemplates defaults, String[] base, JsonNode output, boolean owned) {
+        this(lens, defaults, base, output, owned, null, 0);
+    }
+
+    private TreeEngine(PatchLens lens, DefaultTemplates defaults, String[] base, JsonNode output,
+                       boolean owned, ForkJoinPool pool, int threshold) {
+        this.lens = lens;
+        this.defaults = defaults;
+        this.base = base;
+        this.owned = owned;
+        this.pool = pool;
+        this.threshold = threshold;
+        this.output = output;
+    }
+
+    static JsonNode apply(List<LensOp> lens, JsonNode inputDoc, JsonNode targetDoc) {
+        return apply(new LensIndex(lens), new DefaultTemplates(context(lens)), inputDoc, targetDoc);
+    }
+
+    /**
+     * Applies a lens whose index and defaults have already been prepared. Both
+     * are only read, so they may be shared by concurrent calls.
+     */
+    static JsonNode apply(PatchLens lens, DefaultTemplates defaults,
+                          JsonNode inputDoc, JsonNode targetDoc) {
+        return apply(lens, defaults, inputDoc, targetDoc, false);
+    }
+
+    /**
+     * Applies a prepared lens, taking over the nodes of {@code inputDoc} if
+     * {@code owned} is set, so that the result may share them.
+     */
+    static JsonNode apply(PatchLens lens, DefaultTemplates defaults,
+                          JsonNode inputDoc, JsonNode targetDoc, boolean owned) {
+        return apply(lens, defaults, inputDoc, targetDoc, owned, null, 0);
+    }
+
+    /**
+     * Applies a prepared lens on {@code pool}, if not null, lensing the
+     * elements of each container of at least {@code threshold} elements in
+     * ranges as separate tasks.
+     */
+    static JsonNode apply(PatchLens lens, DefaultTemplates defaults, JsonNode inputDoc, JsonNode targetDoc,
+                          boolean owned, ForkJoinPool pool, int threshold) {
+        if (pool != null && threshold < 1) {
+            throw new IllegalArgumentException("Invalid threshold " + threshold);
+        }
+        if (!inputDoc.isObject()) {
+            return JsonLenses.applyLensToDoc(lens.getOps(), inputDoc, targetDoc);
+        }
+        LensEvent event = new LensEvent();
+        event.begin();
+        ObjectNode output = defaults.newRoot();
+        if (targetDoc != null) {
+            Jackson.merge(output, targetDoc.deepCopy());
+        }
+        TreeEngine engine = new TreeEngine(lens, defaults, new String[0], output, owned, pool, threshold);
+        if (pool != null) {
+            pool.invoke(ForkJoinTask.adapt(() -> engine.visitInParallel(inputDoc)));
+        } else {
+            for (Iterator<Map.Entry<String, JsonNode>> it = inputDoc.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                engine.visit(new String[]{field.getKey()}, field.getValue());
+            }
+        }
+        event.record(lens, LensEvent.DOC, inputDoc, engine.expanded, engine.dropped, engine.defaultsWritten);
+        return engine.output;
+    }
+
+    static Context context(List<LensOp> lens) {
+        Context ctx = new Context();
+        lens.forEach(l -> l.apply(ctx));
+        return ctx.freeze();
+    }
+
+    JsonNode getOutput() {
+        return output;
+    }
+
+    void visit(String[] path, JsonNode value) {
+        // expanded without recursion, so that deeply nested documents do not overflow the stack
+        for (Iterator<PatchOp> it = new ExpansionIterator(PatchOp.of(PatchOp.Op.ADD, path, value),
+                this::expands, owned); it.hasNext(); ) {
+            emit(it.next());
+        }
+    }
+
+    // A value that the lens only moves, and that gets no defaults where it
+    // lands, is copied whole rather than lensed node by node
+    private boolean expands(PatchOp node) {
+        String[] path = lens.relocate(node.path());
+        return path == null || defaults.hasDefaultsBelow(path);
+    }
+
+    private void emit(PatchOp node) {
+        expanded++;
+        PatchOp patchOp = lens.apply(node);
+        if (patchOp == null) {
+            dropped++;
+            return;
+        }
+        store(patchOp);
+    }
+
+    private void store(PatchOp patchOp) {
+        if (patchOp.isWrite() && isEmptyObject(patchOp.getValue())) {
+            ObjectNode sized = defaults.newObject(patchOp.path());
+            if (sized != null) {
+                patchOp = patchOp.withValue(sized);
+            }
+        }
+        write(patchOp);
+        if (patchOp.isWrite() && isEmptyObject(patchOp.getValue())) {
+            ObjectNode template = defaults.templateForPath(patchOp.path());
+            if (template != null) {
+                DefaultTemplates.fill((ObjectNode) patchOp.getValue(), template);
+                defaultsWritten += template.size();
+            }
+        }
+    }
+
+    private void visitInParallel(JsonNode inputDoc) {
+        Range root = new Range(null, null, 0, 0, null);
+        if (inputDoc.size() >= threshold) {
+            visitElements(new String[0], inputDoc, root);
+        } else {
+            for (Iterator<Map.Entry<String, JsonNode>> it = inputDoc.fields(); it.hasNext(); ) {
+                Map.Entry<String, JsonNode> field = it.next();
+                visit(new String[]{field.getKey()}, field.getValue(), root);
+            }
+        }
+        expanded += root.expanded;
+        dropped += root.dropped;
+    }
+
+    /**
+     * Lenses the nodes of a value into {@code range}, in document order, and
+     * the elements of each large container below it in ranges on the pool.
+     */
+    private void visit(String[] path, JsonNode value, Range range) {
+        // the large containers are returned whole, and copied here if need be
+        for (Iterator<PatchOp> it = new ExpansionIterator(PatchOp.of(PatchOp.Op.ADD, path, value),
+                p -> !splits(p) && expands(p), true); it.hasNext(); ) {
+            PatchOp node = it.next();
+            JsonNode nodeValue = node.getValue();
+            if (node.isWrite() && nodeValue.isContainerNode()) {
+                if (splits(node) && expands(node)) {
+                    range.emit(node.withValue(nodeValue.isArray()
+                        ? JsonNodeFactory.instance.arrayNode()
+                        : JsonNodeFactory.instance.objectNode()));
+                    visitElements(node.path(), nodeValue, range);
+                    continue;
+                }
+                if (!owned) {
+                    node = node.withValue(Jackson.deepCopy(nodeValue));
+                }
+            }
+            range.emit(node);
+        }
+    }
+
+    private boolean splits(PatchOp node) {
+        JsonNode value = node.getValue();
+        return node.isWrite() && value.isContainerNode() && value.size() >= threshold;
+    }
+
+    /**
+     * Lenses the elements of a container in ranges of {@code threshold}
+     * elements, a few ranges per worker at a time, so that the lensed ops
+     * held for the ranges do not grow with the size of the container.
+     */
+    private void visitElements(String[] path, JsonNode container, Range range) {
+        List<String> names = null;
+        if (container.isObject()) {
+            names = new ArrayList<>(container.size());
+            container.fieldNames().forEachRemaining(names::add);
+        }
+        int size = container.size();
+        int window = 4 * pool.getParallelism();
+        for (int start = 0; start < size; ) {
+            List<Range> ranges = new ArrayList<>(window);
+            for (int i = 0; i < window && start < size; i++) {
+                int end = (int) Math.min((long) start + threshold, size);
+                ranges.add(new Range(path, container, start, end, names));
+                start = end;
+            }
+            ForkJoinTask.invokeAll(ranges);
+            ranges.forEach(range::drain);
+        }
+    }
+
+    /**
+     * The lensed ops of a range of the elements of a container, which are
+     * written to the output directly if the range has no container.
+     */
+    private final class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] path;
+        private final JsonNode container;
+        private final int start;
+        private final int end;
+        private final List<String> names;
+        private final List<PatchOp> ops;
+        private long expanded;
+        private long dropped;
+
+        Range(String[] path, JsonNode container, int start, int end, List<String> names) {
+            this.path = path;
+            this.container = container;
+            this.start = start;
+            this.end = end;
+            this.names = names;
+            this.ops = container != null ? new ArrayList<>() : null;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i = start; i < end; i++) {
+                String name = names != null ? names.get(i) : String.valueOf(i);
+                visit(append(path, name), names != null ? container.get(name) : container.get(i), this);
+            }
+        }
+
+        void emit(PatchOp node) {
+            expanded++;
+            PatchOp patchOp = lens.apply(node);
+            if (patchOp == null) {
+                dropped++;
+            } else {
+                add(patchOp);
+            }
+        }
+
+        void drain(Range range) {
+            expanded += range.expanded;
+            dropped += range.dropped;
+            range.ops.forEach(this::add);
+        }
+
+        private void add(PatchOp patchOp) {
+            if (ops != null) {
+                ops.add(patchOp);
+            } else {
+                store(patchOp);
+            }
+        }
+    }
+
+    /**
+     * Writes an add, replace or remove to the output, which must already hold
+     * the parent of its path. A lensed add at index 0 of a missing property
+     * creates the array, as a wrapped value is written there.
+     */
+    void write(PatchOp patchOp) {
+        String[] path = patchOp.path();
+        int offset = base.length;
+        if (!startsWith(path, base)) {
+            throw new IllegalArgumentException("Cannot write " + pointer(path, path.length)
+                + " outside of " + pointer(base, offset));
+        }
+        if (path.length == offset) {
+            if (!patchOp.isWrite()) {
+                throw new IllegalArgumentException("Cannot " + patchOp.getOp().getName() + " the root");
+            }
+            output = patchOp.getValue();
+            return;
+        }
+        JsonNode parent = output;
+        for (int i = offset; i < path.length - 1; i++) {
+            parent = lens != null && i == path.length - 2 && wraps(parent, patchOp)
+                ? ((ObjectNode) parent).putArray(path[i])
+                : child(parent, path, i);
+        }
+        String last = path[path.length - 1];
+        if (parent.isObject()) {
+            ObjectNode obj = (ObjectNode) parent;
+            switch (patchOp.getOp()) {
+                case ADD:
+                    obj.set(last, patchOp.getValue());
+                    break;
+                case REPLACE:
+                    if (!obj.has(last)) {
+                        throw missing(path, path.length - 1);
+                    }
+                    obj.set(last, patchOp.getValue());
+                    break;
+                case REMOVE:
+                    if (obj.remove(last) == null) {
+                        throw missing(path, path.length - 1);
+                    }
+                    break;
+                default:
+                    throw unsupported(patchOp);
+            }
+        } else if (parent.isArray()) {
+            ArrayNode arr = (ArrayNode) parent;
+            if (patchOp.getOp() == PatchOp.Op.ADD && last.equals("-")) {
+                arr.add(patchOp.getValue());
+                return;
+            }
+            int index = index(path, path.length - 1);
+            int size = arr.size();
+            if (index > size || (index == size && patchOp.getOp() != PatchOp.Op.ADD)) {
+                throw new IllegalArgumentException("Array index " + index + " out of bounds at "
+                    + pointer(path, path.length - 1));
+            }
+            switch (patchOp.getOp()) {
+                case ADD:
+                    arr.insert(index, patchOp.getValue());
+                    break;
+                case REPLACE:
+                    arr.set(index, patchOp.getValue());
+                    break;
+                case REMOVE:
+                    arr.remove(index);
+                    break;
+                default:
+                    throw unsupported(patchOp);
+            }
+        } else {
+            throw new IllegalArgumentException("Parent is not a container at "
+                + pointer(path, path.length - 1));
+        }
+    }
+
+    static boolean wraps(JsonNode parent, PatchOp patchOp) {
+        String[] path = patchOp.path();
+        return patchOp.getOp() == PatchOp.Op.ADD && path[path.length - 1].equals("0")
+            && parent.isObject() && !parent.has(path[path.length - 2]);
+    }
+
+    /**
+     * Returns the node at the first {@code length} segments of {@code path}.
+     */
+    static JsonNode get(JsonNode root, String[] path, int length) {
+        JsonNode node = root;
+        for (int i = 0; i < length; i++) {
+            node = child(node, path, i);
+        }
+        return node;
+    }
+
+    private static JsonNode child(JsonNode parent, String[] path, int i) {
+        JsonNode child;
+        if (parent.isObject()) {
+            child = parent.get(path[i]);
+        } else if (parent.isArray()) {
+            int index = index(path, i);
+            child = index < parent.size() ? parent.get(index) : null;
+        } else {
+            child = null;
+        }
+        if (child == null) {
+            throw missing(path, i);
+        }
+        return child;
+    }
+
+    private static int index(String[] path, int i) {
+        if (!PatchOp.isArrayIndex(path[i])) {
+            throw new IllegalArgumentException("Invalid array index at " + pointer(path, i));
+        }
+        return Integer.parseInt(path[i]);
+    }
+
+    private static IllegalArgumentException missing(String[] path, int i) {
+        return new IllegalArgumentException("Missing field \"" + path[i] + "\" at "
+            + pointer(path, i));
+    }
+
+    private static IllegalArgumentException unsupported(PatchOp patchOp) {
+        return new IllegalArgumentException("Unsupported patch op " + patchOp.getOp().getName()
+            + " at " + pointer(patchOp.path(), patchOp.size()));
+    }
+
+    static String pointer(String[] path, int length) {
+        if (length == 0) {
+            return "root";
+        }
+        return "/" + String.join("/", Arrays.copyOf(path, length));
+    }
+
+    static String[] append(String[] path, String segment) {
+        String[] result = Arrays.copyOf(path, path.length + 1);
+        result[path.length] = segment;
+        return result;
+    }
+
+    static boolean startsWith(String[] path, String[] prefix) {
+        if (path.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (!path[i].equals(prefix[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean isEmptyObject(JsonNode value) {
+        return value != null && value.isObject() && value.size() == 0;
+    }
+}
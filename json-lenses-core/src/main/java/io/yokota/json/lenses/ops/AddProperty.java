@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
 
@@ -35,6 +36,11 @@ public class AddProperty extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
         return patchOp;
     }
 
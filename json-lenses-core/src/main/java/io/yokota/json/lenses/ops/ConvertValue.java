@@ -1,24 +1,46 @@
 package io.yokota.json.lenses.ops;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 import io.yokota.json.lenses.utils.Convert;
+import io.yokota.json.lenses.utils.ValueTable;
 
 import java.util.HashMap;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 public class ConvertValue extends LensOp {
     private final String name;
     private final ValueMapping mapping;
+    private final String keyType;
+    private volatile ValueTable forward;
+    private volatile UnaryOperator<JsonNode> lookup;
 
     @JsonCreator
     public ConvertValue(@JsonProperty("name") String name,
                         @JsonProperty("mapping") ValueMapping mapping) {
+        this(name, mapping, null);
+    }
+
+    private ConvertValue(String name, ValueMapping mapping, String keyType) {
         this.name = name;
         this.mapping = mapping;
+        this.keyType = keyType;
+    }
+
+    /**
+     * Returns this op with its values looked up as values of the given JSON
+     * Schema type, such as the type of the property in a source schema.
+     * Values of other types are still converted.
+     */
+    public ConvertValue withKeyType(String type) {
+        ConvertValue result = new ConvertValue(name, mapping, type);
+        result.forward = getForwardTable();
+        return result;
     }
 
     @JsonProperty("name")
@@ -37,24 +59,46 @@ public class ConvertValue extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String op = patchOp.get("op").textValue();
-        String path = patchOp.get("path").textValue();
-        if (!op.equals("add") && !op.equals("replace")) {
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (!patchOp.isWrite()) {
             return patchOp;
         }
-        if (!path.equals("/" + name)) {
+        if (patchOp.size() != 1 || !patchOp.segmentEquals(0, name)) {
             return patchOp;
         }
-        Object value = Convert.jsonNodeToPrimitive(patchOp.get("value"));
+        UnaryOperator<JsonNode> table = lookup;
+        if (table == null) {
+            table = keyType != null ? getForwardTable().lookup(keyType) : getForwardTable()::get;
+            lookup = table;
+        }
+        JsonNode converted = table.apply(patchOp.getValue());
 
         // TODO: should we add in support for fallback/default conversions
-        if (!mapping.getForward().containsKey(value)) {
-            throw new IllegalArgumentException("No mapping for value: " + value);
+        if (converted == null) {
+            throw new IllegalArgumentException(
+                "No mapping for value: " + Convert.jsonNodeToPrimitive(patchOp.getValue()));
         }
 
-        ObjectNode copy = patchOp.deepCopy();
-        copy.set("value", Convert.valueToJsonNode(mapping.getForward().get(value)));
-        return copy;
+        return patchOp.withValue(converted);
+    }
+
+    /**
+     * Returns the forward mapping compiled into a lookup table, which is
+     * built on first use.
+     */
+    @JsonIgnore
+    public ValueTable getForwardTable() {
+        ValueTable result = forward;
+        if (result == null) {
+            // a race only builds an equal table twice
+            result = ValueTable.of(mapping.getForward());
+            forward = result;
+        }
+        return result;
     }
 
     @Override
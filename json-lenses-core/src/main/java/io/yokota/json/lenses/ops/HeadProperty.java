@@ -3,13 +3,11 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.NullNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class HeadProperty extends LensOp {
     private final String name;
@@ -26,45 +24,44 @@ public class HeadProperty extends LensOp {
 
     @Override
     public void apply(Context ctx) {
+        Context subctx = ctx.getSubcontexts().get(name);
+        if (subctx != null) {
+            // the head is a scalar, so an array default of an added property no longer applies
+            subctx.removeDefaultValue();
+        }
     }
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String op = patchOp.get("op").textValue();
-        String path = patchOp.get("path").textValue();
-        String[] pathElements = path.split("/");
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
         // return early if we're not handling a write to the array handled by this lens
-        boolean arrayMatch = pathElements.length > 1 && pathElements[1].equals(name);
-        if (!arrayMatch) {
+        if (!patchOp.segmentEquals(0, name)) {
+            return patchOp;
+        }
+        // Removing the array removes its head
+        if (patchOp.size() == 1 && patchOp.getOp() == PatchOp.Op.REMOVE) {
             return patchOp;
         }
         // We only care about writes to the head element, nothing else matters
-        Pattern p = Pattern.compile("^/" + name + "/0(.*)");
-        Matcher m = p.matcher(path);
-        if (!m.find()) {
+        if (!patchOp.segmentEquals(1, "0")) {
             return null;
         }
 
-        if (op.equals("add") || op.equals("replace")) {
+        if (patchOp.isWrite()) {
             // If the write is to the first array element, write to the scalar
-            ObjectNode copy = JsonNodeFactory.instance.objectNode();
-            copy.put("op", op);
-            copy.put("path", "/" + name + (m.group(1) != null ? m.group(1) : ""));
-            copy.replace("value", patchOp.get("value"));
-            return copy;
+            return patchOp.withHead(name, 2);
         }
 
-        if (op.equals("remove")) {
-            if (m.group(1).equals("")) {
-                ObjectNode copy = JsonNodeFactory.instance.objectNode();
-                copy.put("op", "replace");
-                copy.put("path", "/" + name + (m.group(1) != null ? m.group(1) : ""));
-                copy.replace("value", null);
-                return copy;
+        if (patchOp.getOp() == PatchOp.Op.REMOVE) {
+            if (patchOp.size() == 2) {
+                return new PatchOp(PatchOp.Op.REPLACE, new String[]{name},
+                    NullNode.getInstance());
             } else {
-                ObjectNode copy = patchOp.deepCopy();
-                copy.put("path", "/" + name + (m.group(1) != null ? m.group(1) : ""));
-                return copy;
+                return patchOp.withHead(name, 2);
             }
         }
         return patchOp;
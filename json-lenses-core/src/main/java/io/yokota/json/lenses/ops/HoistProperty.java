@@ -3,8 +3,8 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
 
@@ -39,15 +39,13 @@ public class HoistProperty extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String path = patchOp.get("path").textValue();
-        // leading slash needs trimming
-        String[] pathElements = path.substring(1).split("/");
-        if (pathElements.length > 1 && pathElements[0].equals(host) && pathElements[1].equals(name)) {
-            pathElements[0] = "";
-            path = String.join("/", pathElements);
-            ObjectNode copy = patchOp.deepCopy();
-            copy.put("path", path);
-            return copy;
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (patchOp.segmentEquals(0, host) && patchOp.segmentEquals(1, name)) {
+            return patchOp.tail(1);
         }
         return patchOp;
     }
@@ -3,14 +3,13 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
 import io.yokota.json.lenses.JsonLenses;
+import io.yokota.json.lenses.PatchOp;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class LensIn extends LensOp {
     private final String name;
@@ -40,18 +39,20 @@ public class LensIn extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String path = patchOp.get("path").textValue();
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (patchOp.getFrom() != null) {
+            // the source path is lensed on its own, as the body only sees paths below this op
+            return JsonLenses.applyLensToPatchOp(Collections.singletonList(this), patchOp);
+        }
         // Run the inner body in a context where the path has been narrowed down...
-        Pattern p = Pattern.compile("^/" + name);
-        Matcher m = p.matcher(path);
-        if (m.find()) {
-            ObjectNode copy = patchOp.deepCopy();
-            copy.put("path", path.replaceFirst("^/" + name, ""));
-            JsonNode childPatch = JsonLenses.applyLensToPatchOp(lens, copy);
+        if (patchOp.segmentEquals(0, name)) {
+            PatchOp childPatch = JsonLenses.applyLensToPatchOp(lens, patchOp.tail(1));
             if (childPatch != null) {
-                copy = childPatch.deepCopy();
-                copy.put("path", "/" + name + childPatch.get("path").textValue());
-                return copy;
+                return childPatch.withHead(name, 0);
             } else {
                 return null;
             }
@@ -3,14 +3,13 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
 import io.yokota.json.lenses.JsonLenses;
+import io.yokota.json.lenses.PatchOp;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class LensMap extends LensOp {
     private final List<LensOp> lens;
@@ -32,20 +31,22 @@ public class LensMap extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String path = patchOp.get("path").textValue();
-        Pattern p = Pattern.compile("^/([0-9]+)/");
-        Matcher m = p.matcher(path);
-        if (!m.find()) {
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (patchOp.getFrom() != null) {
+            // the source path is lensed on its own, as the body only sees paths below this op
+            return JsonLenses.applyLensToPatchOp(Collections.singletonList(this), patchOp);
+        }
+        if (patchOp.size() < 2 || !PatchOp.isArrayIndex(patchOp.segment(0))) {
             return patchOp;
         }
-        String arrayIndex = m.group(1);
-        ObjectNode copy = patchOp.deepCopy();
-        copy.put("path", path.replaceFirst("^/[0-9]+/", "/"));
-        JsonNode itemPatch = JsonLenses.applyLensToPatchOp(lens, copy);
+        String arrayIndex = patchOp.segment(0);
+        PatchOp itemPatch = JsonLenses.applyLensToPatchOp(lens, patchOp.tail(1));
         if (itemPatch != null) {
-            copy = itemPatch.deepCopy();
-            copy.put("path", "/" + arrayIndex + itemPatch.get("path").textValue());
-            return copy;
+            return itemPatch.withHead(arrayIndex, 0);
         }
         return null;
     }
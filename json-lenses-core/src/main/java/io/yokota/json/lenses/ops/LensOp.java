@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 import com.fasterxml.jackson.databind.JsonNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
 
@@ -41,8 +42,23 @@ public abstract class LensOp {
 
     public abstract JsonNode apply(JsonNode patchOp);
 
+    /**
+     * Lenses a typed patch op, as the engines do. By default this goes
+     * through {@link #apply(JsonNode)}; the built-in ops override it to lens
+     * the op directly, so a subclass of a built-in op that changes how it
+     * lenses patch ops must override this method too.
+     */
+    public PatchOp apply(PatchOp patchOp) {
+        JsonNode result = apply(patchOp.toJson());
+        return result != null ? PatchOp.fromJson(result) : null;
+    }
+
     public abstract LensOp reverse();
 
+    static JsonNode toJson(PatchOp patchOp) {
+        return patchOp != null ? patchOp.toJson() : null;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
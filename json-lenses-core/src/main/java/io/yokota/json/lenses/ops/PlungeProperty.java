@@ -3,12 +3,9 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 
 public class PlungeProperty extends LensOp {
@@ -42,18 +39,13 @@ public class PlungeProperty extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String path = patchOp.get("path").textValue();
-        // leading slash needs trimming
-        String[] pathElements = path.substring(1).split("/");
-        if (pathElements.length > 0 && pathElements[0].equals(name)) {
-            List<String> newPathElements = new ArrayList<>();
-            newPathElements.add("");
-            newPathElements.add(host);
-            newPathElements.addAll(Arrays.asList(pathElements));
-            path = String.join("/", newPathElements);
-            ObjectNode copy = patchOp.deepCopy();
-            copy.put("path", path);
-            return copy;
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (patchOp.segmentEquals(0, name)) {
+            return patchOp.withHead(host, 0);
         }
         return patchOp;
     }
@@ -4,6 +4,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
 
@@ -35,10 +36,12 @@ public class RemoveProperty extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String path = patchOp.get("path").textValue();
-        String[] pathElements = path.split("/");
-        boolean match = pathElements.length > 1 && pathElements[1].equals(name);
-        if (match) {
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (patchOp.segmentEquals(0, name)) {
             return null;
         }
         return patchOp;
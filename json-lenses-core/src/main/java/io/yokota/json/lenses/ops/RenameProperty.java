@@ -3,8 +3,8 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
 
@@ -39,18 +39,14 @@ public class RenameProperty extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String op = patchOp.get("op").textValue();
-        String path = patchOp.get("path").textValue();
-        String[] pathElements = path.split("/");
-        // TODO: what about other JSON patch op types?
-        // (consider other parts of JSON patch: move / copy / test / remove ?)
-        if ((op.equals("replace") || op.equals("add"))
-            && pathElements.length > 1
-            && pathElements[1].equals(source)) {
-            path = path.replace(source, target);
-            ObjectNode copy = patchOp.deepCopy();
-            copy.put("path", path);
-            return copy;
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        // every op type addresses the property by its path, so all of them are renamed
+        if (patchOp.segmentEquals(0, source)) {
+            return patchOp.withHead(target, 1);
         }
         return patchOp;
     }
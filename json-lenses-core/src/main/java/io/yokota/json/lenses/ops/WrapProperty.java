@@ -3,13 +3,10 @@ package io.yokota.json.lenses.ops;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.node.JsonNodeFactory;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.yokota.json.lenses.Context;
+import io.yokota.json.lenses.PatchOp;
 
 import java.util.Objects;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class WrapProperty extends LensOp {
     private final String name;
@@ -30,23 +27,17 @@ public class WrapProperty extends LensOp {
 
     @Override
     public JsonNode apply(JsonNode patchOp) {
-        String op = patchOp.get("op").textValue();
-        String path = patchOp.get("path").textValue();
-        Object value = patchOp.get("value").textValue();
-        Pattern p = Pattern.compile("^/(" + name + ")(.*)");
-        Matcher m = p.matcher(path);
-        if (m.find()) {
-            path = "/" + m.group(1) + "/0" + m.group(2);
-            if ((op.equals("add") || op.equals("replace"))
-                && value == null && m.group(2).equals("")) {
-                ObjectNode copy = JsonNodeFactory.instance.objectNode();
-                copy.put("op", "remove");
-                copy.put("path", path);
-                return copy;
+        return toJson(apply(PatchOp.fromJson(patchOp)));
+    }
+
+    @Override
+    public PatchOp apply(PatchOp patchOp) {
+        if (patchOp.segmentEquals(0, name)) {
+            JsonNode value = patchOp.getValue();
+            if (patchOp.isWrite() && value != null && value.isNull() && patchOp.size() == 1) {
+                return new PatchOp(PatchOp.Op.REMOVE, new String[]{name, "0"}, null);
             }
-            ObjectNode copy = patchOp.deepCopy();
-            copy.put("path", path);
-            return copy;
+            return patchOp.insert(1, "0");
         }
         return patchOp;
     }
@@ -6,9 +6,13 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Iterator;
+import java.util.Map;
 
 /**
  * A utility class for Jackson.
@@ -48,6 +52,48 @@ public class Jackson {
         return mapper;
     }
 
+    /**
+     * Returns a deep copy of a node, like {@link JsonNode#deepCopy()}, but
+     * without recursion, so that deeply nested nodes do not overflow the stack.
+     */
+    public static JsonNode deepCopy(JsonNode node) {
+        if (!node.isContainerNode()) {
+            return node;
+        }
+        JsonNode result = emptyCopy(node);
+        Deque<JsonNode[]> stack = new ArrayDeque<>();
+        stack.push(new JsonNode[]{node, result});
+        while (!stack.isEmpty()) {
+            JsonNode[] pair = stack.pop();
+            JsonNode source = pair[0];
+            JsonNode target = pair[1];
+            if (source.isObject()) {
+                for (Iterator<Map.Entry<String, JsonNode>> it = source.fields(); it.hasNext(); ) {
+                    Map.Entry<String, JsonNode> field = it.next();
+                    JsonNode child = field.getValue();
+                    JsonNode copy = child.isContainerNode() ? emptyCopy(child) : child;
+                    ((ObjectNode) target).set(field.getKey(), copy);
+                    if (child.isContainerNode()) {
+                        stack.push(new JsonNode[]{child, copy});
+                    }
+                }
+            } else {
+                for (JsonNode child : source) {
+                    JsonNode copy = child.isContainerNode() ? emptyCopy(child) : child;
+                    ((ArrayNode) target).add(copy);
+                    if (child.isContainerNode()) {
+                        stack.push(new JsonNode[]{child, copy});
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static JsonNode emptyCopy(JsonNode node) {
+        return node.isObject() ? JsonNodeFactory.instance.objectNode() : JsonNodeFactory.instance.arrayNode();
+    }
+
     public static void merge(JsonNode target, JsonNode source) {
         Iterator<String> fieldNames = source.fieldNames();
         while (fieldNames.hasNext()) {
@@ -0,0 +1,176 @@
+package io.yokota.json.lenses.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+/**
+ * A lookup table from scalar {@link JsonNode}s to the values of a value
+ * mapping, compiled once per mapping.
+ *
+ * <p>String, integral, floating point and boolean keys each have their own
+ * table, so that a lookup neither boxes the value nor allocates. Integral keys
+ * are compared by their {@code long} value and floating point keys by their
+ * {@code double} value, so an {@code IntNode} and a {@code LongNode} of the
+ * same number find the same entry. The mapped values are converted to nodes
+ * up front, and only empty containers, which may be written into later, are
+ * copied on a lookup.
+ */
+public final class ValueTable {
+
+    private final Map<String, JsonNode> strings = new HashMap<>();
+    private final LongTable longs = new LongTable();
+    private final LongTable doubles = new LongTable();
+    private final Map<Object, JsonNode> others = new HashMap<>();
+    private JsonNode trueValue;
+    private JsonNode falseValue;
+    private JsonNode nullValue;
+
+    private ValueTable() {
+    }
+
+    /**
+     * Compiles the given mapping, as read by
+     * {@link Convert#jsonNodeToPrimitive} and written by
+     * {@link Convert#valueToJsonNode}.
+     */
+    public static ValueTable of(Map<Object, Object> mapping) {
+        ValueTable table = new ValueTable();
+        for (Map.Entry<Object, Object> entry : mapping.entrySet()) {
+            table.put(entry.getKey(), Convert.valueToJsonNode(entry.getValue()));
+        }
+        return table;
+    }
+
+    private void put(Object key, JsonNode value) {
+        if (key == null) {
+            nullValue = value;
+        } else if (key instanceof String) {
+            strings.put((String) key, value);
+        } else if (key instanceof Boolean) {
+            if ((Boolean) key) {
+                trueValue = value;
+            } else {
+                falseValue = value;
+            }
+        } else if (key instanceof Byte || key instanceof Short || key instanceof Integer || key instanceof Long) {
+            longs.put(((Number) key).longValue(), value);
+        } else if (key instanceof Float || key instanceof Double) {
+            doubles.put(doubleKey(((Number) key).doubleValue()), value);
+        } else if (key instanceof BigInteger && ((BigInteger) key).bitLength() < Long.SIZE) {
+            longs.put(((BigInteger) key).longValue(), value);
+        } else {
+            others.put(key, value);
+        }
+    }
+
+    /**
+     * Returns the value that the given node maps to, or {@code null} if it is
+     * not mapped.
+     */
+    public JsonNode get(JsonNode node) {
+        JsonNode result;
+        if (node == null || node.isNull()) {
+            result = nullValue;
+        } else if (node.isTextual()) {
+            result = strings.get(node.textValue());
+        } else if (node.isBoolean()) {
+            result = node.booleanValue() ? trueValue : falseValue;
+        } else if (node.isIntegralNumber() && node.canConvertToLong()) {
+            result = longs.get(node.longValue());
+        } else if (node.isDouble() || node.isFloat()) {
+            result = doubles.get(doubleKey(node.doubleValue()));
+        } else if (node.isNumber()) {
+            result = others.get(node.numberValue());
+        } else {
+            result = null;
+        }
+        return copy(result);
+    }
+
+    /**
+     * Returns a lookup for nodes of the given JSON Schema type, which tests
+     * for that type first. A node of another type is looked up as by
+     * {@link #get}.
+     */
+    public UnaryOperator<JsonNode> lookup(String type) {
+        switch (type) {
+            case "string":
+                return node -> node != null && node.isTextual() ? copy(strings.get(node.textValue())) : get(node);
+            case "integer":
+                return node -> node != null && node.isIntegralNumber() && node.canConvertToLong()
+                    ? copy(longs.get(node.longValue()))
+                    : get(node);
+            case "boolean":
+                return node -> node != null && node.isBoolean()
+                    ? copy(node.booleanValue() ? trueValue : falseValue)
+                    : get(node);
+            default:
+                return this::get;
+        }
+    }
+
+    private static JsonNode copy(JsonNode result) {
+        return result != null && result.isContainerNode() ? result.deepCopy() : result;
+    }
+
+    private static long doubleKey(double value) {
+        // -0.0 and 0.0 are equal, as are all NaNs
+        return Double.doubleToLongBits(value == 0.0 ? 0.0 : value);
+    }
+
+    /**
+     * An open addressing hash table from {@code long} keys to non-null nodes.
+     */
+    private static final class LongTable {
+        private long[] keys = new long[8];
+        private JsonNode[] values = new JsonNode[8];
+        private int size;
+
+        JsonNode get(long key) {
+            int mask = keys.length - 1;
+            for (int i = index(key, mask); values[i] != null; i = (i + 1) & mask) {
+                if (keys[i] == key) {
+                    return values[i];
+                }
+            }
+            return null;
+        }
+
+        void put(long key, JsonNode value) {
+            if (2 * (size + 1) > keys.length) {
+                resize();
+            }
+            int mask = keys.length - 1;
+            int i = index(key, mask);
+            while (values[i] != null && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (values[i] == null) {
+                size++;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        private void resize() {
+            long[] oldKeys = keys;
+            JsonNode[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new JsonNode[oldValues.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldValues[i] != null) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int index(long key, int mask) {
+            return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        }
+    }
+}
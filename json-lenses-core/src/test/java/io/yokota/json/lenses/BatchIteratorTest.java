@@ -0,0 +1,98 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BatchIteratorTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ "
+        + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"add\", \"name\": \"description\", \"defaultValue\": \"\" }, "
+        + "{ \"type\": \"convert\", \"name\": \"status\", \"mapping\": { "
+        + "\"forward\": { \"todo\": false, \"done\": true }, "
+        + "\"reverse\": { \"false\": \"todo\", \"true\": \"done\" } } } ]";
+
+    @Test
+    public void testPreservesOrderAndCapturesErrors() throws Exception {
+        List<LensOp> lens = mapper.readValue(LENS, new TypeReference<List<LensOp>>() {
+        });
+        List<JsonNode> docs = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            // every 100th document has a status with no mapping
+            String status = i % 100 == 42 ? "unknown" : i % 2 == 0 ? "todo" : "done";
+            docs.add(mapper.readTree("{ \"title\": \"task" + i + "\", \"status\": \"" + status + "\" }"));
+        }
+
+        List<LensResult> results = JsonLenses.applyLensToDocs(lens, docs);
+
+        assertThat(results).hasSize(docs.size());
+        for (int i = 0; i < docs.size(); i++) {
+            LensResult result = results.get(i);
+            assertThat(result.getIndex()).isEqualTo(i);
+            assertThat(result.getInput()).isSameAs(docs.get(i));
+            if (i % 100 == 42) {
+                assertThat(result.isSuccess()).isFalse();
+                assertThat(result.getError()).isInstanceOf(IllegalArgumentException.class);
+                assertThatThrownBy(result::get).isSameAs(result.getError());
+            } else {
+                assertThat(result.getOutput())
+                    .isEqualTo(JsonLenses.applyLensToDoc(lens, docs.get(i), null));
+            }
+        }
+    }
+
+    @Test
+    public void testBoundsDocumentsInFlight() throws Exception {
+        CompiledLens lens = JsonLenses.compile(
+            mapper.readValue(LENS, new TypeReference<List<LensOp>>() {
+            }));
+        JsonNode doc = mapper.readTree("{ \"title\": \"task\", \"status\": \"done\" }");
+        AtomicInteger read = new AtomicInteger();
+        AtomicBoolean closed = new AtomicBoolean();
+        Stream<JsonNode> docs = IntStream.range(0, 10_000)
+            .mapToObj(i -> {
+                read.incrementAndGet();
+                return doc;
+            })
+            .onClose(() -> closed.set(true));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (Stream<LensResult> results = lens.applyToDocs(docs, executor, 16)) {
+            Iterator<LensResult> it = results.iterator();
+            for (int i = 0; i < 100; i++) {
+                assertThat(it.next().getIndex()).isEqualTo(i);
+                assertThat(read.get()).isLessThanOrEqualTo(i + 1 + 16);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(read.get()).isLessThan(200);
+        assertThat(closed.get()).isTrue();
+    }
+
+    @Test
+    public void testRejectsEmptyWindow() {
+        CompiledLens lens = JsonLenses.compile(new ArrayList<>());
+        assertThatThrownBy(() -> lens.applyToDocs(Stream.empty(), Runnable::run, 0))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+}
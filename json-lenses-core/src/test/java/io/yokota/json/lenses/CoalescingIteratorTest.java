@@ -0,0 +1,90 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flipkart.zjsonpatch.JsonPatch;
+import com.flipkart.zjsonpatch.JsonPatchApplicationException;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.Iterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class CoalescingIteratorTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    @Test
+    public void testFoldsExpandedDoc() throws Exception {
+        ObjectNode doc = mapper.createObjectNode();
+        ArrayNode items = doc.putArray("items");
+        for (int i = 0; i < 1000; i++) {
+            ObjectNode item = items.addObject();
+            item.put("id", i);
+            item.putArray("tags").add("a").add("b");
+        }
+        doc.put("title", "x");
+        ArrayNode patch = expand(doc);
+
+        ArrayNode coalesced = JsonLenses.coalescePatch(patch);
+
+        assertThat(patch.size()).isGreaterThan(5000);
+        assertThat(coalesced).hasSize(2);
+        assertThat(JsonPatch.apply(coalesced, mapper.createObjectNode())).isEqualTo(doc);
+        assertThat(JsonPatch.apply(patch, mapper.createObjectNode())).isEqualTo(doc);
+    }
+
+    @Test
+    public void testKeepsPatchSemantics() throws Exception {
+        ArrayNode patch = (ArrayNode) mapper.readTree("[ "
+            + "{ \"op\": \"add\", \"path\": \"/a\", \"value\": [ ] }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/0\", \"value\": 1 }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/-\", \"value\": 3 }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/1\", \"value\": 2 }, "
+            + "{ \"op\": \"replace\", \"path\": \"/a/0\", \"value\": 0 }, "
+            + "{ \"op\": \"add\", \"path\": \"/b\", \"value\": { \"x\": 1 } }, "
+            + "{ \"op\": \"replace\", \"path\": \"/b\", \"value\": { \"y\": 2 } }, "
+            + "{ \"op\": \"add\", \"path\": \"/b/z\", \"value\": { } }, "
+            + "{ \"op\": \"remove\", \"path\": \"/b/y\" }, "
+            + "{ \"op\": \"move\", \"from\": \"/b/z\", \"path\": \"/c\" }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/1\", \"value\": 9 } ]");
+        JsonNode original = patch.deepCopy();
+        JsonNode doc = mapper.readTree("{ \"a\": \"old\", \"b\": 1 }");
+
+        ArrayNode coalesced = JsonLenses.coalescePatch(patch);
+
+        assertThat(coalesced).hasSize(4);
+        assertThat(JsonPatch.apply(coalesced, doc)).isEqualTo(JsonPatch.apply(patch, doc))
+            .isEqualTo(mapper.readTree("{ \"a\": [ 0, 9, 2, 3 ], \"b\": { }, \"c\": { } }"));
+        assertThat(patch).isEqualTo(original);
+    }
+
+    @Test
+    public void testPassesOnFailingOp() throws Exception {
+        ArrayNode patch = (ArrayNode) mapper.readTree("[ "
+            + "{ \"op\": \"add\", \"path\": \"/a\", \"value\": [ ] }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/0\", \"value\": 1 }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/5\", \"value\": 2 } ]");
+
+        ArrayNode coalesced = JsonLenses.coalescePatch(patch);
+
+        assertThat(coalesced).hasSize(2);
+        assertThat(coalesced.get(1)).isEqualTo(patch.get(2));
+        assertThatThrownBy(() -> JsonPatch.apply(coalesced, mapper.createObjectNode()))
+            .isInstanceOf(JsonPatchApplicationException.class);
+    }
+
+    private static ArrayNode expand(JsonNode doc) {
+        ArrayNode patch = mapper.createArrayNode();
+        for (Iterator<String> it = doc.fieldNames(); it.hasNext(); ) {
+            String name = it.next();
+            new ExpansionIterator(new PatchOp(PatchOp.Op.ADD, new String[]{name}, doc.get(name)))
+                .forEachRemaining(op -> patch.add(op.toJson()));
+        }
+        return patch;
+    }
+}
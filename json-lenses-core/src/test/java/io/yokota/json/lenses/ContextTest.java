@@ -0,0 +1,67 @@
+package io.yokota.json.lenses;
+
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensOp;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ContextTest {
+
+    @Test
+    public void testFreeze() {
+        List<LensOp> lens = Arrays.asList(
+            new AddProperty("a", "x"),
+            new AddProperty("b", Collections.emptyMap()),
+            new LensIn("b", Collections.singletonList(new AddProperty("c", 1))));
+        Context ctx = new Context();
+        lens.forEach(l -> l.apply(ctx));
+        List<String> names = new ArrayList<>(ctx.getSubcontexts().keySet());
+
+        assertThat(ctx.freeze()).isSameAs(ctx);
+
+        assertThat(ctx.isFrozen()).isTrue();
+        assertThat(ctx.getSubcontext("b").isFrozen()).isTrue();
+        assertThat(ctx.getSubcontexts().keySet()).containsExactlyElementsOf(names);
+        assertThat(ctx.getSubcontextForPath("/b/0/c").getDefaultValue()).isEqualTo(1);
+        assertThat(ctx.getSubcontextForPath(new String[]{"b", "c"}).getDefaultValue()).isEqualTo(1);
+        assertThatThrownBy(() -> ctx.setSubcontext("d", new Context()))
+            .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> ctx.getSubcontext("a").setDefaultValue("y"))
+            .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> ctx.getSubcontexts().remove("a"))
+            .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testFrozenLookupDoesNotCreate() {
+        Context ctx = new Context();
+        ctx.getSubcontext("a").setDefaultValue("x");
+        ctx.freeze();
+
+        Context missing = ctx.getSubcontextForPath(new String[]{"b", "0", "c"});
+
+        assertThat(missing.getDefaultValue()).isNull();
+        assertThat(missing.getSubcontexts()).isEmpty();
+        assertThat(ctx.getSubcontext("d")).isSameAs(missing);
+        assertThat(ctx.getSubcontexts().keySet()).containsExactly("a");
+        assertThat(ctx.findSubcontextForPath(new String[]{"b"})).isNull();
+    }
+
+    @Test
+    public void testUnfrozenLookupCreates() {
+        Context ctx = new Context();
+
+        Context created = ctx.getSubcontextForPath("/a/0/b");
+
+        assertThat(created.isFrozen()).isFalse();
+        assertThat(ctx.findSubcontextForPath(new String[]{"a", "b"})).isSameAs(created);
+    }
+}
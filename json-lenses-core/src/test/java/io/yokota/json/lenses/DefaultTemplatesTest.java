@@ -0,0 +1,89 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DefaultTemplatesTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ "
+        + "{ \"type\": \"add\", \"name\": \"version\", \"defaultValue\": 1 }, "
+        + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+        + "{ \"type\": \"add\", \"name\": \"color\", \"defaultValue\": \"#ffffff\" }, "
+        + "{ \"type\": \"add\", \"name\": \"props\", \"defaultValue\": { } }, "
+        + "{ \"type\": \"in\", \"name\": \"props\", \"lens\": [ "
+        + "{ \"type\": \"add\", \"name\": \"flag\", \"defaultValue\": true }, "
+        + "{ \"type\": \"add\", \"name\": \"tags\", \"defaultValue\": [ ] } ] } ] } ] } ]";
+
+    @Test
+    public void testTemplates() throws Exception {
+        List<LensOp> lens = mapper.readValue(LENS, new TypeReference<List<LensOp>>() {
+        });
+        DefaultTemplates defaults = new DefaultTemplates(TreeEngine.context(lens));
+
+        assertThat(defaults.newRoot()).isEqualTo(mapper.readTree("{ \"version\": 1 }"));
+        assertThat(defaults.templateForPath(new String[]{"tasks", "7"})).isEqualTo(mapper.readTree(
+            "{ \"color\": \"#ffffff\", \"props\": { \"flag\": true, \"tags\": [ ] } }"));
+        assertThat(defaults.templateForPath(new String[]{"tasks", "7", "props"}))
+            .isEqualTo(mapper.readTree("{ \"flag\": true, \"tags\": [ ] }"));
+        assertThat(defaults.templateForPath(new String[]{"missing"})).isNull();
+    }
+
+    @Test
+    public void testCopiesContainersAndSharesScalars() throws Exception {
+        CompiledLens lens = JsonLenses.compile(
+            mapper.readValue(LENS, new TypeReference<List<LensOp>>() {
+            }));
+        JsonNode doc = mapper.readTree("{ \"tasks\": [ { \"title\": \"a\" }, { \"title\": \"b\" } ] }");
+
+        JsonNode first = lens.apply(doc);
+        JsonNode second = lens.apply(doc);
+        assertThat(first).isEqualTo(JsonLenses.applyLensToDoc(lens.getOps(), doc, null));
+
+        JsonNode task0 = first.get("tasks").get(0);
+        JsonNode task1 = first.get("tasks").get(1);
+        assertThat(task0.get("props")).isNotSameAs(task1.get("props"));
+        assertThat(task0.get("props").get("tags")).isNotSameAs(task1.get("props").get("tags"));
+        assertThat(task0.get("color")).isSameAs(task1.get("color"));
+
+        ((ObjectNode) task0.get("props")).put("flag", false);
+        assertThat(second.get("tasks").get(0).get("props").get("flag").booleanValue()).isTrue();
+        assertThat(lens.apply(doc)).isEqualTo(second);
+    }
+
+    @Test
+    public void testSizesObjectsBySchema() throws Exception {
+        List<LensOp> lens = mapper.readValue(LENS, new TypeReference<List<LensOp>>() {
+        });
+        DefaultTemplates defaults = new DefaultTemplates(TreeEngine.context(lens));
+        ObjectNode wide = mapper.createObjectNode();
+        for (int i = 0; i < 20; i++) {
+            wide.putObject("p" + i).put("type", "string");
+        }
+        ObjectNode schema = mapper.createObjectNode();
+        schema.set("properties", wide.deepCopy());
+        schema.with("properties").putObject("tasks").putObject("items").set("properties", wide);
+        schema.with("properties").putObject("small").putObject("properties").putObject("a");
+
+        DefaultTemplates sized = defaults.withSchema(schema);
+
+        assertThat(defaults.newObject(new String[0])).isNull();
+        assertThat(sized.newObject(new String[0])).isEqualTo(mapper.createObjectNode());
+        assertThat(sized.newObject(new String[]{"tasks", "3"})).isEqualTo(mapper.createObjectNode());
+        assertThat(sized.newObject(new String[]{"small"})).isNull();
+        assertThat(sized.newObject(new String[]{"missing", "a"})).isNull();
+        assertThat(sized.newRoot()).isEqualTo(defaults.newRoot());
+        assertThat(sized.templateForPath(new String[]{"tasks", "7"}))
+            .isEqualTo(defaults.templateForPath(new String[]{"tasks", "7"}));
+    }
+}
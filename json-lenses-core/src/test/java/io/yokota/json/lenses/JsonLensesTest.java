@@ -1,6 +1,7 @@
 package io.yokota.json.lenses;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -29,6 +30,7 @@ import java.util.List;
 import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class JsonLensesTest {
 
@@ -76,7 +78,7 @@ public class JsonLensesTest {
         // works with whole doc conversion too
         String docStr = "{ \"title\": \"hello\" }";
         JsonNode doc = mapper.readTree(docStr);
-        ObjectNode result = (ObjectNode) JsonLenses.applyLensToDoc(lensSource, doc, null);
+        ObjectNode result = (ObjectNode) applyLensToDoc(lensSource, doc);
         assertThat(result.get("description").textValue()).isEqualTo("");
         assertThat(result.get("name").textValue()).isEqualTo("hello");
     }
@@ -147,7 +149,7 @@ public class JsonLensesTest {
         // works with whole doc conversion
         String docStr = "{ \"metadata\": { \"title\": \"hello\" } }";
         JsonNode doc = mapper.readTree(docStr);
-        ObjectNode result = (ObjectNode) JsonLenses.applyLensToDoc(lensSource, doc, null);
+        ObjectNode result = (ObjectNode) applyLensToDoc(lensSource, doc);
         assertThat(result.get("metadata").get("name").textValue()).isEqualTo("hello");
 
         // doesn't rename another field
@@ -223,7 +225,7 @@ public class JsonLensesTest {
         // TODO fix
         //String docStr = "{ \"color\": \"orange\", \"tags\": { } }";
         JsonNode doc = mapper.readTree(docStr);
-        ObjectNode result = (ObjectNode) JsonLenses.applyLensToDoc(lensSource, doc, null);
+        ObjectNode result = (ObjectNode) applyLensToDoc(lensSource, doc);
         assertThat(result.get("tags").get("color").textValue()).isEqualTo("orange");
 
         // pushes a field into its child
@@ -366,6 +368,13 @@ public class JsonLensesTest {
         checkPatch((ObjectNode) lensedPatch.get(0), "replace", "/assignee/0", "July 7th, 2020");
     }
 
+    @Test
+    public void testHeadOfAddedArray() throws Exception {
+        // the array default of an added property does not outlive the head that makes it a scalar
+        List<LensOp> lens = List.of(new AddProperty("tags", Collections.emptyList()), new HeadProperty("tags"));
+        assertThat(applyLensToDoc(lens, mapper.readTree("{}"))).isEqualTo(mapper.readTree("{}"));
+    }
+
     @Test
     public void testPatchExpander() throws Exception {
         // expands a patch that sets an object
@@ -489,12 +498,125 @@ public class JsonLensesTest {
         RenameProperty rename1 = new RenameProperty("height", "heightInches");
         lensSource.add(new LensIn("details", Collections.singletonList(rename1)));
 
-        ObjectNode result = (ObjectNode) JsonLenses.applyLensToDoc(lensSource, doc, null);
+        ObjectNode result = (ObjectNode) applyLensToDoc(lensSource, doc);
         docStr = "{ \"name\": \"hello\", \"details\": { \"age\": 23, \"heightInches\": 64 } }";
         doc = mapper.readTree(docStr);
         assertThat(result).isEqualTo(doc);
     }
 
+    @Test
+    public void testCompiledLens() throws Exception {
+        List<LensOp> lensSource = new ArrayList<>();
+        lensSource.add(new RenameProperty("title", "name"));
+        lensSource.add(new LensIn("metadata",
+            Collections.singletonList(new RenameProperty("height", "heightInches"))));
+        CompiledLens lens = JsonLenses.compile(lensSource);
+
+        // reverse is computed once and points back at the forward lens
+        assertThat(lens.reverse().reverse()).isSameAs(lens);
+        assertThat(lens.reverse().getOps()).isEqualTo(JsonLenses.reverse(lensSource));
+
+        String docStr = "{ \"title\": \"hello\", \"metadata\": { \"height\": 64 } }";
+        JsonNode doc = mapper.readTree(docStr);
+        JsonNode result = lens.apply(doc);
+        assertThat(result).isEqualTo(JsonLenses.applyLensToDoc(lensSource, doc, null));
+        assertThat(lens.reverse().apply(result)).isEqualTo(doc);
+
+        String patchStr = "{ \"op\": \"replace\", \"path\": \"/metadata/height\", \"value\": 65 }";
+        ArrayNode lensedPatch = lens.applyToPatch(createPatch(patchStr));
+        checkPatch((ObjectNode) lensedPatch.get(0), "replace", "/metadata/heightInches", 65);
+
+        // does not match another property that starts with the same string
+        patchStr = "{ \"op\": \"replace\", \"path\": \"/metadata2/height\", \"value\": 65 }";
+        lensedPatch = lens.applyToPatch(createPatch(patchStr));
+        checkPatch((ObjectNode) lensedPatch.get(0), "replace", "/metadata2/height", 65);
+    }
+
+    @Test
+    public void testLensOfFrom() throws Exception {
+        List<LensOp> rename = readLens("[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" } ]");
+        assertLensed(rename, "{ \"op\": \"move\", \"from\": \"/title/0\", \"path\": \"/title/1\" }",
+            "{ \"op\": \"move\", \"from\": \"/name/0\", \"path\": \"/name/1\" }");
+        assertLensed(rename, "{ \"op\": \"copy\", \"from\": \"/title\", \"path\": \"/other\" }",
+            "{ \"op\": \"copy\", \"from\": \"/name\", \"path\": \"/other\" }");
+
+        // the source path is lensed at every level of the lens, whether or not the path is
+        List<LensOp> nested = readLens("[ { \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ "
+            + "{ \"type\": \"map\", \"lens\": [ { \"type\": \"rename\", \"source\": \"title\", "
+            + "\"target\": \"label\" } ] } ] }, "
+            + "{ \"type\": \"hoist\", \"host\": \"meta\", \"name\": \"created\" }, "
+            + "{ \"type\": \"head\", \"name\": \"tags\" }, "
+            + "{ \"type\": \"remove\", \"name\": \"secret\" } ]");
+        assertLensed(nested, "{ \"op\": \"move\", \"from\": \"/tasks/0/title\", \"path\": \"/tasks/1/title\" }",
+            "{ \"op\": \"move\", \"from\": \"/tasks/0/label\", \"path\": \"/tasks/1/label\" }");
+        assertLensed(nested, "{ \"op\": \"copy\", \"from\": \"/tasks/0/title\", \"path\": \"/other\" }",
+            "{ \"op\": \"copy\", \"from\": \"/tasks/0/label\", \"path\": \"/other\" }");
+        assertLensed(nested, "{ \"op\": \"move\", \"from\": \"/meta/created\", \"path\": \"/tasks/0/title\" }",
+            "{ \"op\": \"move\", \"from\": \"/created\", \"path\": \"/tasks/0/label\" }");
+        assertLensed(nested, "{ \"op\": \"copy\", \"from\": \"/tags/0\", \"path\": \"/first\" }",
+            "{ \"op\": \"copy\", \"from\": \"/tags\", \"path\": \"/first\" }");
+        assertLensed(nested, "{ \"op\": \"move\", \"from\": \"/other\", \"path\": \"/secret\" }", null);
+        assertThatThrownBy(() -> JsonLenses.applyLensToPatchOp(nested,
+            mapper.readTree("{ \"op\": \"move\", \"from\": \"/secret\", \"path\": \"/other\" }")))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("Cannot lens a move from /secret, which the lens drops");
+
+        // an op applied on its own lenses the source path below it as the lens does
+        PatchOp move = PatchOp.fromJson(mapper.readTree(
+            "{ \"op\": \"move\", \"from\": \"/tasks/0/title\", \"path\": \"/x\" }"));
+        assertThat(nested.get(0).apply(move)).isEqualTo(JsonLenses.applyLensToPatchOp(nested, move));
+    }
+
+    @Test
+    public void testOpLensingJsonOnly() throws Exception {
+        // a custom op that only lenses JSON patch nodes is run through JSON by every backend
+        LensOp drop = new LensOp() {
+            @Override
+            public void apply(Context ctx) {
+            }
+
+            @Override
+            public JsonNode apply(JsonNode patchOp) {
+                return patchOp.get("path").textValue().startsWith("/secret") ? null : patchOp;
+            }
+
+            @Override
+            public LensOp reverse() {
+                return this;
+            }
+        };
+        List<LensOp> lens = List.of(new RenameProperty("title", "secret"), drop);
+        assertLensed(lens, "{ \"op\": \"add\", \"path\": \"/title\", \"value\": \"x\" }", null);
+        assertLensed(lens, "{ \"op\": \"add\", \"path\": \"/other\", \"value\": \"x\" }",
+            "{ \"op\": \"add\", \"path\": \"/other\", \"value\": \"x\" }");
+        assertThat(applyLensToDoc(lens, mapper.readTree("{ \"title\": \"x\", \"other\": 1 }")))
+            .isEqualTo(mapper.readTree("{ \"other\": 1 }"));
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+
+    private void assertLensed(List<LensOp> lens, String patchOp, String expected) throws Exception {
+        JsonNode result = JsonLenses.applyLensToPatchOp(lens, mapper.readTree(patchOp));
+        assertThat(result).isEqualTo(expected != null ? mapper.readTree(expected) : null);
+
+        // the indexed and specialized backends lens the source path the same way
+        ArrayNode expectedPatch = expected != null ? createPatch(expected) : JsonNodeFactory.instance.arrayNode();
+        assertThat(JsonLenses.applyLensToPatch(lens, createPatch(patchOp))).isEqualTo(expectedPatch);
+        assertThat(JsonLenses.compile(lens, false, false).applyToPatch(createPatch(patchOp))).isEqualTo(expectedPatch);
+        assertThat(JsonLenses.compile(lens, false, true).applyToPatch(createPatch(patchOp))).isEqualTo(expectedPatch);
+    }
+
+    private JsonNode applyLensToDoc(List<LensOp> lens, JsonNode doc) {
+        // every document case doubles as a differential test of the tree engine
+        JsonNode expected = JsonLenses.applyLensToDoc(lens, doc, null);
+        JsonNode actual = TreeEngine.apply(lens, doc, null);
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+        return expected;
+    }
+
     private ArrayNode createPatch(String patchStr) throws JsonProcessingException {
         JsonNode patch = mapper.readTree(patchStr);
         ArrayNode patches = JsonNodeFactory.instance.arrayNode();
@@ -0,0 +1,95 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LensEventTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String EVENT = "io.yokota.json.lenses.Lens";
+
+    private static final String LENS = "[ { \"type\": \"remove\", \"name\": \"secret\" }, "
+        + "{ \"type\": \"add\", \"name\": \"props\", \"defaultValue\": { } }, "
+        + "{ \"type\": \"in\", \"name\": \"props\", \"lens\": [ "
+        + "{ \"type\": \"add\", \"name\": \"flag\", \"defaultValue\": true } ] } ]";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testDocAndPatchEvents() throws Exception {
+        List<LensOp> ops = readLens(LENS);
+        CompiledLens lens = JsonLenses.compile(ops);
+        JsonNode doc = mapper.readTree("{ \"title\": \"x\", \"secret\": \"y\", \"props\": { } }");
+
+        List<RecordedEvent> events = record(true, () -> {
+            lens.apply(doc);
+            lens.applyToPatch((ArrayNode) mapper.readTree(
+                "[ { \"op\": \"add\", \"path\": \"/props\", \"value\": { } } ]"));
+        });
+
+        assertThat(events).hasSize(2);
+        RecordedEvent docEvent = events.get(0);
+        assertThat(docEvent.getInt("lens")).isEqualTo(ops.hashCode());
+        assertThat(docEvent.getInt("lensOps")).isEqualTo(3);
+        assertThat(docEvent.getString("input")).isEqualTo("doc");
+        assertThat(docEvent.getLong("leaves")).isEqualTo(3);
+        assertThat(docEvent.getLong("expanded")).isEqualTo(3);
+        assertThat(docEvent.getLong("dropped")).isEqualTo(1);
+        assertThat(docEvent.getLong("defaults")).isEqualTo(1);
+        RecordedEvent patchEvent = events.get(1);
+        assertThat(patchEvent.getString("input")).isEqualTo("patch");
+        assertThat(patchEvent.getLong("expanded")).isEqualTo(1);
+        assertThat(patchEvent.getLong("defaults")).isEqualTo(1);
+    }
+
+    @Test
+    public void testDisabledByDefault() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+
+        List<RecordedEvent> events = record(false, () -> lens.apply(mapper.readTree("{ \"a\": 1 }")));
+
+        assertThat(events).isEmpty();
+    }
+
+    private List<RecordedEvent> record(boolean enable, Action action) throws Exception {
+        Path file = dir.resolve("lens.jfr");
+        try (Recording recording = new Recording()) {
+            if (enable) {
+                recording.enable(EVENT);
+            }
+            recording.start();
+            action.run();
+            recording.stop();
+            recording.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+            .filter(e -> e.getEventType().getName().equals(EVENT))
+            .collect(Collectors.toList());
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
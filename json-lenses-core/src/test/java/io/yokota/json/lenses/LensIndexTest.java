@@ -0,0 +1,191 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.ValueMapping;
+import io.yokota.json.lenses.ops.WrapProperty;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LensIndexTest {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private static final String[] SEGMENTS = {"a", "b", "c", "0", "1"};
+
+    @Test
+    public void testSameAsSequential() {
+        for (long seed = 0; seed < 2000; seed++) {
+            Random random = new Random(seed);
+            List<LensOp> lens = randomLens(random, 2);
+            LensIndex index = new LensIndex(lens);
+            for (int i = 0; i < 20; i++) {
+                PatchOp patchOp = randomPatchOp(random);
+                assertThat(lens(index, patchOp))
+                    .as("seed %d, patch op %s", seed, patchOp)
+                    .isEqualTo(lens(lens, patchOp));
+            }
+        }
+    }
+
+    @Test
+    public void testRelocate() {
+        for (long seed = 0; seed < 2000; seed++) {
+            Random random = new Random(seed);
+            List<LensOp> lens = randomLens(random, 2);
+            LensIndex index = new LensIndex(lens);
+            String[] path = randomPatchOp(random).getPath();
+            String[] relocated = index.relocate(path);
+            if (relocated == null) {
+                continue;
+            }
+            // the container itself, and anything written below it
+            for (int i = 0; i < 20; i++) {
+                PatchOp patchOp = i == 0
+                    ? new PatchOp(PatchOp.Op.ADD, path, NODES.objectNode())
+                    : below(path, randomPatchOp(random));
+                if (!patchOp.isWrite() || patchOp.getPath().length == path.length && i > 0) {
+                    continue;
+                }
+                String[] rest = Arrays.copyOfRange(patchOp.getPath(), path.length, patchOp.getPath().length);
+                assertThat(lens(lens, patchOp))
+                    .as("seed %d, patch op %s", seed, patchOp)
+                    .isEqualTo(new PatchOp(patchOp.getOp(), concat(relocated, rest), patchOp.getValue()));
+            }
+        }
+    }
+
+    @Test
+    public void testSubclassIsAlwaysVisited() {
+        List<String> seen = new ArrayList<>();
+        LensOp rename = new RenameProperty("a", "b") {
+            @Override
+            public PatchOp apply(PatchOp patchOp) {
+                seen.add(PatchOp.toPointer(patchOp.getPath()));
+                return super.apply(patchOp);
+            }
+        };
+        LensIndex index = new LensIndex(Arrays.asList(new RenameProperty("c", "a"), rename));
+
+        PatchOp result = index.apply(new PatchOp(PatchOp.Op.ADD, new String[]{"c"}, NODES.textNode("x")));
+
+        assertThat(result.getPath()).containsExactly("b");
+        assertThat(index.apply(new PatchOp(PatchOp.Op.ADD, new String[]{"d"}, NODES.textNode("x"))).getPath())
+            .containsExactly("d");
+        assertThat(seen).containsExactly("/a", "/d");
+    }
+
+    private static Object lens(LensIndex index, PatchOp patchOp) {
+        try {
+            return index.apply(patchOp);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static Object lens(List<LensOp> lens, PatchOp patchOp) {
+        try {
+            return JsonLenses.applyLensToPatchOp(lens, patchOp);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static PatchOp below(String[] path, PatchOp patchOp) {
+        return patchOp.withPath(concat(path, patchOp.getPath()));
+    }
+
+    private static String[] concat(String[] a, String[] b) {
+        String[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+
+    private static PatchOp randomPatchOp(Random random) {
+        String[] path = randomPath(random);
+        switch (random.nextInt(6)) {
+            case 0:
+                return new PatchOp(PatchOp.Op.REMOVE, path, null);
+            case 1:
+                return new PatchOp(PatchOp.Op.REPLACE, path, NODES.textNode("x"));
+            case 2:
+                return new PatchOp(PatchOp.Op.ADD, path, NullNode.getInstance());
+            case 3:
+                return new PatchOp(PatchOp.Op.ADD, path, NODES.textNode(random.nextBoolean() ? "x" : "y"));
+            case 4:
+                return new PatchOp(PatchOp.Op.MOVE, randomPath(random), path, null);
+            default:
+                return new PatchOp(PatchOp.Op.COPY, randomPath(random), path, null);
+        }
+    }
+
+    private static String[] randomPath(Random random) {
+        String[] path = new String[random.nextInt(4)];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = SEGMENTS[random.nextInt(SEGMENTS.length)];
+        }
+        return path;
+    }
+
+    private static List<LensOp> randomLens(Random random, int depth) {
+        List<LensOp> lens = new ArrayList<>();
+        int size = random.nextInt(8);
+        for (int i = 0; i < size; i++) {
+            String name = SEGMENTS[random.nextInt(SEGMENTS.length)];
+            String other = SEGMENTS[random.nextInt(SEGMENTS.length)];
+            switch (random.nextInt(depth > 0 ? 11 : 9)) {
+                case 0:
+                    lens.add(new AddProperty(name, "x"));
+                    break;
+                case 1:
+                    lens.add(new RemoveProperty(name, "x"));
+                    break;
+                case 2:
+                    lens.add(new RenameProperty(name, other));
+                    break;
+                case 3:
+                    lens.add(new HoistProperty(name, other));
+                    break;
+                case 4:
+                    lens.add(new PlungeProperty(name, other));
+                    break;
+                case 5:
+                    lens.add(new WrapProperty(name));
+                    break;
+                case 6:
+                    lens.add(new HeadProperty(name));
+                    break;
+                case 7:
+                case 8:
+                    lens.add(new ConvertValue(name, new ValueMapping(
+                        new HashMap<>(Map.of("x", "y")), new HashMap<>(Map.of("y", "x")))));
+                    break;
+                case 9:
+                    lens.add(new LensIn(name, randomLens(random, depth - 1)));
+                    break;
+                default:
+                    lens.add(new LensMap(randomLens(random, depth - 1)));
+                    break;
+            }
+        }
+        return lens;
+    }
+}
@@ -0,0 +1,368 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.ValueMapping;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+public class LensOptimizerTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private static final String[] NAMES = {"a", "b", "c", "d"};
+    private static final Object[] VALUES = {"x", "y", "z", 1, 2, true, null};
+
+    static Stream<Arguments> rewrites() {
+        return Stream.of(
+            arguments("[ { \"type\": \"remove\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]",
+                "[ { \"type\": \"remove\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"c\" } ]"),
+            arguments("[ { \"type\": \"rename\", \"source\": \"b\", \"target\": \"d\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"a\" } ]",
+                "[ { \"type\": \"rename\", \"source\": \"b\", \"target\": \"d\" } ]"),
+            // a property already at b would be renamed to c as well
+            arguments("[ { \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]",
+                "[ { \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]"),
+            // the first rename would replace the default of b
+            arguments("[ { \"type\": \"add\", \"name\": \"b\", \"defaultValue\": 1 }, "
+                    + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]",
+                "[ { \"type\": \"add\", \"name\": \"b\", \"defaultValue\": 1 }, "
+                    + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]"),
+            arguments("[ { \"type\": \"add\", \"name\": \"a\", \"defaultValue\": 1 }, "
+                    + "{ \"type\": \"remove\", \"name\": \"a\", \"defaultValue\": 2 } ]",
+                "[ { \"type\": \"remove\", \"name\": \"a\", \"defaultValue\": 2 } ]"),
+            arguments("[ { \"type\": \"in\", \"name\": \"a\", \"lens\": [ "
+                    + "{ \"type\": \"remove\", \"name\": \"c\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ] }, "
+                    + "{ \"type\": \"in\", \"name\": \"a\", \"lens\": [ "
+                    + "{ \"type\": \"rename\", \"source\": \"c\", \"target\": \"d\" } ] } ]",
+                "[ { \"type\": \"in\", \"name\": \"a\", \"lens\": [ "
+                    + "{ \"type\": \"remove\", \"name\": \"c\" }, "
+                    + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"d\" } ] } ]"),
+            arguments("[ { \"type\": \"in\", \"name\": \"a\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+                    + "{ \"type\": \"wrap\", \"name\": \"b\" } ] }, { \"type\": \"map\", \"lens\": [ "
+                    + "{ \"type\": \"head\", \"name\": \"c\" } ] } ] } ]",
+                "[ { \"type\": \"in\", \"name\": \"a\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+                    + "{ \"type\": \"wrap\", \"name\": \"b\" }, { \"type\": \"head\", \"name\": \"c\" } ] } ] } ]"),
+            arguments("[ { \"type\": \"remove\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"add\", \"name\": \"a\", \"defaultValue\": { } }, "
+                    + "{ \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" } ]",
+                "[ { \"type\": \"remove\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"add\", \"name\": \"a\", \"defaultValue\": { } } ]"),
+            // the plunge would also move a property already at b
+            arguments("[ { \"type\": \"add\", \"name\": \"a\", \"defaultValue\": { } }, "
+                    + "{ \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" } ]",
+                "[ { \"type\": \"add\", \"name\": \"a\", \"defaultValue\": { } }, "
+                    + "{ \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" } ]"),
+            // the hoist would create the subcontext of a
+            arguments("[ { \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" } ]",
+                "[ { \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" } ]"),
+            arguments("[ { \"type\": \"remove\", \"name\": \"a\" }, "
+                    + "{ \"type\": \"add\", \"name\": \"a\", \"defaultValue\": { } }, "
+                    + "{ \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" }, "
+                    + "{ \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" } ]",
+                "[ { \"type\": \"remove\", \"name\": \"a\" }, "
+                    + "{ \"type\": \"add\", \"name\": \"a\", \"defaultValue\": { } } ]"),
+            arguments("[ { \"type\": \"convert\", \"name\": \"a\", \"mapping\": { "
+                    + "\"forward\": { \"x\": \"y\", \"y\": \"z\" }, \"reverse\": { \"y\": \"x\", \"z\": \"y\" } } }, "
+                    + "{ \"type\": \"convert\", \"name\": \"a\", \"mapping\": { "
+                    + "\"forward\": { \"y\": 1 }, \"reverse\": { \"1\": \"y\" } } } ]",
+                "[ { \"type\": \"convert\", \"name\": \"a\", \"mapping\": { "
+                    + "\"forward\": { \"x\": 1 }, \"reverse\": { \"1\": \"x\" } } } ]")
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("rewrites")
+    public void testRewrite(String lensExpr, String expectedExpr) throws Exception {
+        List<LensOp> lens = readLens(lensExpr);
+        List<LensOp> expected = readLens(expectedExpr);
+
+        assertThat(JsonLenses.optimize(lens)).isEqualTo(expected);
+    }
+
+    @Test
+    public void testCompileOptimized() throws Exception {
+        List<LensOp> lens = readLens("[ { \"type\": \"remove\", \"name\": \"b\" }, "
+            + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+            + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]");
+        JsonNode doc = mapper.readTree("{ \"a\": 1 }");
+
+        CompiledLens compiled = JsonLenses.compile(lens, true);
+
+        assertThat(compiled.getOps()).isEqualTo(lens);
+        assertThat(compiled.getExecutedOps()).hasSize(2);
+        assertThat(compiled.reverse().getOps()).isEqualTo(JsonLenses.reverse(lens));
+        assertThat(compiled.reverse().getExecutedOps())
+            .isEqualTo(JsonLenses.optimize(JsonLenses.reverse(lens)));
+        assertThat(compiled.apply(doc)).isEqualTo(mapper.readTree("{ \"c\": 1 }"));
+    }
+
+    /**
+     * Checks on random lenses and documents that the optimized lens gives the
+     * same result, or fails in the same way, as the original.
+     */
+    @Test
+    public void testEquivalentOnRandomDocs() {
+        int optimized = 0;
+        for (long seed = 0; seed < 2000; seed++) {
+            Random random = new Random(seed);
+            List<LensOp> lens = randomLens(random, 2);
+            List<LensOp> optimizedLens = JsonLenses.optimize(lens);
+            List<LensOp> reverseLens = JsonLenses.reverse(lens);
+            List<LensOp> optimizedReverseLens = JsonLenses.optimize(reverseLens);
+            if (count(optimizedLens) < count(lens)) {
+                optimized++;
+            }
+            for (int i = 0; i < 10; i++) {
+                JsonNode doc = randomObject(random, 3);
+                assertEquivalent(seed, lens, optimizedLens, doc);
+                assertEquivalent(seed, reverseLens, optimizedReverseLens, doc);
+            }
+        }
+        assertThat(optimized).isGreaterThan(500);
+    }
+
+    private static void assertEquivalent(long seed, List<LensOp> lens, List<LensOp> optimizedLens,
+                                         JsonNode doc) {
+        Supplier<String> description = () -> "seed " + seed + ", lens " + writeLens(lens)
+            + ", optimized " + writeLens(optimizedLens) + ", doc " + doc;
+        JsonNode expected = lensDoc(lens, doc);
+        JsonNode actual = lensDoc(optimizedLens, doc);
+        assertThat(actual).as(description).isEqualTo(expected);
+        ArrayNode patch = randomPatch(doc);
+        assertThat(lensPatch(optimizedLens, patch)).as(description).isEqualTo(lensPatch(lens, patch));
+    }
+
+    private static JsonNode lensDoc(List<LensOp> lens, JsonNode doc) {
+        try {
+            return JsonLenses.applyLensToDoc(lens, doc, null);
+        } catch (RuntimeException e) {
+            return NODES.textNode("failed");
+        }
+    }
+
+    private static JsonNode lensPatch(List<LensOp> lens, ArrayNode patch) {
+        try {
+            // compare the ops themselves, as some of them do not apply to an empty document
+            return JsonLenses.applyLensToPatch(lens, patch);
+        } catch (RuntimeException e) {
+            return NODES.textNode("failed");
+        }
+    }
+
+    private static ArrayNode randomPatch(JsonNode doc) {
+        ArrayNode patch = NODES.arrayNode();
+        for (String name : NAMES) {
+            if (doc.has(name)) {
+                patch.add(new PatchOp(PatchOp.Op.REPLACE, new String[]{name}, doc.get(name)).toJson());
+            }
+        }
+        return patch;
+    }
+
+    private static int count(List<LensOp> lens) {
+        int result = 0;
+        for (LensOp op : lens) {
+            result++;
+            if (op instanceof LensIn) {
+                result += count(((LensIn) op).getLens());
+            } else if (op instanceof LensMap) {
+                result += count(((LensMap) op).getLens());
+            }
+        }
+        return result;
+    }
+
+    private static List<LensOp> randomLens(Random random, int depth) {
+        List<LensOp> lens = new ArrayList<>();
+        int size = random.nextInt(6);
+        for (int i = 0; i < size; i++) {
+            String name = name(random);
+            String other = name(random);
+            switch (random.nextInt(depth > 0 ? 12 : 10)) {
+                case 0:
+                    lens.add(new AddProperty(name, randomDefault(random)));
+                    break;
+                case 1:
+                    lens.add(new RemoveProperty(name, randomDefault(random)));
+                    break;
+                case 2:
+                    // a chain of renames, as schema evolution tends to produce,
+                    // often through a name that an earlier version removed
+                    if (random.nextBoolean()) {
+                        lens.add(new RemoveProperty(other, randomDefault(random)));
+                    }
+                    lens.add(new RenameProperty(name, other));
+                    lens.add(new RenameProperty(other, name(random)));
+                    break;
+                case 3:
+                    lens.add(new RenameProperty(name, other));
+                    break;
+                case 4:
+                    if (random.nextBoolean()) {
+                        lens.add(new RemoveProperty(other, randomDefault(random)));
+                    }
+                    lens.add(new HoistProperty(name, other));
+                    if (random.nextBoolean()) {
+                        lens.add(new PlungeProperty(name, other));
+                    }
+                    break;
+                case 5:
+                    if (random.nextBoolean()) {
+                        lens.add(new RemoveProperty(name, randomDefault(random)));
+                        lens.add(new AddProperty(name, new HashMap<>()));
+                    }
+                    lens.add(new PlungeProperty(name, other));
+                    if (random.nextBoolean()) {
+                        lens.add(new HoistProperty(name, other));
+                    }
+                    break;
+                case 6:
+                    lens.add(new WrapProperty(name));
+                    break;
+                case 7:
+                    lens.add(new HeadProperty(name));
+                    break;
+                case 8:
+                    lens.add(new ConvertValue(name, randomMapping(random)));
+                    break;
+                case 9:
+                    lens.add(new AddProperty(name, randomDefault(random)));
+                    lens.add(random.nextBoolean()
+                        ? new RemoveProperty(name, randomDefault(random))
+                        : new AddProperty(name, randomDefault(random)));
+                    break;
+                case 10:
+                    lens.add(new LensIn(name, randomLens(random, depth - 1)));
+                    if (random.nextBoolean()) {
+                        lens.add(new LensIn(name, randomLens(random, depth - 1)));
+                    }
+                    break;
+                default:
+                    lens.add(new LensMap(randomLens(random, depth - 1)));
+                    if (random.nextBoolean()) {
+                        lens.add(new LensMap(randomLens(random, depth - 1)));
+                    }
+                    break;
+            }
+        }
+        return lens;
+    }
+
+    private static ValueMapping randomMapping(Random random) {
+        Map<Object, Object> forward = new HashMap<>();
+        Map<Object, Object> reverse = new HashMap<>();
+        // JSON cannot express a null key
+        for (Object value : Arrays.copyOf(VALUES, VALUES.length - 1)) {
+            if (random.nextInt(4) > 0) {
+                forward.put(value, VALUES[random.nextInt(VALUES.length)]);
+            }
+            if (random.nextInt(4) > 0) {
+                reverse.put(value, VALUES[random.nextInt(VALUES.length)]);
+            }
+        }
+        return new ValueMapping(forward, reverse);
+    }
+
+    private static Object randomDefault(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                return new HashMap<>();
+            case 1:
+                return new ArrayList<>();
+            default:
+                return VALUES[random.nextInt(VALUES.length - 1)];
+        }
+    }
+
+    private static JsonNode randomObject(Random random, int depth) {
+        ObjectNode node = NODES.objectNode();
+        for (String name : NAMES) {
+            if (random.nextInt(3) == 0) {
+                node.set(name, randomValue(random, depth - 1));
+            }
+        }
+        return node;
+    }
+
+    private static JsonNode randomValue(Random random, int depth) {
+        switch (random.nextInt(depth > 0 ? 4 : 2)) {
+            case 0:
+            case 1:
+                Object value = VALUES[random.nextInt(VALUES.length)];
+                return mapper.valueToTree(value);
+            case 2:
+                return randomObject(random, depth);
+            default:
+                ArrayNode array = NODES.arrayNode();
+                int size = random.nextInt(3);
+                for (int i = 0; i < size; i++) {
+                    array.add(randomValue(random, depth - 1));
+                }
+                return array;
+        }
+    }
+
+    private static String name(Random random) {
+        return NAMES[random.nextInt(NAMES.length)];
+    }
+
+    private static String writeLens(List<LensOp> lens) {
+        try {
+            return mapper.writerFor(new TypeReference<List<LensOp>>() {
+            }).writeValueAsString(lens);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
@@ -0,0 +1,221 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.flipkart.zjsonpatch.JsonPatch;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LensSessionTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"convert\", \"name\": \"status\", \"mapping\": { "
+        + "\"forward\": { \"open\": \"todo\", \"closed\": \"done\" }, "
+        + "\"reverse\": { \"todo\": \"open\", \"done\": \"closed\" } } }, "
+        + "{ \"type\": \"head\", \"name\": \"tags\" }, "
+        + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+        + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"label\" }, "
+        + "{ \"type\": \"add\", \"name\": \"color\", \"defaultValue\": \"#ffffff\" } ] } ] } ]";
+
+    private static final String DOC = "{ \"title\": \"hello\", \"status\": \"open\", "
+        + "\"tags\": [ \"x\", \"y\" ], \"tasks\": [ { \"title\": \"t0\", \"done\": false } ] }";
+
+    @Test
+    public void testRemoveIsRenamed() throws Exception {
+        LensSession session = newSession();
+
+        assertThat(apply(session, "{ \"op\": \"remove\", \"path\": \"/title\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"remove\", \"path\": \"/name\" } ]"));
+    }
+
+    @Test
+    public void testMoveIsKeptWhenLensedAlike() throws Exception {
+        LensSession session = newSession();
+
+        assertThat(apply(session, "{ \"op\": \"move\", \"from\": \"/title\", \"path\": \"/other\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"move\", \"from\": \"/name\", \"path\": \"/other\" } ]"));
+        assertThat(apply(session, "{ \"op\": \"copy\", \"from\": \"/tasks/0\", \"path\": \"/tasks/-\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"copy\", \"from\": \"/tasks/0\", \"path\": \"/tasks/1\" } ]"));
+    }
+
+    @Test
+    public void testMoveIsSplitWhenLensedDifferently() throws Exception {
+        LensSession session = newSession();
+
+        assertThat(apply(session, "{ \"op\": \"move\", \"from\": \"/status\", \"path\": \"/other\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"remove\", \"path\": \"/status\" }, "
+                + "{ \"op\": \"add\", \"path\": \"/other\", \"value\": \"open\" } ]"));
+    }
+
+    @Test
+    public void testRemoveOfHeadWritesNextHead() throws Exception {
+        LensSession session = newSession();
+
+        assertThat(apply(session, "{ \"op\": \"remove\", \"path\": \"/tags/0\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"replace\", \"path\": \"/tags\", \"value\": \"y\" } ]"));
+        assertThat(apply(session, "{ \"op\": \"remove\", \"path\": \"/tags/0\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"replace\", \"path\": \"/tags\", \"value\": null } ]"));
+        assertThat(apply(session, "{ \"op\": \"add\", \"path\": \"/tags/-\", \"value\": \"z\" }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"add\", \"path\": \"/tags\", \"value\": \"z\" } ]"));
+    }
+
+    @Test
+    public void testAppendIsLensed() throws Exception {
+        LensSession session = newSession();
+
+        assertThat(apply(session, "{ \"op\": \"add\", \"path\": \"/tasks/-\", "
+            + "\"value\": { \"title\": \"t1\" } }"))
+            .isEqualTo(mapper.readTree("[ { \"op\": \"add\", \"path\": \"/tasks/1\", \"value\": { } }, "
+                + "{ \"op\": \"add\", \"path\": \"/tasks/1/color\", \"value\": \"#ffffff\" }, "
+                + "{ \"op\": \"add\", \"path\": \"/tasks/1/label\", \"value\": \"t1\" } ]"));
+    }
+
+    @Test
+    public void testTest() throws Exception {
+        LensSession session = newSession();
+
+        assertThat(apply(session, "{ \"op\": \"test\", \"path\": \"/title\", \"value\": \"hello\" }"))
+            .isEmpty();
+        assertThatThrownBy(() -> apply(session, "{ \"op\": \"test\", \"path\": \"/title\", \"value\": \"x\" }"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testFailedOpLeavesSourceUnchanged() throws Exception {
+        LensSession session = newSession();
+        JsonNode before = session.getSourceDoc().deepCopy();
+
+        assertThatThrownBy(() -> apply(session, "{ \"op\": \"move\", \"from\": \"/title\", "
+            + "\"path\": \"/missing/title\" }"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> apply(session, "{ \"op\": \"replace\", \"path\": \"/missing\", "
+            + "\"value\": 1 }"))
+            .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(session.getSourceDoc()).isEqualTo(before);
+    }
+
+    @Test
+    public void testUnlensedOpLeavesSourceUnchanged() throws Exception {
+        LensSession session = newSession();
+        JsonNode before = session.getSourceDoc().deepCopy();
+
+        // the status is converted, and a value with no mapping cannot be lensed
+        assertThatThrownBy(() -> apply(session, "{ \"op\": \"replace\", \"path\": \"/status\", "
+            + "\"value\": \"zzz\" }"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> apply(session, "{ \"op\": \"copy\", \"from\": \"/title\", "
+            + "\"path\": \"/status\" }"))
+            .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> apply(session, "{ \"op\": \"move\", \"from\": \"/title\", "
+            + "\"path\": \"/status\" }"))
+            .isInstanceOf(IllegalArgumentException.class);
+
+        assertThat(session.getSourceDoc()).isEqualTo(before);
+        assertThat(session.getSourceDoc().toString()).isEqualTo(before.toString());
+    }
+
+    @Test
+    public void testMatchesLensedDocOnRandomOps() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        for (int seed = 0; seed < 200; seed++) {
+            Random random = new Random(seed);
+            JsonNode source = mapper.readTree(DOC);
+            LensSession session = lens.newSession(source);
+            JsonNode target = lens.apply(source);
+            for (int i = 0; i < 50; i++) {
+                JsonNode patchOp = randomOp(random, source);
+                ArrayNode patch = JsonNodeFactory.instance.arrayNode().add(patchOp);
+                ArrayNode lensed = session.apply(patch);
+                source = JsonPatch.apply(patch, source);
+                target = JsonPatch.apply(lensed, target);
+
+                assertThat(session.getSourceDoc()).isEqualTo(source);
+                assertThat(target)
+                    .describedAs("seed %d, op %s", seed, patchOp)
+                    .isEqualTo(lens.apply(source));
+            }
+        }
+    }
+
+    private static JsonNode randomOp(Random random, JsonNode doc) {
+        ObjectNode op = JsonNodeFactory.instance.objectNode();
+        int tags = doc.get("tags").size();
+        int tasks = doc.get("tasks").size();
+        String title = doc.has("title") ? "/title" : "/other";
+        switch (random.nextInt(9)) {
+            case 0:
+                return op.put("op", "add").put("path", "/title").put("value", "v" + random.nextInt(10));
+            case 1:
+                return op.put("op", "replace").put("path", "/status")
+                    .put("value", random.nextBoolean() ? "open" : "closed");
+            case 2:
+                if (doc.has("title") == doc.has("other")) {
+                    return op.put("op", "remove").put("path", title);
+                }
+                return op.put("op", "move").put("from", title)
+                    .put("path", title.equals("/title") ? "/other" : "/title");
+            case 3:
+                return op.put("op", "add").put("path", "/tags/" + (random.nextBoolean()
+                    ? "-" : String.valueOf(random.nextInt(tags + 1)))).put("value", "t" + random.nextInt(10));
+            case 4:
+                // the head of an empty array lenses to null rather than to nothing, so keep one
+                if (tags < 2) {
+                    return op.put("op", "test").put("path", "/tags/0").set("value", doc.get("tags").get(0));
+                }
+                return op.put("op", "remove").put("path", "/tags/" + random.nextInt(tags));
+            case 5:
+                return op.put("op", "move").put("from", "/tags/" + random.nextInt(tags))
+                    .put("path", "/tags/" + random.nextInt(tags));
+            case 6:
+                ObjectNode task = JsonNodeFactory.instance.objectNode()
+                    .put("title", "t" + random.nextInt(10)).put("done", random.nextBoolean());
+                return op.put("op", "add").put("path", "/tasks/" + random.nextInt(tasks + 1)).set("value", task);
+            case 7:
+                if (tasks == 0) {
+                    return op.put("op", "add").put("path", "/tasks/-").set("value",
+                        JsonNodeFactory.instance.objectNode().put("title", "t"));
+                }
+                if (random.nextBoolean()) {
+                    return op.put("op", "replace").put("path", "/tasks/" + random.nextInt(tasks) + "/title")
+                        .set("value", TextNode.valueOf("r" + random.nextInt(10)));
+                }
+                return op.put("op", random.nextBoolean() ? "remove" : "copy")
+                    .put("from", "/tasks/" + random.nextInt(tasks))
+                    .put("path", "/tasks/" + random.nextInt(tasks));
+            default:
+                if (tasks < 2) {
+                    return op.put("op", "copy").put("from", "/status").put("path", "/other2");
+                }
+                return op.put("op", "move").put("from", "/tasks/" + random.nextInt(tasks))
+                    .put("path", "/tasks/" + random.nextInt(tasks));
+        }
+    }
+
+    private static LensSession newSession() throws Exception {
+        return JsonLenses.compile(readLens(LENS)).newSession(mapper.readTree(DOC));
+    }
+
+    private static JsonNode apply(LensSession session, String patchOp) throws Exception {
+        return session.apply((ArrayNode) mapper.readTree("[ " + patchOp + " ]"));
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
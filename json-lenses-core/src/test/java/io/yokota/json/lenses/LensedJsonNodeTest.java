@@ -0,0 +1,152 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LensedJsonNodeTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"remove\", \"name\": \"summary\" }, "
+        + "{ \"type\": \"add\", \"name\": \"priority\", \"defaultValue\": 1 }, "
+        + "{ \"type\": \"convert\", \"name\": \"status\", \"mapping\": { "
+        + "\"forward\": { \"open\": \"todo\", \"closed\": \"done\" }, "
+        + "\"reverse\": { \"todo\": \"open\", \"done\": \"closed\" } } }, "
+        + "{ \"type\": \"head\", \"name\": \"tags\" }, "
+        + "{ \"type\": \"wrap\", \"name\": \"owner\" }, "
+        + "{ \"type\": \"hoist\", \"host\": \"meta\", \"name\": \"created\" }, "
+        + "{ \"type\": \"plunge\", \"host\": \"meta\", \"name\": \"updated\" }, "
+        + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+        + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"label\" } ] } ] } ]";
+
+    private static final String DOC = "{ \"title\": \"hello\", \"summary\": \"s\", \"status\": \"open\", "
+        + "\"tags\": [ \"x\", \"y\" ], \"owner\": \"me\", \"meta\": { \"created\": 1, \"by\": \"me\" }, "
+        + "\"updated\": 2, \"tasks\": [ { \"title\": \"t\" } ], \"other\": { \"a\": [ 1 ] } }";
+
+    @Test
+    public void testMatchesApply() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        JsonNode doc = mapper.readTree(DOC);
+        JsonNode expected = lens.apply(doc);
+
+        for (String name : Arrays.asList("name", "title", "summary", "priority", "status", "tags", "owner",
+            "meta", "created", "updated", "tasks", "other", "missing")) {
+            JsonNode view = lens.applyLazily(doc);
+            assertThat(view.get(name)).as(name).isEqualTo(expected.get(name));
+        }
+        JsonNode view = lens.applyLazily(doc);
+        assertThat(view).isInstanceOf(LensedJsonNode.class);
+        assertThat(view).isEqualTo(expected);
+        assertThat(view.toString()).isEqualTo(expected.toString());
+        assertThat(view.at("/meta/updated").intValue()).isEqualTo(2);
+        // the source is left as it was
+        assertThat(doc).isEqualTo(mapper.readTree(DOC));
+    }
+
+    @Test
+    public void testTargetNamesInSource() throws Exception {
+        List<String> lenses = Arrays.asList(LENS,
+            "[ { \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" } ]",
+            "[ { \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+                + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" } ]",
+            "[ { \"type\": \"hoist\", \"host\": \"a\", \"name\": \"b\" } ]",
+            "[ { \"type\": \"plunge\", \"host\": \"a\", \"name\": \"b\" } ]");
+        List<String> docs = Arrays.asList(DOC,
+            "{ \"a\": 1, \"b\": 2 }",
+            "{ \"b\": 1, \"c\": 2 }",
+            "{ \"c\": 1, \"b\": 2, \"a\": 3 }",
+            "{ \"a\": { \"b\": 1, \"c\": 2 }, \"b\": 3, \"name\": \"n\", \"created\": 4 }");
+        for (String lensStr : lenses) {
+            CompiledLens lens = JsonLenses.compile(readLens(lensStr));
+            for (String docStr : docs) {
+                JsonNode doc = mapper.readTree(docStr);
+                JsonNode expected;
+                try {
+                    expected = lens.apply(doc);
+                } catch (IllegalArgumentException e) {
+                    // such as a hoist out of a value that is not an object
+                    continue;
+                }
+                List<String> names = new ArrayList<>();
+                doc.fieldNames().forEachRemaining(names::add);
+                expected.fieldNames().forEachRemaining(names::add);
+                names.addAll(Arrays.asList("a", "b", "c", "name", "title", "created", "updated", "missing"));
+                for (String name : names) {
+                    JsonNode view = lens.applyLazily(doc);
+                    assertThat(view.get(name)).as(lensStr + " " + docStr + " " + name)
+                        .isEqualTo(expected.get(name));
+                    // reading a property first does not change the rest of the view
+                    assertThat(fieldNames(view)).isEqualTo(fieldNames(expected));
+                    assertThat(view.size()).isEqualTo(expected.size());
+                    assertThat(view.get(name)).isEqualTo(expected.get(name));
+                    assertThat(view).isEqualTo(expected);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLensesOnlyWhatIsRead() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        ObjectNode doc = (ObjectNode) mapper.readTree(DOC);
+        // a value that the lens cannot convert
+        doc.put("status", "unknown");
+
+        JsonNode view = lens.applyLazily(doc);
+
+        assertThat(view.get("name").textValue()).isEqualTo("hello");
+        assertThat(view.path("priority").intValue()).isEqualTo(1);
+        assertThatThrownBy(() -> view.get("status")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(view::size).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testMemoizedAndReadOnly() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        ObjectNode view = (ObjectNode) lens.applyLazily(mapper.readTree(DOC));
+
+        JsonNode meta = view.get("meta");
+        assertThat(view.get("meta")).isSameAs(meta);
+        assertThat(view.size()).isEqualTo(lens.apply(mapper.readTree(DOC)).size());
+        assertThat(view.get("meta")).isSameAs(meta);
+        assertThatThrownBy(() -> view.put("name", "x")).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> view.remove("name")).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void testUnknownOps() throws Exception {
+        List<LensOp> ops = new ArrayList<>(readLens(LENS));
+        ops.add(new RenameProperty("other", "another") {
+        });
+        CompiledLens lens = JsonLenses.compile(ops);
+        JsonNode doc = mapper.readTree(DOC);
+
+        assertThat(LensedJsonNode.sourceNames(ops, "another")).isNull();
+        assertThat(lens.applyLazily(doc).get("another")).isEqualTo(lens.apply(doc).get("another"));
+    }
+
+    private static List<String> fieldNames(JsonNode node) {
+        List<String> names = new ArrayList<>();
+        node.fieldNames().forEachRemaining(names::add);
+        return names;
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
@@ -0,0 +1,129 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LensedPatchIteratorTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"add\", \"name\": \"props\", \"defaultValue\": { } }, "
+        + "{ \"type\": \"in\", \"name\": \"props\", \"lens\": [ "
+        + "{ \"type\": \"add\", \"name\": \"flag\", \"defaultValue\": true } ] } ]";
+
+    private static final int DEPTH = 5000;
+
+    @Test
+    public void testSameAsArrayPatch() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        ArrayNode patch = (ArrayNode) mapper.readTree("[ "
+            + "{ \"op\": \"add\", \"path\": \"/title\", \"value\": \"hello\" }, "
+            + "{ \"op\": \"add\", \"path\": \"/other\", \"value\": { \"a\": [ 1, { } ], \"b\": { } } }, "
+            + "{ \"op\": \"replace\", \"path\": \"/props\", \"value\": { } }, "
+            + "{ \"op\": \"remove\", \"path\": \"/title\" } ]");
+        List<PatchOp> input = new ArrayList<>();
+        patch.forEach(op -> input.add(PatchOp.fromJson(op)));
+
+        ArrayNode actual = JsonNodeFactory.instance.arrayNode();
+        lens.applyToPatch(input.iterator()).forEachRemaining(op -> actual.add(op.toJson()));
+
+        assertThat(actual).isEqualTo(lens.applyToPatch(patch));
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        AtomicInteger read = new AtomicInteger();
+        Iterator<PatchOp> input = Stream.iterate(0, i -> i + 1)
+            .peek(i -> read.incrementAndGet())
+            .map(i -> new PatchOp(PatchOp.Op.ADD, new String[]{"title" + i},
+                JsonNodeFactory.instance.numberNode(i)))
+            .iterator();
+
+        Iterator<PatchOp> output = lens.applyToPatch(input);
+        output.next();
+        output.next();
+
+        assertThat(read.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void testDeeplyNested() throws Throwable {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        ObjectNode doc = JsonNodeFactory.instance.objectNode();
+        ObjectNode node = doc.putObject("title");
+        for (int i = 0; i < DEPTH; i++) {
+            node = node.putObject("child");
+        }
+        node.put("leaf", true);
+
+        // a small stack, on which recursing per level would overflow
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        AtomicInteger count = new AtomicInteger();
+        AtomicReference<JsonNode> output = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                PatchOp root = new PatchOp(PatchOp.Op.ADD, new String[0], doc);
+                lens.applyToPatch(Collections.singletonList(root).iterator())
+                    .forEachRemaining(op -> count.incrementAndGet());
+                output.set(lens.apply(doc));
+            } catch (Throwable t) {
+                error.set(t);
+            }
+        }, "deep", 256 * 1024);
+        thread.start();
+        thread.join();
+        if (error.get() != null) {
+            throw error.get();
+        }
+
+        // the root, the renamed title, every level, the leaf, and the two defaults
+        assertThat(count.get()).isEqualTo(DEPTH + 5);
+        JsonNode result = output.get().get("name");
+        for (int i = 0; i < DEPTH; i++) {
+            result = result.get("child");
+        }
+        assertThat(result.get("leaf").booleanValue()).isTrue();
+        assertThat(output.get().get("props").get("flag").booleanValue()).isTrue();
+    }
+
+    @Test
+    public void testFlattenDeeplyNested() {
+        List<Object> nested = new ArrayList<>(Arrays.asList(1, null));
+        List<Object> list = nested;
+        for (int i = 0; i < DEPTH; i++) {
+            List<Object> child = new ArrayList<>();
+            list.add(child);
+            list = child;
+        }
+        list.add(2);
+
+        List<Integer> flattened = JsonLenses.flatten(Stream.of(nested, 3));
+
+        assertThat(flattened).containsExactly(1, 2, 3);
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
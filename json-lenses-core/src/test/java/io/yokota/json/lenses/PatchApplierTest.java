@@ -0,0 +1,183 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.flipkart.zjsonpatch.JsonPatch;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PatchApplierTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String[] NAMES = {"a", "b", "c", "d"};
+
+    @Test
+    public void testDocumentOrder() throws Exception {
+        Random random = new Random(42);
+        for (int trial = 0; trial < 200; trial++) {
+            JsonNode doc = randomObject(random, 4);
+            ArrayNode patch = mapper.createArrayNode();
+            for (Iterator<String> it = doc.fieldNames(); it.hasNext(); ) {
+                String name = it.next();
+                new ExpansionIterator(new PatchOp(PatchOp.Op.ADD, new String[]{name}, doc.get(name)))
+                    .forEachRemaining(op -> patch.add(op.toJson()));
+            }
+            JsonNode base = mapper.readTree("{ \"a\": 0, \"z\": [ 1 ] }");
+
+            assertThat(JsonLenses.applyPatch(patch, base)).isEqualTo(JsonPatch.apply(patch, base));
+        }
+    }
+
+    @Test
+    public void testRandomPatches() throws Exception {
+        Random random = new Random(7);
+        int failures = 0;
+        for (int trial = 0; trial < 500; trial++) {
+            JsonNode expected = randomObject(random, 3);
+            PatchApplier applier = new PatchApplier(expected.deepCopy(), false, false);
+            for (int i = 0; i < 30; i++) {
+                PatchOp op = randomOp(random, expected);
+                ArrayNode patch = mapper.createArrayNode().add(op.toJson());
+                JsonNode next;
+                try {
+                    next = JsonPatch.apply(patch, expected);
+                } catch (RuntimeException e) {
+                    // JsonPatch fails on some invalid array indexes with exceptions other
+                    // than its own, and a failed op may leave the document changed, so
+                    // the trial ends
+                    assertThatThrownBy(() -> applier.apply(op)).isInstanceOf(IllegalArgumentException.class);
+                    failures++;
+                    break;
+                }
+                applier.apply(op);
+                assertThat(applier.getOutput()).isEqualTo(next);
+                expected = next;
+            }
+        }
+        assertThat(failures).isGreaterThan(50);
+    }
+
+    @Test
+    public void testDoesNotChangeInputs() throws Exception {
+        ArrayNode patch = (ArrayNode) mapper.readTree("[ "
+            + "{ \"op\": \"add\", \"path\": \"/a\", \"value\": { } }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/b\", \"value\": [ ] }, "
+            + "{ \"op\": \"add\", \"path\": \"/a/b/-\", \"value\": 1 }, "
+            + "{ \"op\": \"add\", \"path\": \"/c/0\", \"value\": 2 } ]");
+        JsonNode originalPatch = patch.deepCopy();
+        JsonNode doc = mapper.readTree("{ \"c\": [ 3 ] }");
+
+        JsonNode result = JsonLenses.applyPatch(patch, doc);
+
+        assertThat(result).isEqualTo(mapper.readTree("{ \"c\": [ 2, 3 ], \"a\": { \"b\": [ 1 ] } }"));
+        assertThat(patch).isEqualTo(originalPatch);
+        assertThat(doc).isEqualTo(mapper.readTree("{ \"c\": [ 3 ] }"));
+    }
+
+    private static PatchOp randomOp(Random random, JsonNode doc) {
+        List<String[]> paths = new ArrayList<>();
+        collect(doc, new String[0], paths);
+        String[] existing = paths.get(random.nextInt(paths.size()));
+        switch (random.nextInt(7)) {
+            case 0:
+            case 1:
+                return new PatchOp(PatchOp.Op.ADD, target(random, doc, paths), randomValue(random, 2));
+            case 2:
+                return new PatchOp(PatchOp.Op.REMOVE, random.nextInt(10) == 0
+                    ? target(random, doc, paths) : existing, null);
+            case 3:
+                return new PatchOp(PatchOp.Op.REPLACE, random.nextInt(10) == 0
+                    ? target(random, doc, paths) : existing, randomValue(random, 2));
+            case 4:
+                return new PatchOp(PatchOp.Op.MOVE, existing, target(random, doc, paths), null);
+            case 5:
+                return new PatchOp(PatchOp.Op.COPY, existing, target(random, doc, paths), null);
+            default:
+                return new PatchOp(PatchOp.Op.TEST, existing, random.nextBoolean()
+                    ? TreeEngine.get(doc, existing, existing.length) : randomValue(random, 1));
+        }
+    }
+
+    /**
+     * Returns a path to add at, below a random container of the document or,
+     * now and then, below a scalar or a missing field.
+     */
+    private static String[] target(Random random, JsonNode doc, List<String[]> paths) {
+        String[] parentPath = paths.get(random.nextInt(paths.size()));
+        if (random.nextInt(10) == 0) {
+            parentPath = TreeEngine.append(parentPath, "x");
+        } else {
+            JsonNode parent = TreeEngine.get(doc, parentPath, parentPath.length);
+            if (!parent.isContainerNode() && random.nextInt(4) != 0) {
+                parentPath = new String[0];
+            }
+        }
+        JsonNode parent = get(doc, parentPath);
+        String last;
+        if (parent != null && parent.isArray()) {
+            int index = random.nextInt(parent.size() + 3) - 1;
+            last = index < 0 ? "-" : String.valueOf(index);
+        } else {
+            last = NAMES[random.nextInt(NAMES.length)];
+        }
+        return TreeEngine.append(parentPath, last);
+    }
+
+    private static JsonNode get(JsonNode doc, String[] path) {
+        try {
+            return TreeEngine.get(doc, path, path.length);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static void collect(JsonNode node, String[] path, List<String[]> paths) {
+        paths.add(path);
+        if (node.isObject()) {
+            node.fields().forEachRemaining(f -> collect(f.getValue(), TreeEngine.append(path, f.getKey()), paths));
+        } else if (node.isArray()) {
+            for (int i = 0; i < node.size(); i++) {
+                collect(node.get(i), TreeEngine.append(path, String.valueOf(i)), paths);
+            }
+        }
+    }
+
+    private static JsonNode randomValue(Random random, int depth) {
+        switch (depth > 0 ? random.nextInt(5) : random.nextInt(3)) {
+            case 0:
+                return JsonNodeFactory.instance.numberNode(random.nextInt(3));
+            case 1:
+                return JsonNodeFactory.instance.textNode(NAMES[random.nextInt(NAMES.length)]);
+            case 2:
+                return JsonNodeFactory.instance.nullNode();
+            case 3:
+                return randomObject(random, depth - 1);
+            default:
+                ArrayNode array = JsonNodeFactory.instance.arrayNode();
+                for (int i = random.nextInt(4); i > 0; i--) {
+                    array.add(randomValue(random, depth - 1));
+                }
+                return array;
+        }
+    }
+
+    private static ObjectNode randomObject(Random random, int depth) {
+        ObjectNode object = JsonNodeFactory.instance.objectNode();
+        for (int i = random.nextInt(4); i > 0; i--) {
+            object.set(NAMES[random.nextInt(NAMES.length)], randomValue(random, depth));
+        }
+        return object;
+    }
+}
@@ -0,0 +1,76 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PatchOpTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    @Test
+    public void testPointers() {
+        assertThat(PatchOp.parsePointer("")).isEmpty();
+        assertThat(PatchOp.parsePointer("/")).containsExactly("");
+        assertThat(PatchOp.parsePointer("/a/0/")).containsExactly("a", "0", "");
+        assertThat(PatchOp.parsePointer("/a~1b/c~0d/~01")).containsExactly("a/b", "c~d", "~1");
+        assertThat(PatchOp.toPointer(new String[]{"a/b", "c~d", "~1"})).isEqualTo("/a~1b/c~0d/~01");
+        assertThatThrownBy(() -> PatchOp.parsePointer("a/b"))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        for (String json : new String[]{
+            "{\"op\":\"add\",\"path\":\"/a/0\",\"value\":{\"b\":1}}",
+            "{\"op\":\"remove\",\"path\":\"/a\"}",
+            "{\"op\":\"move\",\"from\":\"/a\",\"path\":\"/b\"}"}) {
+            assertThat(PatchOp.fromJson(mapper.readTree(json)).toJson().toString()).isEqualTo(json);
+        }
+        assertThatThrownBy(() -> PatchOp.fromJson(mapper.readTree("{\"op\":\"frob\",\"path\":\"\"}")))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testLensSharesValue() throws Exception {
+        List<LensOp> lens = Collections.singletonList(new LensIn("tasks", Collections.singletonList(
+            new LensMap(List.of(new RenameProperty("title", "name"), new WrapProperty("name"))))));
+        JsonNode value = mapper.readTree("{\"text\":\"hello\"}");
+        PatchOp patchOp = new PatchOp(PatchOp.Op.ADD, new String[]{"tasks", "3", "title"}, value);
+
+        PatchOp lensed = JsonLenses.applyLensToPatchOp(lens, patchOp);
+        assertThat(lensed.getPath()).containsExactly("tasks", "3", "name", "0");
+        assertThat(lensed.getValue()).isSameAs(value);
+        // the input op is unchanged
+        assertThat(patchOp.getPath()).containsExactly("tasks", "3", "title");
+    }
+
+    @Test
+    public void testCopiesPaths() {
+        String[] from = {"a"};
+        String[] path = {"b", "0"};
+        PatchOp patchOp = new PatchOp(PatchOp.Op.MOVE, from, path, null);
+        from[0] = "x";
+        path[0] = "x";
+        patchOp.getFrom()[0] = "y";
+        patchOp.getPath()[0] = "y";
+        assertThat(patchOp.getFrom()).containsExactly("a");
+        assertThat(patchOp.getPath()).containsExactly("b", "0");
+
+        PatchOp moved = patchOp.withPath(path);
+        path[1] = "1";
+        assertThat(moved.getPath()).containsExactly("x", "0");
+    }
+}
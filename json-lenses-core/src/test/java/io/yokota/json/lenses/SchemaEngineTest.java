@@ -0,0 +1,125 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class SchemaEngineTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final String LENS = "[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"remove\", \"name\": \"summary\" }, "
+        + "{ \"type\": \"add\", \"name\": \"priority\", \"defaultValue\": 1 }, "
+        + "{ \"type\": \"convert\", \"name\": \"status\", \"mapping\": { "
+        + "\"forward\": { \"open\": \"todo\", \"closed\": \"done\" }, "
+        + "\"reverse\": { \"todo\": \"open\", \"done\": \"closed\" } } }, "
+        + "{ \"type\": \"head\", \"name\": \"tags\" }, "
+        + "{ \"type\": \"wrap\", \"name\": \"owner\" }, "
+        + "{ \"type\": \"hoist\", \"host\": \"meta\", \"name\": \"created\" }, "
+        + "{ \"type\": \"plunge\", \"host\": \"meta\", \"name\": \"updated\" }, "
+        + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+        + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"label\" } ] } ] } ]";
+
+    private static final String SCHEMA = "{ \"type\": \"object\", \"additionalProperties\": false, "
+        + "\"required\": [ \"title\", \"meta\" ], "
+        + "\"properties\": { \"title\": { \"type\": \"string\" }, \"summary\": { \"type\": \"string\" }, "
+        + "\"status\": { \"type\": \"string\" }, \"tags\": { \"type\": \"array\", "
+        + "\"items\": { \"type\": \"string\" } }, \"owner\": { \"type\": \"string\" }, "
+        + "\"meta\": { \"type\": \"object\", \"required\": [ \"created\" ], "
+        + "\"properties\": { \"created\": { \"type\": \"integer\" } } }, "
+        + "\"updated\": { \"type\": \"integer\" }, "
+        + "\"tasks\": { \"type\": \"array\", \"items\": { \"type\": \"object\", "
+        + "\"properties\": { \"title\": { \"type\": \"string\" } } } } } }";
+
+    @Test
+    public void testApply() throws Exception {
+        JsonNode schema = mapper.readTree(SCHEMA);
+
+        JsonNode result = JsonLenses.applyLensToSchema(readLens(LENS), schema);
+
+        assertThat(result).isEqualTo(mapper.readTree("{ \"type\": \"object\", "
+            + "\"additionalProperties\": false, \"required\": [ \"meta\", \"name\", \"created\" ], "
+            + "\"properties\": { \"status\": { \"enum\": [ \"todo\", \"done\" ] }, "
+            + "\"tags\": { \"anyOf\": [ { \"type\": \"string\" }, { \"type\": \"null\" } ] }, "
+            + "\"owner\": { \"type\": \"array\", \"items\": { \"type\": \"string\" } }, "
+            + "\"meta\": { \"type\": \"object\", \"required\": [ ], \"properties\": { "
+            + "\"updated\": { \"type\": \"integer\" } } }, "
+            + "\"tasks\": { \"type\": \"array\", \"items\": { \"type\": \"object\", "
+            + "\"properties\": { \"label\": { \"type\": \"string\" } } } }, "
+            + "\"name\": { \"type\": \"string\" }, "
+            + "\"priority\": { \"type\": \"integer\", \"default\": 1 }, "
+            + "\"created\": { \"type\": \"integer\" } } }"));
+        // the given schema is left as it was
+        assertThat(schema).isEqualTo(mapper.readTree(SCHEMA));
+    }
+
+    @Test
+    public void testApplyUnsupported() {
+        LensOp op = new RenameProperty("a", "b") {
+        };
+
+        assertThatThrownBy(() -> SchemaEngine.apply(Collections.singletonList(op), mapper.createObjectNode()))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testPrune() throws Exception {
+        String schema = "{ \"type\": \"object\", \"additionalProperties\": false, "
+            + "\"properties\": { \"a\": { \"type\": \"object\", \"additionalProperties\": false, "
+            + "\"properties\": { \"x\": { } } }, \"b\": { } } }";
+        List<LensOp> lens = readLens("[ { \"type\": \"rename\", \"source\": \"c\", \"target\": \"d\" }, "
+            + "{ \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" }, "
+            + "{ \"type\": \"remove\", \"name\": \"c\" }, "
+            + "{ \"type\": \"in\", \"name\": \"a\", \"lens\": [ "
+            + "{ \"type\": \"rename\", \"source\": \"y\", \"target\": \"z\" }, "
+            + "{ \"type\": \"rename\", \"source\": \"x\", \"target\": \"y\" } ] }, "
+            + "{ \"type\": \"hoist\", \"host\": \"a\", \"name\": \"x\" }, "
+            + "{ \"type\": \"wrap\", \"name\": \"b\" } ]");
+
+        // c only exists once b is renamed to it, and x is renamed before the hoist
+        assertThat(SchemaEngine.prune(lens, mapper.readTree(schema))).isEqualTo(readLens(
+            "[ { \"type\": \"rename\", \"source\": \"b\", \"target\": \"c\" }, "
+                + "{ \"type\": \"remove\", \"name\": \"c\" }, "
+                + "{ \"type\": \"in\", \"name\": \"a\", \"lens\": [ "
+                + "{ \"type\": \"rename\", \"source\": \"x\", \"target\": \"y\" } ] } ]"));
+        // without a schema, or with an open one, nothing is known to be missing
+        assertThat(SchemaEngine.prune(lens, null)).isEqualTo(lens);
+        assertThat(SchemaEngine.prune(lens, mapper.readTree("{ \"type\": \"object\" }"))).isEqualTo(lens);
+    }
+
+    @Test
+    public void testWithSourceSchema() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        CompiledLens specialized = lens.withSourceSchema(mapper.readTree(SCHEMA));
+        JsonNode doc = mapper.readTree("{ \"title\": \"hello\", \"status\": \"open\", "
+            + "\"tags\": [ \"x\" ], \"owner\": \"me\", \"meta\": { \"created\": 1 }, \"updated\": 2, "
+            + "\"tasks\": [ { \"title\": \"t\" } ] }");
+
+        assertThat(specialized.apply(doc)).isEqualTo(lens.apply(doc));
+        assertThat(specialized.reverse().apply(lens.apply(doc))).isEqualTo(lens.reverse().apply(lens.apply(doc)));
+        assertThat(specialized.reverse().reverse()).isSameAs(specialized);
+        JsonNode closed = mapper.readTree("{ \"title\": \"a\", \"status\": \"closed\", "
+            + "\"meta\": { \"created\": 1 } }");
+        assertThat(specialized.apply(closed)).isEqualTo(lens.apply(closed));
+        // a status of another type than the schema says is looked up as before
+        JsonNode number = mapper.readTree("{ \"title\": \"a\", \"status\": 5, \"meta\": { \"created\": 1 } }");
+        assertThatThrownBy(() -> specialized.apply(number)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("No mapping for value: 5");
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
@@ -0,0 +1,191 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import io.yokota.json.lenses.ops.AddProperty;
+import io.yokota.json.lenses.ops.ConvertValue;
+import io.yokota.json.lenses.ops.HeadProperty;
+import io.yokota.json.lenses.ops.HoistProperty;
+import io.yokota.json.lenses.ops.LensIn;
+import io.yokota.json.lenses.ops.LensMap;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.ops.PlungeProperty;
+import io.yokota.json.lenses.ops.RemoveProperty;
+import io.yokota.json.lenses.ops.RenameProperty;
+import io.yokota.json.lenses.ops.ValueMapping;
+import io.yokota.json.lenses.ops.WrapProperty;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpecializedLensTest {
+
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+
+    private static final String[] SEGMENTS = {"a", "b", "c", "0", "1"};
+
+    @Test
+    public void testSameAsSequential() {
+        for (long seed = 0; seed < 2000; seed++) {
+            Random random = new Random(seed);
+            List<LensOp> lens = randomLens(random, 2);
+            SpecializedLens specialized = new SpecializedLens(lens);
+            for (int i = 0; i < 20; i++) {
+                PatchOp patchOp = randomPatchOp(random);
+                assertThat(lens(specialized, patchOp))
+                    .as("seed %d, patch op %s", seed, patchOp)
+                    .isEqualTo(lens(lens, patchOp));
+            }
+        }
+    }
+
+    @Test
+    public void testSubclassIsInterpreted() {
+        List<String> seen = new ArrayList<>();
+        LensOp rename = new RenameProperty("a", "b") {
+            @Override
+            public PatchOp apply(PatchOp patchOp) {
+                seen.add(PatchOp.toPointer(patchOp.getPath()));
+                return super.apply(patchOp);
+            }
+        };
+        SpecializedLens specialized = new SpecializedLens(Arrays.asList(
+            new RenameProperty("c", "a"), rename, new RenameProperty("b", "d")));
+
+        PatchOp result = specialized.apply(new PatchOp(PatchOp.Op.ADD, new String[]{"c"}, NODES.textNode("x")));
+
+        assertThat(result.getPath()).containsExactly("d");
+        assertThat(specialized.apply(new PatchOp(PatchOp.Op.ADD, new String[0], NODES.objectNode())).getPath())
+            .isEmpty();
+        assertThat(seen).containsExactly("/a", "");
+    }
+
+    @Test
+    public void testConvertedContainerIsNotShared() {
+        SpecializedLens specialized = new SpecializedLens(Collections.singletonList(new ConvertValue("a",
+            new ValueMapping(new HashMap<>(Map.of("x", Collections.emptyMap())), new HashMap<>()))));
+        PatchOp patchOp = new PatchOp(PatchOp.Op.ADD, new String[]{"a"}, NODES.textNode("x"));
+
+        JsonNode first = specialized.apply(patchOp).getValue();
+        JsonNode second = specialized.apply(patchOp).getValue();
+
+        assertThat(first).isEqualTo(NODES.objectNode()).isNotSameAs(second);
+    }
+
+    @Test
+    public void testCompiledSpecialized() throws Exception {
+        ObjectMapper mapper = Jackson.newObjectMapper();
+        List<LensOp> lens = mapper.readValue("[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+            + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+            + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"label\" }, "
+            + "{ \"type\": \"add\", \"name\": \"color\", \"defaultValue\": \"#ffffff\" } ] } ] } ]",
+            new TypeReference<List<LensOp>>() {
+            });
+        JsonNode doc = mapper.readTree("{ \"title\": \"hello\", \"tasks\": [ { \"title\": \"t0\" } ] }");
+        CompiledLens compiled = JsonLenses.compile(lens);
+        CompiledLens specialized = JsonLenses.compile(lens, false, true);
+
+        JsonNode lensed = specialized.apply(doc);
+
+        assertThat(lensed).isEqualTo(compiled.apply(doc));
+        assertThat(specialized.reverse().apply(lensed)).isEqualTo(compiled.reverse().apply(lensed));
+    }
+
+    private static Object lens(SpecializedLens specialized, PatchOp patchOp) {
+        try {
+            return specialized.apply(patchOp);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static Object lens(List<LensOp> lens, PatchOp patchOp) {
+        try {
+            return JsonLenses.applyLensToPatchOp(lens, patchOp);
+        } catch (IllegalArgumentException e) {
+            return e.getMessage();
+        }
+    }
+
+    private static PatchOp randomPatchOp(Random random) {
+        String[] path = randomPath(random);
+        switch (random.nextInt(6)) {
+            case 0:
+                return new PatchOp(PatchOp.Op.REMOVE, path, null);
+            case 1:
+                return new PatchOp(PatchOp.Op.REPLACE, path, NODES.textNode("x"));
+            case 2:
+                return new PatchOp(PatchOp.Op.ADD, path, NullNode.getInstance());
+            case 3:
+                return new PatchOp(PatchOp.Op.ADD, path, NODES.textNode(random.nextBoolean() ? "x" : "y"));
+            case 4:
+                return new PatchOp(PatchOp.Op.MOVE, randomPath(random), path, null);
+            default:
+                return new PatchOp(PatchOp.Op.COPY, randomPath(random), path, null);
+        }
+    }
+
+    private static String[] randomPath(Random random) {
+        String[] path = new String[random.nextInt(4)];
+        for (int i = 0; i < path.length; i++) {
+            path[i] = SEGMENTS[random.nextInt(SEGMENTS.length)];
+        }
+        return path;
+    }
+
+    private static List<LensOp> randomLens(Random random, int depth) {
+        List<LensOp> lens = new ArrayList<>();
+        int size = random.nextInt(8);
+        for (int i = 0; i < size; i++) {
+            String name = SEGMENTS[random.nextInt(SEGMENTS.length)];
+            String other = SEGMENTS[random.nextInt(SEGMENTS.length)];
+            switch (random.nextInt(depth > 0 ? 11 : 9)) {
+                case 0:
+                    lens.add(new AddProperty(name, "x"));
+                    break;
+                case 1:
+                    lens.add(new RemoveProperty(name, "x"));
+                    break;
+                case 2:
+                    lens.add(new RenameProperty(name, other));
+                    break;
+                case 3:
+                    lens.add(new HoistProperty(name, other));
+                    break;
+                case 4:
+                    lens.add(new PlungeProperty(name, other));
+                    break;
+                case 5:
+                    lens.add(new WrapProperty(name));
+                    break;
+                case 6:
+                    lens.add(new HeadProperty(name));
+                    break;
+                case 7:
+                case 8:
+                    lens.add(new ConvertValue(name, new ValueMapping(
+                        new HashMap<>(Map.of("x", "y")), new HashMap<>(Map.of("y", "x")))));
+                    break;
+                case 9:
+                    lens.add(new LensIn(name, randomLens(random, depth - 1)));
+                    break;
+                default:
+                    lens.add(new LensMap(randomLens(random, depth - 1)));
+                    break;
+            }
+        }
+        return lens;
+    }
+}
@@ -0,0 +1,139 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class StreamingEngineTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    @ParameterizedTest
+    @MethodSource("io.yokota.json.lenses.TreeEngineTest#cases")
+    public void testMatchesTreeEngine(String lensStr, String docStr) throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(lensStr));
+        JsonNode doc = mapper.readTree(docStr);
+
+        JsonNode expected;
+        try {
+            expected = lens.apply(doc);
+        } catch (RuntimeException e) {
+            assertThatThrownBy(() -> stream(lens, docStr)).isInstanceOf(RuntimeException.class);
+            return;
+        }
+        // defaults are written last, so compare as trees rather than as text
+        assertThat(mapper.readTree(stream(lens, docStr))).isEqualTo(expected);
+
+        try (JsonParser parser = lens.lensingParser(mapper.createParser(docStr))) {
+            assertThat((JsonNode) mapper.readTree(parser)).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void testBindsLensedValues() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens("[ "
+            + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+            + "{ \"type\": \"add\", \"name\": \"description\", \"defaultValue\": \"none\" }, "
+            + "{ \"type\": \"head\", \"name\": \"assignees\" }, "
+            + "{ \"type\": \"hoist\", \"host\": \"metadata\", \"name\": \"createdAt\" } ]"));
+        String docs = "{ \"title\": \"hello\", \"assignees\": [ \"pvh\", \"orion\" ], "
+            + "\"metadata\": { \"createdAt\": \"July 7th\" } }\n"
+            + "{ \"title\": \"world\", \"assignees\": [ ], \"metadata\": { } }";
+
+        try (JsonParser parser = lens.lensingParser(mapper.createParser(docs));
+             MappingIterator<Task> tasks = mapper.readValues(parser, Task.class)) {
+            Task task = tasks.next();
+            assertThat(task.name).isEqualTo("hello");
+            assertThat(task.description).isEqualTo("none");
+            assertThat(task.assignees).isEqualTo("pvh");
+            assertThat(task.createdAt).isEqualTo("July 7th");
+            task = tasks.next();
+            assertThat(task.name).isEqualTo("world");
+            assertThat(task.assignees).isNull();
+            assertThat(task.createdAt).isNull();
+            assertThat(tasks.hasNext()).isFalse();
+        }
+    }
+
+    @Test
+    public void testBuffersOnlyMovedFields() throws Exception {
+        List<LensOp> lens = readLens("[ "
+            + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+            + "{ \"type\": \"in\", \"name\": \"metadata\", \"lens\": [ "
+            + "{ \"type\": \"rename\", \"source\": \"color\", \"target\": \"colour\" }, "
+            + "{ \"type\": \"plunge\", \"host\": \"tags\", \"name\": \"colour\" } ] } ]");
+        StreamingEngine.Buffered buffered = StreamingEngine.buffered(lens);
+        assertThat(buffered.holds("title")).isTrue();
+        assertThat(buffered.holds("metadata")).isFalse();
+        assertThat(buffered.child("metadata").holds("tags")).isTrue();
+        assertThat(buffered.child("metadata").holds("color")).isTrue();
+        // a field of the same name elsewhere is streamed
+        assertThat(buffered.child("metadata").holds("title")).isFalse();
+        assertThat(buffered.child("tags")).isNull();
+        buffered = StreamingEngine.buffered(readLens("[ "
+            + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+            + "{ \"type\": \"hoist\", \"host\": \"metadata\", \"name\": \"owner\" } ] } ] }, "
+            + "{ \"type\": \"wrap\", \"name\": \"assignee\" } ]"));
+        assertThat(buffered.holds("assignee")).isFalse();
+        assertThat(buffered.child("tasks").elements().holds("owner")).isTrue();
+        // the host of a hoist is streamed, and only the hoisted field is buffered
+        assertThat(buffered.child("tasks").elements().holds("metadata")).isFalse();
+
+        String docStr = "{ \"title\": \"hello\", \"metadata\": { \"tags\": { }, \"color\": \"red\" } }";
+        assertThat(mapper.readTree(stream(JsonLenses.compile(lens), docStr)))
+            .isEqualTo(mapper.readTree("{ \"name\": \"hello\", \"metadata\": { \"tags\": { \"colour\": \"red\" } } }"));
+    }
+
+    @Test
+    public void testLaterFieldWins() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens("[ "
+            + "{ \"type\": \"rename\", \"source\": \"a\", \"target\": \"b\" }, "
+            + "{ \"type\": \"hoist\", \"host\": \"meta\", \"name\": \"c\" } ]"));
+
+        for (String docStr : new String[]{
+            "{ \"a\": 1, \"b\": 2 }",
+            "{ \"b\": 2, \"a\": 1 }",
+            "{ \"c\": 1, \"meta\": { \"c\": 2, \"d\": [ 3 ] } }",
+            "{ \"meta\": { \"d\": [ 3 ], \"c\": { \"e\": 2 } }, \"c\": 1 }"}) {
+            JsonNode expected = lens.apply(mapper.readTree(docStr));
+            assertThat(mapper.readTree(stream(lens, docStr))).isEqualTo(expected);
+        }
+        assertThat(stream(lens, "{ \"a\": 1, \"b\": 2 }")).isEqualTo("{\"b\":2}");
+    }
+
+    private static String stream(CompiledLens lens, String docStr) throws Exception {
+        StringWriter writer = new StringWriter();
+        try (JsonParser parser = mapper.createParser(docStr);
+             JsonGenerator generator = mapper.createGenerator(writer)) {
+            lens.apply(parser, generator);
+        }
+        return writer.toString();
+    }
+
+    private static List<LensOp> readLens(String lensStr) throws Exception {
+        return mapper.readValue(lensStr, new TypeReference<List<LensOp>>() {
+        });
+    }
+
+    public static class Task {
+        public String name;
+        public String description;
+        public String assignees;
+        public String createdAt;
+        public Object metadata;
+    }
+}
@@ -0,0 +1,193 @@
+package io.yokota.json.lenses;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.yokota.json.lenses.ops.LensOp;
+import io.yokota.json.lenses.utils.Jackson;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.junit.jupiter.params.provider.Arguments.arguments;
+
+public class TreeEngineTest {
+
+    private static final ObjectMapper mapper = Jackson.newObjectMapper();
+
+    private static final ForkJoinPool pool = new ForkJoinPool(4);
+
+    private static final String DOC = "{ \"title\": \"hello\", \"complete\": true, "
+        + "\"assignee\": \"pvh\", \"metadata\": { \"createdAt\": \"July 7th\", \"title\": \"x\", "
+        + "\"tags\": [ \"a\", \"b\" ] }, \"tasks\": [ { \"title\": \"t1\", \"done\": false }, "
+        + "{ \"title\": \"t2\", \"done\": true, \"nested\": { \"title\": \"n\" } } ], "
+        + "\"labels\": [ [ 1, 2 ], [], { } ], \"none\": null, \"empty\": { } }";
+
+    static Stream<Arguments> cases() {
+        return Stream.of(
+            arguments("[]", DOC),
+            arguments("[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" } ]", DOC),
+            arguments("[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"complete\" } ]", DOC),
+            arguments("[ { \"type\": \"add\", \"name\": \"description\", \"defaultValue\": \"\" }, "
+                + "{ \"type\": \"add\", \"name\": \"props\", \"defaultValue\": { } }, "
+                + "{ \"type\": \"in\", \"name\": \"props\", \"lens\": [ "
+                + "{ \"type\": \"add\", \"name\": \"flag\", \"defaultValue\": true } ] } ]", DOC),
+            arguments("[ { \"type\": \"remove\", \"name\": \"metadata\", \"defaultValue\": { } } ]", DOC),
+            arguments("[ { \"type\": \"convert\", \"name\": \"complete\", \"mapping\": { "
+                + "\"forward\": { \"true\": \"done\", \"false\": \"todo\" }, "
+                + "\"reverse\": { \"done\": true, \"todo\": false } } } ]",
+                "{ \"complete\": \"true\", \"other\": 1 }"),
+            arguments("[ { \"type\": \"head\", \"name\": \"labels\" } ]", DOC),
+            arguments("[ { \"type\": \"head\", \"name\": \"tasks\" } ]", DOC),
+            arguments("[ { \"type\": \"wrap\", \"name\": \"assignee\" } ]", DOC),
+            arguments("[ { \"type\": \"wrap\", \"name\": \"assignee\" } ]", "{ \"title\": \"x\" }"),
+            arguments("[ { \"type\": \"wrap\", \"name\": \"metadata\" }, "
+                + "{ \"type\": \"rename\", \"source\": \"metadata\", \"target\": \"metadatas\" } ]", DOC),
+            arguments("[ { \"type\": \"hoist\", \"host\": \"metadata\", \"name\": \"createdAt\" } ]", DOC),
+            arguments("[ { \"type\": \"hoist\", \"host\": \"metadata\", \"name\": \"tags\" } ]", DOC),
+            arguments("[ { \"type\": \"plunge\", \"host\": \"metadata\", \"name\": \"assignee\" } ]",
+                "{ \"metadata\": { }, \"assignee\": \"pvh\" }"),
+            arguments("[ { \"type\": \"in\", \"name\": \"metadata\", \"lens\": [ "
+                + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+                + "{ \"type\": \"head\", \"name\": \"tags\" } ] } ]", DOC),
+            arguments("[ { \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+                + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+                + "{ \"type\": \"add\", \"name\": \"color\", \"defaultValue\": \"#ffffff\" }, "
+                + "{ \"type\": \"wrap\", \"name\": \"done\" }, "
+                + "{ \"type\": \"in\", \"name\": \"nested\", \"lens\": [ "
+                + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"label\" } ] } ] } ] } ]", DOC),
+            arguments("[ { \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+                + "{ \"type\": \"hoist\", \"host\": \"nested\", \"name\": \"title\" } ] } ] } ]", DOC),
+            // the reference engine rejects these; the tree engine must too
+            arguments("[ { \"type\": \"plunge\", \"host\": \"missing\", \"name\": \"title\" } ]", DOC),
+            arguments("[ { \"type\": \"convert\", \"name\": \"title\", \"mapping\": { "
+                + "\"forward\": { }, \"reverse\": { } } } ]", DOC),
+            arguments("[ { \"type\": \"wrap\", \"name\": \"none\" } ]", DOC)
+        );
+    }
+
+    @ParameterizedTest
+    @MethodSource("cases")
+    public void testMatchesPatchEngine(String lensStr, String docStr) throws Exception {
+        List<LensOp> lens = mapper.readValue(lensStr, new TypeReference<List<LensOp>>() {
+        });
+        JsonNode doc = mapper.readTree(docStr);
+
+        JsonNode expected;
+        try {
+            expected = JsonLenses.applyLensToDoc(lens, doc, null);
+        } catch (RuntimeException e) {
+            assertThatThrownBy(() -> TreeEngine.apply(lens, doc, null))
+                .isInstanceOf(RuntimeException.class);
+            assertThatThrownBy(() -> applyInParallel(lens, doc, 1))
+                .isInstanceOf(RuntimeException.class);
+            return;
+        }
+        JsonNode actual = TreeEngine.apply(lens, doc, null);
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+
+        // every container is split, one element per task
+        actual = applyInParallel(lens, doc, 1);
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+        assertThat(doc).isEqualTo(mapper.readTree(docStr));
+
+        // the target doc is merged under the output without being modified
+        JsonNode target = mapper.readTree("{ \"extra\": { \"a\": 1 }, \"title\": \"t\" }");
+        expected = JsonLenses.applyLensToDoc(lens, doc, target);
+        actual = TreeEngine.apply(lens, doc, target);
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+        assertThat(target.toString()).isEqualTo("{\"extra\":{\"a\":1},\"title\":\"t\"}");
+    }
+
+    @Test
+    public void testWrapOfMissingProperty() throws Exception {
+        CompiledLens lens = JsonLenses.compile(mapper.readValue("[ { \"type\": \"wrap\", \"name\": \"assignee\" } ]",
+            new TypeReference<List<LensOp>>() {
+            }));
+
+        // no empty array is added for a property that is not there
+        assertThat(lens.apply(mapper.readTree("{ \"title\": \"x\" }")))
+            .isEqualTo(mapper.readTree("{ \"title\": \"x\" }"));
+        assertThat(lens.apply(mapper.readTree("{ \"assignee\": { \"name\": \"pvh\" } }")))
+            .isEqualTo(mapper.readTree("{ \"assignee\": [ { \"name\": \"pvh\" } ] }"));
+    }
+
+    @Test
+    public void testMovedValueIsCopied() throws Exception {
+        List<LensOp> lens = mapper.readValue("[ { \"type\": \"rename\", \"source\": \"metadata\", "
+            + "\"target\": \"meta\" }, { \"type\": \"wrap\", \"name\": \"tasks\" } ]",
+            new TypeReference<List<LensOp>>() {
+            });
+        JsonNode doc = mapper.readTree(DOC);
+
+        JsonNode actual = TreeEngine.apply(lens, doc, null);
+
+        assertThat(actual).isEqualTo(JsonLenses.applyLensToDoc(lens, doc, null));
+        assertThat(actual.get("meta")).isNotSameAs(doc.get("metadata"));
+        assertThat(actual.get("tasks").get(0).get(1)).isNotSameAs(doc.get("tasks").get(1));
+
+        actual = applyInParallel(lens, doc, 1);
+
+        assertThat(actual).isEqualTo(JsonLenses.applyLensToDoc(lens, doc, null));
+        assertThat(actual.get("meta")).isNotSameAs(doc.get("metadata"));
+        assertThat(actual.get("tasks").get(0).get(1)).isNotSameAs(doc.get("tasks").get(1));
+    }
+
+    @Test
+    public void testOwnedValueIsMoved() throws Exception {
+        List<LensOp> lens = mapper.readValue("[ { \"type\": \"rename\", \"source\": \"metadata\", "
+            + "\"target\": \"meta\" }, { \"type\": \"wrap\", \"name\": \"tasks\" }, "
+            + "{ \"type\": \"hoist\", \"host\": \"meta\", \"name\": \"tags\" } ]",
+            new TypeReference<List<LensOp>>() {
+            });
+        JsonNode doc = mapper.readTree(DOC);
+        JsonNode tags = doc.get("metadata").get("tags");
+        JsonNode task = doc.get("tasks").get(1);
+
+        JsonNode actual = TreeEngine.apply(new LensIndex(lens), new DefaultTemplates(TreeEngine.context(lens)),
+            doc, null, true);
+
+        assertThat(actual).isEqualTo(TreeEngine.apply(lens, mapper.readTree(DOC), null));
+        assertThat(actual.get("tags")).isSameAs(tags);
+        assertThat(actual.get("tasks").get(0).get(1)).isSameAs(task);
+    }
+
+    @Test
+    public void testLargeDocInParallel() throws Exception {
+        List<LensOp> lens = mapper.readValue("[ { \"type\": \"rename\", \"source\": \"f7\", "
+            + "\"target\": \"g7\" }, { \"type\": \"in\", \"name\": \"items\", \"lens\": [ "
+            + "{ \"type\": \"map\", \"lens\": [ "
+            + "{ \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+            + "{ \"type\": \"add\", \"name\": \"color\", \"defaultValue\": \"#ffffff\" } ] } ] } ]",
+            new TypeReference<List<LensOp>>() {
+            });
+        ObjectNode doc = mapper.createObjectNode();
+        ArrayNode items = doc.putArray("items");
+        for (int i = 0; i < 10000; i++) {
+            items.addObject().put("title", "t" + i).putArray("tags").add(i);
+        }
+        for (int i = 0; i < 2000; i++) {
+            doc.put("f" + i, i);
+        }
+
+        JsonNode actual = applyInParallel(lens, doc, 100);
+
+        JsonNode expected = TreeEngine.apply(lens, doc, null);
+        assertThat(actual.toString()).isEqualTo(expected.toString());
+        assertThat(actual.get("items").get(9999).get("color").asText()).isEqualTo("#ffffff");
+    }
+
+    private static JsonNode applyInParallel(List<LensOp> lens, JsonNode doc, int threshold) {
+        return TreeEngine.apply(new LensIndex(lens), new DefaultTemplates(TreeEngine.context(lens)),
+            doc, null, false, pool, threshold);
+    }
+}
@@ -0,0 +1,103 @@
+package io.yokota.json.lenses.utils;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.NullNode;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ValueTableTest {
+
+    private static final JsonNodeFactory factory = JsonNodeFactory.instance;
+
+    @Test
+    public void testScalarKeys() {
+        Map<Object, Object> mapping = new HashMap<>();
+        mapping.put("todo", false);
+        mapping.put(true, "done");
+        mapping.put(1, "one");
+        mapping.put(2L, 2.5);
+        mapping.put((short) 3, null);
+        mapping.put(1.5, "one and a half");
+        mapping.put(0.0, "zero");
+        mapping.put(new BigDecimal("1.50"), "decimal");
+        mapping.put(null, "none");
+        ValueTable table = ValueTable.of(mapping);
+
+        assertThat(table.get(factory.textNode("todo"))).isEqualTo(factory.booleanNode(false));
+        assertThat(table.get(factory.booleanNode(true))).isEqualTo(factory.textNode("done"));
+        assertThat(table.get(factory.booleanNode(false))).isNull();
+        // integral keys and values are compared by value, whatever their width
+        assertThat(table.get(factory.numberNode(1))).isEqualTo(factory.textNode("one"));
+        assertThat(table.get(factory.numberNode(1L))).isEqualTo(factory.textNode("one"));
+        assertThat(table.get(factory.numberNode(BigInteger.ONE))).isEqualTo(factory.textNode("one"));
+        assertThat(table.get(factory.numberNode(2))).isEqualTo(factory.numberNode(2.5));
+        assertThat(table.get(factory.numberNode((short) 3))).isEqualTo(NullNode.getInstance());
+        assertThat(table.get(factory.numberNode(1.5f))).isEqualTo(factory.textNode("one and a half"));
+        assertThat(table.get(factory.numberNode(-0.0))).isEqualTo(factory.textNode("zero"));
+        assertThat(table.get(factory.numberNode(new BigDecimal("1.50")))).isEqualTo(factory.textNode("decimal"));
+        assertThat(table.get(NullNode.getInstance())).isEqualTo(factory.textNode("none"));
+        assertThat(table.get(null)).isEqualTo(factory.textNode("none"));
+        assertThat(table.get(factory.textNode("done"))).isNull();
+        assertThat(table.get(factory.objectNode())).isNull();
+    }
+
+    @Test
+    public void testScalarValuesAreShared() {
+        Map<Object, Object> mapping = new HashMap<>();
+        mapping.put("a", "b");
+        mapping.put("list", new ArrayList<>());
+        ValueTable table = ValueTable.of(mapping);
+
+        assertThat(table.get(factory.textNode("a"))).isSameAs(table.get(factory.textNode("a")));
+        // an empty container may be written into later, so it is copied
+        JsonNode list = table.get(factory.textNode("list"));
+        assertThat(list).isEqualTo(factory.arrayNode());
+        assertThat(list).isNotSameAs(table.get(factory.textNode("list")));
+    }
+
+    @Test
+    public void testManyKeys() {
+        Map<Object, Object> mapping = new HashMap<>();
+        for (long i = -1000; i < 1000; i++) {
+            mapping.put(i * 31, i);
+        }
+        ValueTable table = ValueTable.of(mapping);
+
+        for (long i = -1000; i < 1000; i++) {
+            assertThat(table.get(factory.numberNode(i * 31))).isEqualTo(factory.numberNode(i));
+            assertThat(table.get(factory.numberNode(i * 31 + 1))).isNull();
+        }
+    }
+
+    @Test
+    public void testLookupByType() {
+        Map<Object, Object> mapping = new HashMap<>();
+        mapping.put("todo", "done");
+        mapping.put(true, "yes");
+        mapping.put(1, "one");
+        mapping.put(1.5, "one and a half");
+        mapping.put(null, "none");
+        mapping.put("list", new ArrayList<>());
+        ValueTable table = ValueTable.of(mapping);
+        JsonNode[] nodes = {factory.textNode("todo"), factory.textNode("list"), factory.textNode("x"),
+            factory.booleanNode(true), factory.booleanNode(false), factory.numberNode(1),
+            factory.numberNode(BigInteger.ONE), factory.numberNode(2L), factory.numberNode(1.5),
+            NullNode.getInstance(), null, factory.objectNode()};
+
+        for (String type : new String[]{"string", "integer", "boolean", "number"}) {
+            for (JsonNode node : nodes) {
+                assertThat(table.lookup(type).apply(node)).isEqualTo(table.get(node));
+            }
+        }
+        assertThat(table.lookup("string").apply(factory.textNode("list")))
+            .isNotSameAs(table.lookup("string").apply(factory.textNode("list")));
+    }
+}
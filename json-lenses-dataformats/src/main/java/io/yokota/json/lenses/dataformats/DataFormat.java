@@ -0,0 +1,28 @@
+package io.yokota.json.lenses.dataformats;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * A format in which documents are read or written, each backed by a Jackson
+ * factory that is shared, as factories are thread-safe.
+ */
+public enum DataFormat {
+    JSON(new JsonFactory()),
+    SMILE(new SmileFactory()),
+    CBOR(new CBORFactory());
+
+    private final JsonFactory factory;
+
+    DataFormat(JsonFactory factory) {
+        // the mapper becomes the codec of the factory, which lets its parsers
+        // and generators read and write trees
+        this.factory = new ObjectMapper(factory).getFactory();
+    }
+
+    public JsonFactory getFactory() {
+        return factory;
+    }
+}
@@ -0,0 +1,79 @@
+package io.yokota.json.lenses.dataformats;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import io.yokota.json.lenses.CompiledLens;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * A compiled lens that reads documents in one {@link DataFormat} and writes
+ * the lensed documents in another, such as Smile to Smile.
+ *
+ * <p>Documents are lensed as token streams with
+ * {@link CompiledLens#apply(JsonParser, JsonGenerator)}, so a binary
+ * document is never turned into JSON text, nor into a tree. Instances are immutable and may be shared across threads.
+ */
+public final class FormatLens {
+
+    private final CompiledLens lens;
+    private final DataFormat inputFormat;
+    private final DataFormat outputFormat;
+
+    public FormatLens(CompiledLens lens, DataFormat inputFormat, DataFormat outputFormat) {
+        this.lens = Objects.requireNonNull(lens);
+        this.inputFormat = Objects.requireNonNull(inputFormat);
+        this.outputFormat = Objects.requireNonNull(outputFormat);
+    }
+
+    public CompiledLens getLens() {
+        return lens;
+    }
+
+    public DataFormat getInputFormat() {
+        return inputFormat;
+    }
+
+    public DataFormat getOutputFormat() {
+        return outputFormat;
+    }
+
+    /**
+     * Returns the reverse lens, which reads the output format and writes the
+     * input format.
+     */
+    public FormatLens reverse() {
+        return new FormatLens(lens.reverse(), outputFormat, inputFormat);
+    }
+
+    /**
+     * Lenses the single document encoded in {@code input}.
+     */
+    public byte[] apply(byte[] input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length + input.length / 4);
+        try (JsonParser parser = inputFormat.getFactory().createParser(input);
+             JsonGenerator generator = outputFormat.getFactory().createGenerator(output)) {
+            lens.apply(parser, generator);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Lenses every document read from {@code input} in turn, writing each to
+     * {@code output}. Neither stream is closed.
+     */
+    public void apply(InputStream input, OutputStream output) throws IOException {
+        try (JsonParser parser = inputFormat.getFactory().createParser(input);
+             JsonGenerator generator = outputFormat.getFactory().createGenerator(output)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            while (parser.nextToken() != null) {
+                lens.apply(parser, generator);
+            }
+        }
+    }
+}
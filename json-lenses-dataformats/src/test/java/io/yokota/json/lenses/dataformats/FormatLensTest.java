@@ -0,0 +1,82 @@
+package io.yokota.json.lenses.dataformats;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.BinaryNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import io.yokota.json.lenses.CompiledLens;
+import io.yokota.json.lenses.JsonLenses;
+import io.yokota.json.lenses.ops.LensOp;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FormatLensTest {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+    private static final ObjectMapper cbor = new ObjectMapper(new CBORFactory());
+
+    private static final String LENS = "[ { \"type\": \"rename\", \"source\": \"title\", \"target\": \"name\" }, "
+        + "{ \"type\": \"add\", \"name\": \"props\", \"defaultValue\": { } }, "
+        + "{ \"type\": \"in\", \"name\": \"tasks\", \"lens\": [ { \"type\": \"map\", \"lens\": [ "
+        + "{ \"type\": \"wrap\", \"name\": \"owner\" } ] } ] } ]";
+
+    private static final String DOC = "{ \"title\": \"hello\", \"count\": 12345678901, \"ratio\": 0.5, "
+        + "\"tasks\": [ { \"owner\": \"a\" }, { \"owner\": \"b\" } ] }";
+
+    @Test
+    public void testSmile() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        FormatLens formatLens = new FormatLens(lens, DataFormat.SMILE, DataFormat.SMILE);
+        JsonNode doc = mapper.readTree(DOC);
+
+        byte[] lensed = formatLens.apply(smile.writeValueAsBytes(doc));
+
+        assertThat(smile.readTree(lensed)).isEqualTo(lens.apply(doc));
+        assertThat(smile.readTree(formatLens.reverse().apply(lensed))).isEqualTo(doc);
+    }
+
+    @Test
+    public void testCborToJson() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        ObjectNode doc = (ObjectNode) mapper.readTree(DOC);
+        doc.set("bytes", BinaryNode.valueOf(new byte[]{1, 2, 3}));
+
+        byte[] lensed = new FormatLens(lens, DataFormat.CBOR, DataFormat.JSON).apply(cbor.writeValueAsBytes(doc));
+
+        assertThat(mapper.readTree(lensed)).isEqualTo(mapper.readTree(mapper.writeValueAsBytes(lens.apply(doc))));
+    }
+
+    @Test
+    public void testStreamOfDocuments() throws Exception {
+        CompiledLens lens = JsonLenses.compile(readLens(LENS));
+        ByteArrayOutputStream input = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            input.write(smile.writeValueAsBytes(mapper.createObjectNode().put("title", "t" + i)));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        new FormatLens(lens, DataFormat.SMILE, DataFormat.CBOR)
+            .apply(new ByteArrayInputStream(input.toByteArray()), output);
+
+        List<JsonNode> docs = cbor.readerFor(JsonNode.class)
+            .<JsonNode>readValues(output.toByteArray()).readAll();
+        assertThat(docs).hasSize(3);
+        for (int i = 0; i < 3; i++) {
+            assertThat(docs.get(i)).isEqualTo(lens.apply(mapper.createObjectNode().put("title", "t" + i)));
+        }
+    }
+
+    private static List<LensOp> readLens(String expr) throws Exception {
+        return mapper.readValue(expr, new TypeReference<List<LensOp>>() {
+        });
+    }
+}
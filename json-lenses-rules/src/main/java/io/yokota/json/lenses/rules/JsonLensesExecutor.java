@@ -4,41 +4,168 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.confluent.kafka.schemaregistry.ParsedSchema;
+import io.confluent.kafka.schemaregistry.client.rest.entities.Rule;
 import io.confluent.kafka.schemaregistry.client.rest.entities.RuleMode;
 import io.confluent.kafka.schemaregistry.rules.RuleContext;
 import io.confluent.kafka.schemaregistry.rules.RuleException;
 import io.confluent.kafka.schemaregistry.rules.RuleExecutor;
+import io.yokota.json.lenses.CompiledLens;
 import io.yokota.json.lenses.JsonLenses;
 import io.yokota.json.lenses.ops.LensOp;
-import org.apache.avro.data.Json;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
 
+/**
+ * A rule executor that transforms messages with a JSON lens.
+ *
+ * <p>{@link #transform} never fuses: each rule of a rule set applies its own
+ * lens, since the executor cannot tell whether the rules after it will run.
+ * A consumer that runs a chain of migrations itself can fuse the whole chain
+ * into one optimized lens, applied in a single pass, with {@link #migrate}.
+ * A fused lens is cached under the JSON array of the expressions of its
+ * rules.
+ */
 public class JsonLensesExecutor implements RuleExecutor {
 
     public static final String TYPE = "JSONLENSES";
 
+    public static final String CACHE_MAX_SIZE = "cache.max.size";
+    public static final String CACHE_POLICY = "cache.policy";
+    public static final String SPECIALIZE_BY_SCHEMA = "specialize.by.schema";
+    public static final String IN_PLACE = "in.place";
+    public static final String LAZY = "lazy";
+    public static final String PARALLEL_THRESHOLD = "parallel.threshold";
+
+    public static final int DEFAULT_CACHE_MAX_SIZE = 1000;
+
     public static final ObjectMapper MAPPER = new ObjectMapper();
 
+    private static final String JSON_SCHEMA_TYPE = "JSON";
+
+    private volatile LensCache cache = new LensCache(DEFAULT_CACHE_MAX_SIZE, LensCache.Policy.LRU);
+    private volatile boolean specializeBySchema;
+    private volatile boolean inPlace;
+    private volatile boolean lazy;
+    private volatile int parallelThreshold;
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object maxSize = configs.get(CACHE_MAX_SIZE);
+        Object policy = configs.get(CACHE_POLICY);
+        cache = new LensCache(
+            maxSize != null ? Integer.parseInt(maxSize.toString().trim()) : DEFAULT_CACHE_MAX_SIZE,
+            policy != null
+                ? LensCache.Policy.valueOf(policy.toString().trim().toUpperCase(Locale.ROOT))
+                : LensCache.Policy.LRU);
+        Object specialize = configs.get(SPECIALIZE_BY_SCHEMA);
+        specializeBySchema = specialize != null && Boolean.parseBoolean(specialize.toString().trim());
+        // only safe if the message is dropped once it is transformed
+        Object owned = configs.get(IN_PLACE);
+        inPlace = owned != null && Boolean.parseBoolean(owned.toString().trim());
+        // the message is then lensed as it is read, after the transform returns
+        Object lazyView = configs.get(LAZY);
+        lazy = lazyView != null && Boolean.parseBoolean(lazyView.toString().trim());
+        // large arrays and objects of a message are then lensed on the common pool
+        Object threshold = configs.get(PARALLEL_THRESHOLD);
+        parallelThreshold = threshold != null ? Integer.parseInt(threshold.toString().trim()) : 0;
+    }
+
     @Override
     public String type() {
         return TYPE;
     }
 
+    public LensCache getCache() {
+        return cache;
+    }
+
     @Override
     public Object transform(RuleContext ctx, Object message)
         throws RuleException {
-        JsonNode jsonObj = (JsonNode) message;
+        return transform(Collections.singletonList(ctx.rule()), ctx.ruleMode(),
+            specializeBySchema ? ctx.source() : null, (JsonNode) message);
+    }
 
+    /**
+     * Applies the lenses of the given rules, in order, to a message as one
+     * fused lens, as if each rule had transformed the result of the one
+     * before it. For {@link RuleMode#DOWNGRADE} each lens is reversed, but
+     * the rules are still applied in the given order.
+     */
+    public JsonNode migrate(List<Rule> chain, RuleMode mode, JsonNode message) throws RuleException {
+        if (chain.isEmpty()) {
+            return message;
+        }
+        return transform(chain, mode, null, message);
+    }
+
+    private JsonNode transform(List<Rule> chain, RuleMode mode, ParsedSchema source, JsonNode message)
+        throws RuleException {
+        TransformEvent event = new TransformEvent();
+        event.begin();
         try {
-            String expr = ctx.rule().getExpr();
-            List<LensOp> lens = MAPPER.readValue(expr, new TypeReference<>() {});
-            if (ctx.ruleMode() == RuleMode.DOWNGRADE) {
-                lens = JsonLenses.reverse(lens);
+            String expr = chain.size() == 1
+                ? chain.get(0).getExpr()
+                : chain.stream().map(Rule::getExpr).collect(Collectors.joining(",", "[", "]"));
+            LensCache.Loader loader = chain.size() == 1
+                ? JsonLensesExecutor::compile
+                : JsonLensesExecutor::compileChain;
+            CompiledLens lens;
+            boolean specialized = source != null && JSON_SCHEMA_TYPE.equals(source.schemaType());
+            if (specialized) {
+                // the lens is specialized to, and cached per, the schema of the message
+                String schema = source.canonicalString();
+                lens = cache.get(expr, mode, schema,
+                    (e, m) -> loader.load(e, m).withSourceSchema(MAPPER.readTree(schema)));
+            } else {
+                lens = cache.get(expr, mode, loader);
+            }
+            JsonNode result;
+            if (lazy) {
+                result = lens.applyLazily(message);
+            } else if (inPlace) {
+                result = lens.applyInPlace(message);
+            } else if (parallelThreshold > 0) {
+                result = lens.applyInParallel(message, parallelThreshold);
+            } else {
+                result = lens.apply(message);
+            }
+            if (event.shouldCommit()) {
+                event.rule = chain.get(0).getName();
+                event.mode = mode.name();
+                event.rules = chain.size();
+                event.specialized = specialized;
+                event.commit();
             }
-            return JsonLenses.applyLensToDoc(lens, jsonObj, null);
+            return result;
         } catch (JsonProcessingException e) {
             throw new RuleException("Could not parse rule", e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuleException("Could not compile rule", e);
+        }
+    }
+
+    private static CompiledLens compile(String expr, RuleMode mode) throws JsonProcessingException {
+        List<LensOp> lens = MAPPER.readValue(expr, new TypeReference<>() {});
+        CompiledLens compiled = JsonLenses.compile(lens);
+        return mode == RuleMode.DOWNGRADE ? compiled.reverse() : compiled;
+    }
+
+    private static CompiledLens compileChain(String exprs, RuleMode mode) throws JsonProcessingException {
+        List<List<LensOp>> lenses = MAPPER.readValue(exprs, new TypeReference<>() {});
+        List<LensOp> fused = new ArrayList<>();
+        for (List<LensOp> lens : lenses) {
+            fused.addAll(mode == RuleMode.DOWNGRADE ? JsonLenses.reverse(lens) : lens);
         }
+        // the optimizer fuses the ops of adjacent rules where that is equivalent on every document
+        return JsonLenses.compile(fused, true);
     }
 }
@@ -0,0 +1,247 @@
+package io.yokota.json.lenses.rules;
+
+import io.confluent.kafka.schemaregistry.client.rest.entities.RuleMode;
+import io.yokota.json.lenses.CompiledLens;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of compiled lenses, keyed by rule expression, rule mode
+ * and, for lenses specialized to a schema, that schema.
+ *
+ * <p>Entries are evicted either by recency ({@link Policy#LRU}) or by access
+ * count, with recency breaking ties ({@link Policy#LFU}). A hit takes no lock:
+ * it only stamps the entry with the time and count of its access. Eviction is
+ * approximate, as in Redis: when an insert fills the cache, the victim is the
+ * oldest or least used of a sample of {@value #SAMPLE} entries, drawn from an
+ * array of the entries in constant time, which is every entry for a small
+ * cache. Inserts and evictions take a lock, but not while compiling. Only one
+ * thread compiles a missing key; concurrent callers for that key wait for its
+ * result. A failed compilation is not cached.
+ */
+public class LensCache {
+
+    public enum Policy {
+        LRU,
+        LFU
+    }
+
+    @FunctionalInterface
+    public interface Loader {
+        CompiledLens load(String expr, RuleMode mode) throws Exception;
+    }
+
+    private static final int SAMPLE = 8;
+
+    private final int maxSize;
+    private final Policy policy;
+    private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+    // the entries in no order, to sample from; guarded by itself, as are all changes to entries
+    private final List<Entry> slots = new ArrayList<>();
+    // a logical clock, so that accesses are ordered even within a clock tick
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public LensCache(int maxSize, Policy policy) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.policy = Objects.requireNonNull(policy);
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the compiled lens for the given key, compiling it with
+     * {@code loader} on a miss.
+     *
+     * @throws Exception the exception thrown by the loader
+     */
+    public CompiledLens get(String expr, RuleMode mode, Loader loader) throws Exception {
+        return get(expr, mode, null, loader);
+    }
+
+    /**
+     * Returns the compiled lens for the given key, which includes the schema
+     * that the lens is specialized to, compiling it with {@code loader} on a
+     * miss.
+     *
+     * @throws Exception the exception thrown by the loader
+     */
+    public CompiledLens get(String expr, RuleMode mode, String schema, Loader loader) throws Exception {
+        Key key = new Key(expr, mode, schema);
+        Entry entry = entries.get(key);
+        boolean load = false;
+        if (entry == null) {
+            synchronized (slots) {
+                entry = entries.get(key);
+                if (entry == null) {
+                    entry = new Entry(key, clock.incrementAndGet());
+                    entries.put(key, entry);
+                    entry.slot = slots.size();
+                    slots.add(entry);
+                    evict(entry);
+                    misses.incrementAndGet();
+                    load = true;
+                }
+            }
+        }
+        if (load) {
+            try {
+                entry.future.complete(loader.load(expr, mode));
+            } catch (Exception | Error e) {
+                synchronized (slots) {
+                    if (entries.remove(key, entry)) {
+                        removeSlot(entry);
+                    }
+                }
+                entry.future.completeExceptionally(e);
+                throw e;
+            }
+        } else {
+            entry.access(clock.incrementAndGet());
+            hits.incrementAndGet();
+        }
+        try {
+            return entry.future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw (Error) cause;
+        }
+    }
+
+    /**
+     * Evicts sampled entries, other than the one just inserted, until the
+     * cache is back within its size.
+     */
+    private void evict(Entry inserted) {
+        while (slots.size() > maxSize) {
+            Entry victim = null;
+            int size = slots.size();
+            boolean all = size <= SAMPLE + 1;
+            for (int i = 0; i < (all ? size : SAMPLE); i++) {
+                Entry e = slots.get(all ? i : ThreadLocalRandom.current().nextInt(size));
+                if (e != inserted && (victim == null || e.before(victim, policy))) {
+                    victim = e;
+                }
+            }
+            if (victim != null) {
+                entries.remove(victim.key, victim);
+                removeSlot(victim);
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void removeSlot(Entry entry) {
+        Entry last = slots.remove(slots.size() - 1);
+        if (last != entry) {
+            last.slot = entry.slot;
+            slots.set(entry.slot, last);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+
+    public void clear() {
+        synchronized (slots) {
+            entries.clear();
+            slots.clear();
+        }
+    }
+
+    private static final class Entry {
+        final Key key;
+        final CompletableFuture<CompiledLens> future = new CompletableFuture<>();
+        final AtomicLong count = new AtomicLong(1);
+        volatile long lastAccess;
+        // the index of this entry in slots
+        int slot;
+
+        Entry(Key key, long time) {
+            this.key = key;
+            this.lastAccess = time;
+        }
+
+        void access(long time) {
+            count.incrementAndGet();
+            lastAccess = time;
+        }
+
+        /**
+         * Returns whether this entry is to be evicted before {@code other}.
+         */
+        boolean before(Entry other, Policy policy) {
+            if (policy == Policy.LFU) {
+                long c = count.get();
+                long otherCount = other.count.get();
+                if (c != otherCount) {
+                    return c < otherCount;
+                }
+            }
+            return lastAccess < other.lastAccess;
+        }
+    }
+
+    private static final class Key {
+        final String expr;
+        final RuleMode mode;
+        final String schema;
+
+        Key(String expr, RuleMode mode, String schema) {
+            this.expr = expr;
+            this.mode = mode;
+            this.schema = schema;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return expr.equals(key.expr) && mode == key.mode && Objects.equals(schema, key.schema);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(expr, mode, schema);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package io.yokota.json.lenses.rules;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A JDK Flight Recorder event for one message transformed by
+ * {@link JsonLensesExecutor}, disabled by default. The lensing itself is
+ * recorded by the nested {@code io.yokota.json.lenses.Lens} event.
+ */
+@Name("io.yokota.json.lenses.rules.Transform")
+@Label("Lens Rule Transform")
+@Category("JSON Lenses")
+@Description("A message transformed by a JSON lenses rule")
+@Enabled(false)
+@StackTrace(false)
+final class TransformEvent extends Event {
+
+    @Label("Rule")
+    String rule;
+
+    @Label("Mode")
+    String mode;
+
+    @Label("Rules")
+    @Description("Number of rules fused into the lens")
+    int rules;
+
+    @Label("Specialized")
+    @Description("Whether the lens was specialized to the schema of the message")
+    boolean specialized;
+}
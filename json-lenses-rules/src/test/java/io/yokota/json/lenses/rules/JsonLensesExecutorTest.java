@@ -1,15 +1,29 @@
 package io.yokota.json.lenses.rules;
 
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import io.confluent.kafka.schemaregistry.ParsedSchema;
 import io.confluent.kafka.schemaregistry.client.rest.entities.Rule;
 import io.confluent.kafka.schemaregistry.client.rest.entities.RuleMode;
 import io.confluent.kafka.schemaregistry.rules.RuleContext;
+import io.yokota.json.lenses.JsonLenses;
+import io.yokota.json.lenses.LensedJsonNode;
+import io.yokota.json.lenses.ops.LensOp;
 import org.junit.jupiter.api.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class JsonLensesExecutorTest {
 
@@ -33,4 +47,167 @@ public class JsonLensesExecutorTest {
         JsonNode downgraded = (JsonNode) executor.transform(ctx, upgraded);
         assertEquals(original, downgraded.toString());
     }
+
+    @Test
+    public void testConfigureCache() throws Exception {
+        String expr = "[ { \"type\": \"rename\", \"source\": \"ssn\", \"target\": \"socialSecurityNumber\" } ]";
+        Rule rule = new Rule(null, null, null, null, null, null, null, expr, null, null, false);
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(JsonLensesExecutor.CACHE_MAX_SIZE, "1");
+        configs.put(JsonLensesExecutor.CACHE_POLICY, "lfu");
+        executor.configure(configs);
+        assertEquals(1, executor.getCache().getMaxSize());
+        assertEquals(LensCache.Policy.LFU, executor.getCache().getPolicy());
+
+        JsonNode jsonNode = MAPPER.readTree("{\"ssn\":\"123-45-6789\"}");
+        for (int i = 0; i < 3; i++) {
+            RuleContext ctx = new RuleContext(null, null, null, null, null, null, null, false,
+                RuleMode.UPGRADE, rule, 0, Collections.singletonList(rule));
+            executor.transform(ctx, jsonNode);
+        }
+        RuleContext ctx = new RuleContext(null, null, null, null, null, null, null, false,
+            RuleMode.DOWNGRADE, rule, 0, Collections.singletonList(rule));
+        executor.transform(ctx, jsonNode);
+        assertEquals(2, executor.getCache().hitCount());
+        assertEquals(2, executor.getCache().missCount());
+        assertEquals(1, executor.getCache().evictionCount());
+    }
+
+    @Test
+    public void testSpecializeBySchema() throws Exception {
+        String expr = "[ { \"type\": \"rename\", \"source\": \"ssn\", \"target\": \"socialSecurityNumber\" }, "
+            + "{ \"type\": \"rename\", \"source\": \"taxId\", \"target\": \"tin\" } ]";
+        Rule rule = new Rule(null, null, null, null, null, null, null, expr, null, null, false);
+        ParsedSchema schema = mock(ParsedSchema.class);
+        when(schema.schemaType()).thenReturn("JSON");
+        when(schema.canonicalString()).thenReturn("{\"type\":\"object\",\"additionalProperties\":false,"
+            + "\"properties\":{\"name\":{\"type\":\"string\"},\"ssn\":{\"type\":\"string\"}}}");
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        executor.configure(Collections.singletonMap(JsonLensesExecutor.SPECIALIZE_BY_SCHEMA, "true"));
+
+        RuleContext ctx = new RuleContext(null, schema, null, null, null, null, null, false,
+            RuleMode.UPGRADE, rule, 0, Collections.singletonList(rule));
+        JsonNode upgraded = (JsonNode) executor.transform(ctx, MAPPER.readTree("{\"name\":\"Alice\",\"ssn\":\"1\"}"));
+        assertEquals("{\"name\":\"Alice\",\"socialSecurityNumber\":\"1\"}", upgraded.toString());
+
+        ctx = new RuleContext(null, null, null, null, null, null, null, false,
+            RuleMode.UPGRADE, rule, 0, Collections.singletonList(rule));
+        executor.transform(ctx, upgraded);
+        assertEquals(2, executor.getCache().missCount());
+    }
+
+    @Test
+    public void testRulesApplyOwnLens() throws Exception {
+        List<Rule> rules = Arrays.asList(
+            lensRule("v2", "[ { \"type\": \"rename\", \"source\": \"ssn\", \"target\": \"taxId\" } ]"),
+            lensRule("v3", "[ { \"type\": \"rename\", \"source\": \"taxId\", \"target\": \"tin\" } ]"),
+            lensRule("v4", "[ { \"type\": \"add\", \"name\": \"country\", \"defaultValue\": \"US\" } ]"));
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        JsonNode message = MAPPER.readTree("{\"name\":\"Alice\",\"ssn\":\"1\"}");
+
+        // a rule is not fused with the rules after it, which may not run
+        RuleContext ctx = new RuleContext(null, null, null, null, null, null, null, false,
+            RuleMode.UPGRADE, rules.get(0), 0, rules);
+        JsonNode result = (JsonNode) executor.transform(ctx, message);
+        assertEquals(MAPPER.readTree("{\"name\":\"Alice\",\"taxId\":\"1\"}"), result);
+
+        for (int i = 1; i < rules.size(); i++) {
+            ctx = new RuleContext(null, null, null, null, null, null, null, false,
+                RuleMode.UPGRADE, rules.get(i), i, rules);
+            result = (JsonNode) executor.transform(ctx, result);
+        }
+        assertEquals(MAPPER.readTree("{\"name\":\"Alice\",\"tin\":\"1\",\"country\":\"US\"}"), result);
+        assertEquals(3, executor.getCache().missCount());
+    }
+
+    @Test
+    public void testMigrate() throws Exception {
+        List<Rule> chain = Arrays.asList(
+            lensRule("v2", "[ { \"type\": \"rename\", \"source\": \"ssn\", \"target\": \"taxId\" } ]"),
+            lensRule("v3", "[ { \"type\": \"in\", \"name\": \"address\", \"lens\": [ "
+                + "{ \"type\": \"rename\", \"source\": \"zip\", \"target\": \"postalCode\" } ] } ]"),
+            lensRule("v4", "[ { \"type\": \"rename\", \"source\": \"taxId\", \"target\": \"tin\" } ]"),
+            lensRule("v5", "[ { \"type\": \"wrap\", \"name\": \"tin\" } ]"));
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        JsonNode message = MAPPER.readTree("{\"ssn\":\"1\",\"address\":{\"zip\":\"02134\"}}");
+
+        // the fused chain gives the same result as applying each rule in turn
+        JsonNode stepwise = message;
+        for (Rule rule : chain) {
+            stepwise = executor.migrate(Collections.singletonList(rule), RuleMode.UPGRADE, stepwise);
+        }
+        JsonNode upgraded = executor.migrate(chain, RuleMode.UPGRADE, message);
+        assertEquals(stepwise, upgraded);
+        assertEquals(MAPPER.readTree("{\"address\":{\"postalCode\":\"02134\"},\"tin\":[\"1\"]}"), upgraded);
+
+        // the fused chain is optimized, with the same result as the unoptimized chain even where a
+        // name that the chain passes through is already taken
+        List<LensOp> fused = new ArrayList<>();
+        for (Rule rule : chain) {
+            fused.addAll(MAPPER.readValue(rule.getExpr(), new TypeReference<List<LensOp>>() {}));
+        }
+        JsonNode taken = MAPPER.readTree("{\"ssn\":\"1\",\"taxId\":\"2\",\"tin\":\"3\"}");
+        assertEquals(JsonLenses.compile(fused, false).apply(taken), executor.migrate(chain, RuleMode.UPGRADE, taken));
+
+        List<Rule> reversed = Arrays.asList(chain.get(3), chain.get(2), chain.get(1), chain.get(0));
+        assertEquals(message, executor.migrate(reversed, RuleMode.DOWNGRADE, upgraded));
+        assertEquals(message, executor.migrate(Collections.emptyList(), RuleMode.UPGRADE, message));
+
+        long misses = executor.getCache().missCount();
+        executor.migrate(chain, RuleMode.UPGRADE, message);
+        assertEquals(misses, executor.getCache().missCount());
+    }
+
+    @Test
+    public void testInPlace() throws Exception {
+        String expr = "[ { \"type\": \"rename\", \"source\": \"address\", \"target\": \"location\" } ]";
+        Rule rule = new Rule(null, null, null, null, null, null, null, expr, null, null, false);
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        executor.configure(Collections.singletonMap(JsonLensesExecutor.IN_PLACE, "true"));
+        JsonNode message = MAPPER.readTree("{\"name\":\"Alice\",\"address\":{\"city\":\"Boston\"}}");
+        JsonNode address = message.get("address");
+
+        RuleContext ctx = new RuleContext(null, null, null, null, null, null, null, false,
+            RuleMode.UPGRADE, rule, 0, Collections.singletonList(rule));
+        JsonNode upgraded = (JsonNode) executor.transform(ctx, message);
+        assertEquals("{\"name\":\"Alice\",\"location\":{\"city\":\"Boston\"}}", upgraded.toString());
+        assertSame(address, upgraded.get("location"));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        String expr = "[ { \"type\": \"in\", \"name\": \"items\", \"lens\": [ { \"type\": \"map\", "
+            + "\"lens\": [ { \"type\": \"rename\", \"source\": \"id\", \"target\": \"key\" } ] } ] } ]";
+        Rule rule = new Rule(null, null, null, null, null, null, null, expr, null, null, false);
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        executor.configure(Collections.singletonMap(JsonLensesExecutor.PARALLEL_THRESHOLD, "2"));
+        JsonNode message = MAPPER.readTree("{\"items\":[{\"id\":1},{\"id\":2},{\"id\":3},{\"id\":4},{\"id\":5}]}");
+
+        RuleContext ctx = new RuleContext(null, null, null, null, null, null, null, false,
+            RuleMode.UPGRADE, rule, 0, Collections.singletonList(rule));
+        JsonNode upgraded = (JsonNode) executor.transform(ctx, message);
+        assertEquals("{\"items\":[{\"key\":1},{\"key\":2},{\"key\":3},{\"key\":4},{\"key\":5}]}",
+            upgraded.toString());
+    }
+
+    @Test
+    public void testLazy() throws Exception {
+        String expr = "[ { \"type\": \"rename\", \"source\": \"ssn\", \"target\": \"socialSecurityNumber\" } ]";
+        Rule rule = new Rule(null, null, null, null, null, null, null, expr, null, null, false);
+        JsonLensesExecutor executor = new JsonLensesExecutor();
+        executor.configure(Collections.singletonMap(JsonLensesExecutor.LAZY, "true"));
+
+        RuleContext ctx = new RuleContext(null, null, null, null, null, null, null, false,
+            RuleMode.UPGRADE, rule, 0, Collections.singletonList(rule));
+        JsonNode upgraded = (JsonNode) executor.transform(ctx, MAPPER.readTree("{\"name\":\"Alice\",\"ssn\":\"1\"}"));
+        assertTrue(upgraded instanceof LensedJsonNode);
+        assertEquals("1", upgraded.get("socialSecurityNumber").textValue());
+        assertEquals("{\"name\":\"Alice\",\"socialSecurityNumber\":\"1\"}", upgraded.toString());
+    }
+
+    private static Rule lensRule(String name, String expr) {
+        return new Rule(name, null, null, RuleMode.UPDOWN, JsonLensesExecutor.TYPE, null, null, expr, null, null,
+            false);
+    }
 }
@@ -0,0 +1,211 @@
+package io.yokota.json.lenses.rules;
+
+import io.confluent.kafka.schemaregistry.client.rest.entities.RuleMode;
+import io.yokota.json.lenses.CompiledLens;
+import io.yokota.json.lenses.JsonLenses;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class LensCacheTest {
+
+    private static final CompiledLens LENS = JsonLenses.compile(Collections.emptyList());
+
+    @Test
+    public void testLruEviction() throws Exception {
+        LensCache cache = new LensCache(2, LensCache.Policy.LRU);
+        AtomicInteger loads = new AtomicInteger();
+        LensCache.Loader loader = (expr, mode) -> {
+            loads.incrementAndGet();
+            return LENS;
+        };
+
+        cache.get("a", RuleMode.UPGRADE, loader);
+        cache.get("a", RuleMode.DOWNGRADE, loader);
+        cache.get("a", RuleMode.UPGRADE, loader);
+        cache.get("b", RuleMode.UPGRADE, loader);
+        // a/DOWNGRADE is the least recently used
+        cache.get("a", RuleMode.DOWNGRADE, loader);
+
+        assertThat(loads.get()).isEqualTo(4);
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(4);
+        assertThat(cache.evictionCount()).isEqualTo(2);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testLfuEviction() throws Exception {
+        LensCache cache = new LensCache(2, LensCache.Policy.LFU);
+        LensCache.Loader loader = (expr, mode) -> LENS;
+
+        cache.get("a", RuleMode.UPGRADE, loader);
+        cache.get("a", RuleMode.UPGRADE, loader);
+        cache.get("b", RuleMode.UPGRADE, loader);
+        // b is more recent but less frequently used than a
+        cache.get("c", RuleMode.UPGRADE, loader);
+        cache.get("a", RuleMode.UPGRADE, loader);
+
+        assertThat(cache.hitCount()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(3);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        LensCache cache = new LensCache(10, LensCache.Policy.LRU);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        LensCache.Loader loader = (expr, mode) -> {
+            loads.incrementAndGet();
+            release.await();
+            return LENS;
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<CompiledLens>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> cache.get("a", RuleMode.UPGRADE, loader)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<CompiledLens> result : results) {
+                assertThat(result.get()).isSameAs(LENS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.hitCount()).isEqualTo(7);
+    }
+
+    @Test
+    public void testFailedLoadIsNotCached() throws Exception {
+        LensCache cache = new LensCache(10, LensCache.Policy.LRU);
+        assertThatThrownBy(() -> cache.get("a", RuleMode.UPGRADE, (expr, mode) -> {
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.get("a", RuleMode.UPGRADE, (expr, mode) -> LENS)).isSameAs(LENS);
+    }
+
+    @Test
+    public void testEvictionKeepsSize() throws Exception {
+        LensCache cache = new LensCache(20, LensCache.Policy.LRU);
+        for (int i = 0; i < 20; i++) {
+            cache.get("k" + i, RuleMode.UPGRADE, (expr, mode) -> LENS);
+        }
+        // a failed load gives back its place, after making room for itself
+        assertThatThrownBy(() -> cache.get("x", RuleMode.UPGRADE, (expr, mode) -> {
+            throw new IllegalStateException("boom");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.size()).isEqualTo(19);
+
+        for (int i = 20; i < 1020; i++) {
+            cache.get("k" + i, RuleMode.UPGRADE, (expr, mode) -> LENS);
+            assertThat(cache.size()).isLessThanOrEqualTo(20);
+        }
+        assertThat(cache.size()).isEqualTo(20);
+        assertThat(cache.evictionCount()).isEqualTo(1000);
+        long misses = cache.missCount();
+        cache.get("k1019", RuleMode.UPGRADE, (expr, mode) -> LENS);
+        assertThat(cache.missCount()).isEqualTo(misses);
+
+        cache.clear();
+        cache.get("a", RuleMode.UPGRADE, (expr, mode) -> LENS);
+        assertThat(cache.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSchemaIsPartOfKey() throws Exception {
+        LensCache cache = new LensCache(10, LensCache.Policy.LRU);
+        AtomicInteger loads = new AtomicInteger();
+        LensCache.Loader loader = (expr, mode) -> {
+            loads.incrementAndGet();
+            return LENS;
+        };
+
+        cache.get("a", RuleMode.UPGRADE, loader);
+        cache.get("a", RuleMode.UPGRADE, "{}", loader);
+        cache.get("a", RuleMode.UPGRADE, "{ }", loader);
+        cache.get("a", RuleMode.UPGRADE, "{}", loader);
+
+        assertThat(loads.get()).isEqualTo(3);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testSampledLfuKeepsFrequentEntries() throws Exception {
+        LensCache cache = new LensCache(100, LensCache.Policy.LFU);
+        AtomicInteger loads = new AtomicInteger();
+        LensCache.Loader loader = (expr, mode) -> {
+            loads.incrementAndGet();
+            return LENS;
+        };
+        for (int i = 0; i < 100; i++) {
+            cache.get("k" + i, RuleMode.UPGRADE, loader);
+        }
+        for (int i = 0; i < 50; i++) {
+            cache.get("k" + i, RuleMode.UPGRADE, loader);
+            cache.get("k" + i, RuleMode.UPGRADE, loader);
+        }
+        for (int i = 100; i < 150; i++) {
+            cache.get("k" + i, RuleMode.UPGRADE, loader);
+        }
+        assertThat(cache.size()).isEqualTo(100);
+        assertThat(cache.evictionCount()).isEqualTo(50);
+
+        // an evicted entry is among the sampled ones that were used least
+        loads.set(0);
+        for (int i = 0; i < 50; i++) {
+            cache.get("k" + i, RuleMode.UPGRADE, loader);
+        }
+        assertThat(loads.get()).isLessThan(10);
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        LensCache cache = new LensCache(16, LensCache.Policy.LFU);
+        AtomicInteger loads = new AtomicInteger();
+        LensCache.Loader loader = (expr, mode) -> {
+            loads.incrementAndGet();
+            return LENS;
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int seed = t;
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        // a few hot keys and many cold ones
+                        int k = i % 4 == 0 ? (i * 31 + seed) % 64 : i % 8;
+                        assertThat(cache.get("k" + k, RuleMode.UPGRADE, loader)).isSameAs(LENS);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertThat(cache.hitCount() + cache.missCount()).isEqualTo(80000);
+        assertThat(cache.missCount()).isEqualTo(loads.get());
+        assertThat(cache.size()).isLessThanOrEqualTo(16);
+    }
+}